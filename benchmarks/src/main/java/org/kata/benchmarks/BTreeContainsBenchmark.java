@@ -0,0 +1,73 @@
+package org.kata.benchmarks;
+
+import org.kata.BTreeNodeStorage;
+import org.kata.BTreeOfIntegers;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Measures lookups of keys that are in the tree and of keys that are not,
+ * the tree holds even keys only
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BTreeContainsBenchmark {
+    private static final int KEYS = 1_000_000;
+    private static final int PROBES = 1 << 16;
+
+    @Param({"2", "16", "64"})
+    public int minDegree;
+
+    @Param({"256", "8192"})
+    public int cacheSize;
+
+    // zero keeps the key filter disabled
+    @Param({"0", "0.01"})
+    public double keyFilterFalsePositiveRate;
+
+    private BTreeNodeStorage storage;
+    private BTreeOfIntegers tree;
+    private int[] presentKeys;
+    private int[] missingKeys;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createTree() throws IOException {
+        storage = new BTreeNodeStorage(cacheSize);
+        tree = BTreeOfIntegers.bulkLoad(minDegree,
+                IntStream.range(0, KEYS).map(key -> 2 * key).iterator(),
+                0.75, storage);
+        if (keyFilterFalsePositiveRate > 0) {
+            tree.enableKeyFilter(keyFilterFalsePositiveRate);
+        }
+        Random random = new Random(42);
+        presentKeys = random.ints(PROBES, 0, KEYS).map(key -> 2 * key)
+                .toArray();
+        missingKeys = random.ints(PROBES, 0, KEYS).map(key -> 2 * key + 1)
+                .toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeTree() throws IOException {
+        tree.close();
+        storage.close();
+    }
+
+    @Benchmark
+    public boolean containsHit() {
+        return tree.contains(presentKeys[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public boolean containsMiss() {
+        return tree.contains(missingKeys[next++ & (PROBES - 1)]);
+    }
+}
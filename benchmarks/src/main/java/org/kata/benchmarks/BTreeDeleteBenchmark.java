@@ -0,0 +1,85 @@
+package org.kata.benchmarks;
+
+import org.kata.BTreeNodeStorage;
+import org.kata.BTreeOfIntegers;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Measures deletes of all keys of a tree in random order, the tree is built
+ * again before every iteration. Batches of a single key are deleted by
+ * {@link BTreeOfIntegers#delete(int)}, larger ones by
+ * {@link BTreeOfIntegers#deleteAll(int[])}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BTreeDeleteBenchmark {
+    private static final int KEYS = 100_000;
+
+    @Param({"2", "16", "64"})
+    public int minDegree;
+
+    @Param({"256", "8192"})
+    public int cacheSize;
+
+    @Param({"1", "256"})
+    public int batchSize;
+
+    private int[][] batches;
+    private BTreeNodeStorage storage;
+    private BTreeOfIntegers tree;
+
+    @Setup(Level.Trial)
+    public void splitKeys() {
+        int[] keys = IntStream.range(0, KEYS).toArray();
+        Random random = new Random(42);
+        for (int i = KEYS - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int key = keys[i];
+            keys[i] = keys[j];
+            keys[j] = key;
+        }
+        batches = new int[(KEYS + batchSize - 1) / batchSize][];
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = Arrays.copyOfRange(keys, i * batchSize,
+                    Math.min(KEYS, (i + 1) * batchSize));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createTree() throws IOException {
+        storage = new BTreeNodeStorage(cacheSize);
+        tree = BTreeOfIntegers.bulkLoad(minDegree,
+                IntStream.range(0, KEYS).iterator(), 0.75, storage);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeTree() throws IOException {
+        tree.close();
+        storage.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(KEYS)
+    public int deleteAllKeys() {
+        int deleted = 0;
+        for (int[] batch : batches) {
+            if (batch.length == 1) {
+                tree.delete(batch[0]);
+                deleted++;
+            } else {
+                deleted += tree.deleteAll(batch);
+            }
+        }
+        return deleted;
+    }
+}
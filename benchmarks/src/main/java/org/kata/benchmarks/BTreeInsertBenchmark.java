@@ -0,0 +1,73 @@
+package org.kata.benchmarks;
+
+import org.kata.BTreeNodeStorage;
+import org.kata.BTreeOfIntegers;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures inserts into a tree that grows during an iteration, keys come in
+ * ascending order, in random order or in random batches
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BTreeInsertBenchmark {
+    private static final int BATCH_SIZE = 1024;
+    private static final int RANDOM_KEYS = 1 << 20;
+
+    @Param({"2", "16", "64"})
+    public int minDegree;
+
+    @Param({"256", "8192"})
+    public int cacheSize;
+
+    private int[] randomKeys;
+    private BTreeNodeStorage storage;
+    private BTreeOfIntegers tree;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void generateKeys() {
+        randomKeys = new Random(42).ints(RANDOM_KEYS).toArray();
+    }
+
+    @Setup(Level.Iteration)
+    public void createTree() throws IOException {
+        storage = new BTreeNodeStorage(cacheSize);
+        tree = new BTreeOfIntegers(minDegree, storage);
+        next = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeTree() throws IOException {
+        tree.close();
+        storage.close();
+    }
+
+    @Benchmark
+    public void sequentialInsert() {
+        tree.insert(next++);
+    }
+
+    @Benchmark
+    public void randomInsert() {
+        tree.insert(randomKeys[next++ & (RANDOM_KEYS - 1)]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void batchedInsert() {
+        int[] batch = new int[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch[i] = randomKeys[next++ & (RANDOM_KEYS - 1)];
+        }
+        tree.insertAll(batch);
+    }
+}
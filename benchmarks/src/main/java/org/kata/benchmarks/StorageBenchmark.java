@@ -0,0 +1,92 @@
+package org.kata.benchmarks;
+
+import org.kata.ByteArrayCodec;
+import org.kata.CachedStorage;
+import org.kata.FileBasedStorage;
+import org.kata.MappedFileStorage;
+import org.kata.Storage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loads and updates of random objects of every {@link Storage}
+ * implementation. Cache size applies to the cached storage only, it keeps
+ * objects of a file based storage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+    private static final int OBJECTS = 1 << 14;
+
+    @Param({"file", "mapped", "cached"})
+    public String storageType;
+
+    @Param({"64", "1024"})
+    public int objectSize;
+
+    @Param({"256", "8192"})
+    public int cacheSize;
+
+    private Storage<byte[]> storage;
+    private Closeable resource;
+    private long[] handles;
+    private int[] probes;
+    private byte[] object;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createStorage() throws IOException {
+        switch (storageType) {
+            case "file":
+                FileBasedStorage<byte[]> fileStorage =
+                        new FileBasedStorage<>(new ByteArrayCodec());
+                storage = fileStorage;
+                resource = fileStorage;
+                break;
+            case "mapped":
+                storage = new MappedFileStorage<>(new ByteArrayCodec());
+                break;
+            case "cached":
+                FileBasedStorage<byte[]> cachedFileStorage =
+                        new FileBasedStorage<>(new ByteArrayCodec());
+                storage = new CachedStorage<>(cachedFileStorage, cacheSize);
+                resource = cachedFileStorage;
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown storage type " + storageType);
+        }
+        object = new byte[objectSize];
+        new Random(42).nextBytes(object);
+        handles = new long[OBJECTS];
+        for (int i = 0; i < OBJECTS; i++) {
+            handles[i] = storage.create(object);
+        }
+        probes = new Random(7).ints(OBJECTS, 0, OBJECTS).toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void closeStorage() throws IOException {
+        if (resource != null) {
+            resource.close();
+        }
+    }
+
+    @Benchmark
+    public byte[] load() throws IOException, ClassNotFoundException {
+        return storage.load(handles[probes[next++ & (OBJECTS - 1)]]);
+    }
+
+    @Benchmark
+    public void update() throws IOException {
+        storage.update(object, handles[probes[next++ & (OBJECTS - 1)]]);
+    }
+}
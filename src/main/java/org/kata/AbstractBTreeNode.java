@@ -0,0 +1,315 @@
+package org.kata;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * <code>AbstractBTreeNode</code> is the part of B-tree node that does not
+ * depend on type of keys: handles of children and the changes of tree
+ * structure, which are split of a full child, rotation of a key through the
+ * parent and merge of two children. Keys, and values of keys if there are
+ * any, are kept by subclasses in arrays of their own, so
+ * {@link BTreeOfIntegers.BTreeNode} keeps int keys in a primitive array,
+ * while nodes of {@link BTree} keep keys of any type serialized. Subclasses
+ * only copy entries between positions of nodes, an entry is a key together
+ * with its value.
+ *
+ * @param <N> a type of nodes of the same tree
+ */
+abstract class AbstractBTreeNode<N extends AbstractBTreeNode<N>> {
+    int minDegree;
+    int keyCount;
+    long[] childrenHandles;
+    int childCount;
+
+    AbstractBTreeNode(int minDegree, long[] childrenHandles,
+                      int keyCount, int childCount)
+    {
+        this.minDegree = minDegree;
+        this.childrenHandles = childrenHandles;
+        this.keyCount = keyCount;
+        this.childCount = childCount;
+    }
+
+    public boolean isLeaf() {
+        return childCount == 0;
+    }
+
+    public boolean isFull() {
+        return keyCount >= maxKeysPerNode();
+    }
+
+    public int getMinDegree() {
+        return minDegree;
+    }
+
+    int maxKeysPerNode() {
+        return 2 * minDegree - 1;
+    }
+
+    int numberOfKeys() {
+        return keyCount;
+    }
+
+    int numberOfChildren() {
+        return childCount;
+    }
+
+    long childHandleAt(int index) {
+        return childrenHandles[index];
+    }
+
+    /**
+     * Splits the full child at the given position in two nodes: the child
+     * keeps the lower half of its keys and children, a new node created
+     * next to it gets the upper half and the median key goes up to this
+     * node between them. A leaf of B+-tree keeps all keys, so its median
+     * stays in the new leaf and only a copy of it goes up, and the new leaf
+     * is linked into the chain of leaves.
+     */
+    void splitChild(int childIndex, N child) {
+        N sibling = child.createSibling();
+        boolean copyUp = child.isLeaf() && child.linksLeaves();
+        int firstKeyToMove = copyUp ? minDegree - 1 : minDegree;
+        int keysToMove = child.keyCount - firstKeyToMove;
+        child.copyEntries(firstKeyToMove, sibling, 0, keysToMove);
+        sibling.keyCount = keysToMove;
+        if (!child.isLeaf()) {
+            int childrenToMove = child.childCount - minDegree;
+            System.arraycopy(child.childrenHandles, minDegree,
+                    sibling.childrenHandles, 0, childrenToMove);
+            sibling.childCount = childrenToMove;
+            child.childCount = minDegree;
+        }
+        insertEntryFrom(childIndex, child, minDegree - 1);
+        child.keyCount = minDegree - 1;
+        addChild(childIndex + 1, sibling.getHandle());
+        if (copyUp) {
+            child.linkNextLeaf(sibling);
+        }
+
+        sibling.saveOnDisk();
+        child.saveOnDisk();
+        saveOnDisk();
+    }
+
+    /**
+     * Moves the separator of the child and its left sibling down to the
+     * child and the last key of the sibling up to this node, so the child
+     * gets one more key
+     */
+    void rotateFromLeftSibling(int childIndex, N child, N leftSibling) {
+        int separator = childIndex - 1;
+        int last = leftSibling.keyCount - 1;
+        child.insertEntryFrom(0, self(), separator);
+        replaceEntryFrom(separator, leftSibling, last);
+        leftSibling.removeKeyAt(last);
+        if (!leftSibling.isLeaf()) {
+            int lastChild = leftSibling.childCount - 1;
+            child.addChild(0, leftSibling.childrenHandles[lastChild]);
+            leftSibling.removeChildAt(lastChild);
+        }
+
+        leftSibling.saveOnDisk();
+        child.saveOnDisk();
+        saveOnDisk();
+    }
+
+    /**
+     * Moves the separator of the child and its right sibling down to the
+     * child and the first key of the sibling up to this node, so the child
+     * gets one more key
+     */
+    void rotateFromRightSibling(int childIndex, N child, N rightSibling) {
+        int separator = childIndex;
+        child.insertEntryFrom(child.keyCount, self(), separator);
+        replaceEntryFrom(separator, rightSibling, 0);
+        rightSibling.removeKeyAt(0);
+        if (!rightSibling.isLeaf()) {
+            child.addChild(child.childCount, rightSibling.childrenHandles[0]);
+            rightSibling.removeChildAt(0);
+        }
+
+        rightSibling.saveOnDisk();
+        child.saveOnDisk();
+        saveOnDisk();
+    }
+
+    /**
+     * Moves the separator at the given position and all keys and
+     * children of the right child to the left one, the right child is
+     * dropped from this node
+     */
+    void mergeChildren(int separator, N left, N right) {
+        left.insertEntryFrom(left.keyCount, self(), separator);
+        right.copyEntries(0, left, left.keyCount, right.keyCount);
+        left.keyCount += right.keyCount;
+        System.arraycopy(right.childrenHandles, 0,
+                left.childrenHandles, left.childCount, right.childCount);
+        left.childCount += right.childCount;
+        removeKeyAt(separator);
+        removeChildAt(separator + 1);
+
+        left.saveOnDisk();
+        saveOnDisk();
+    }
+
+    /**
+     * Deletes one entry from the subtree of this node walking it down once.
+     * A child with minimal number of keys gets a key from a sibling or is
+     * merged with it before the walk descends into it, so the entry is
+     * finally removed from a node that could afford it. An entry of internal
+     * node is replaced by the closest entry of a leaf next to it. This node
+     * could be left without keys, then its only child should replace it.
+     *
+     * @param search a search of the key to delete within a node, it returns
+     *               position of the key if it is in the node, otherwise
+     *               <code>(-(position for the key) - 1)</code>
+     * @return <code>true</code> if there was such key
+     */
+    boolean deleteEntry(ToIntFunction<N> search) {
+        N node = self();
+        while (true) {
+            int position = search.applyAsInt(node);
+            if (node.isLeaf()) {
+                if (position < 0) {
+                    return false;
+                }
+                node.removeKeyAt(position);
+                node.saveOnDisk();
+                return true;
+            }
+            if (position >= 0) {
+                N left = node.childAt(position);
+                if (left.keyCount >= minDegree) {
+                    node.replaceByEdgeEntry(position, left, false);
+                    return true;
+                }
+                N right = node.childAt(position + 1);
+                if (right.keyCount >= minDegree) {
+                    node.replaceByEdgeEntry(position, right, true);
+                    return true;
+                }
+                node.mergeChildren(position, left, right);
+                node = left;
+            } else {
+                node = node.childToDescend(-position - 1);
+            }
+        }
+    }
+
+    /**
+     * Replaces entry at the given position by the lowest or the highest
+     * entry of the subtree which root has more than minimal number of keys,
+     * the entry is deleted from the subtree
+     */
+    void replaceByEdgeEntry(int position, N subtreeRoot,
+                            boolean lowest)
+    {
+        N node = subtreeRoot;
+        while (!node.isLeaf()) {
+            node = node.childToDescend(lowest ? 0 : node.childCount - 1);
+        }
+        int edge = lowest ? 0 : node.keyCount - 1;
+        replaceEntryFrom(position, node, edge);
+        saveOnDisk();
+        node.removeKeyAt(edge);
+        node.saveOnDisk();
+    }
+
+    /**
+     * @return the child at the given position if it has more than minimal
+     * number of keys, otherwise the child gets a key from a sibling or is
+     * merged with a sibling and the node holding its keys now is returned
+     */
+    N childToDescend(int index) {
+        N child = childAt(index);
+        if (child.keyCount >= minDegree) {
+            return child;
+        }
+        N left = index > 0 ? childAt(index - 1) : null;
+        if (left != null && left.keyCount >= minDegree) {
+            rotateFromLeftSibling(index, child, left);
+            return child;
+        }
+        N right = index < childCount - 1 ? childAt(index + 1) : null;
+        if (right != null && right.keyCount >= minDegree) {
+            rotateFromRightSibling(index, child, right);
+            return child;
+        }
+        if (left != null) {
+            mergeChildren(index - 1, left, child);
+            return left;
+        }
+        mergeChildren(index, child, right);
+        return child;
+    }
+
+    protected void addChild(int index, long childNodeHandle) {
+        System.arraycopy(childrenHandles, index,
+                childrenHandles, index + 1, childCount - index);
+        childrenHandles[index] = childNodeHandle;
+        childCount++;
+    }
+
+    void removeChildAt(int index) {
+        System.arraycopy(childrenHandles, index + 1, childrenHandles, index,
+                childCount - index - 1);
+        childCount--;
+    }
+
+    /**
+     * @return <code>true</code> if the node belongs to B+-tree, which keeps
+     * all keys in leaves linked into a chain
+     */
+    boolean linksLeaves() {
+        return false;
+    }
+
+    /**
+     * Puts the given new leaf right after this leaf in the chain of leaves
+     */
+    void linkNextLeaf(N leaf) {
+        throw new UnsupportedOperationException(
+                "Leaves of B-tree are not linked");
+    }
+
+    /**
+     * @return child at the given position loaded from the storage
+     */
+    abstract N childAt(int index);
+
+    /**
+     * @return new empty node of the same tree that is already saved in the
+     * storage, so it has a handle
+     */
+    abstract N createSibling();
+
+    protected abstract Long getHandle();
+
+    abstract void saveOnDisk();
+
+    /**
+     * Copies entries at the given positions of this node over entries of
+     * another node, numbers of keys of both nodes are not changed
+     */
+    abstract void copyEntries(int from, N destination, int destinationFrom,
+                              int count);
+
+    /**
+     * Inserts a copy of entry of another node at the given position shifting
+     * following entries to the right
+     */
+    abstract void insertEntryFrom(int position, N source, int sourceIndex);
+
+    /**
+     * Replaces entry at the given position by a copy of entry of another node
+     */
+    abstract void replaceEntryFrom(int position, N source, int sourceIndex);
+
+    abstract void removeKeyAt(int index);
+
+    @SuppressWarnings("unchecked")
+    private N self() {
+        return (N) this;
+    }
+}
@@ -0,0 +1,37 @@
+package org.kata;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Defines non-blocking counterpart of {@link Storage}. Operations return as
+ * soon as I/O is issued, so a single thread could keep many of them in
+ * flight. Futures are completed exceptionally with the exceptions the
+ * blocking operations would throw.
+ *
+ * @param <T> a type of objects that a given storage stores/loads
+ */
+public interface AsyncStorage<T> {
+    /**
+     * Creates object in the storage
+     * @param object an object to store
+     * @return future of a handle object that can be used to load object
+     * back from storage later
+     */
+    CompletableFuture<Long> createAsync(T object);
+
+    /**
+     * Update object in the storage, the object is loaded in its previous
+     * state until the returned future is completed
+     * @param object an new object state that needs to persisted in the storage
+     * @param handle a handle of the object to update
+     * @return future completed once the new state is written
+     */
+    CompletableFuture<Void> updateAsync(T object, long handle);
+
+    /**
+     * Loads object from storage
+     * @param handle a handle of object to load from storage
+     * @return future of restored from storage object
+     */
+    CompletableFuture<T> loadAsync(long handle);
+}
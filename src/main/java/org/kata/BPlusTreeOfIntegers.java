@@ -0,0 +1,206 @@
+package org.kata;
+
+import org.kata.BTreeOfIntegers.BTreeNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+import static java.lang.String.format;
+import static org.kata.BTreeOfIntegers.BTreeNode.NO_NEXT_LEAF;
+
+/**
+ * <code>BPlusTreeOfIntegers</code> is a B+-tree variant of
+ * {@link BTreeOfIntegers}. All keys are kept in leaves and every leaf knows
+ * handle of the next one, internal nodes keep only separators of their
+ * children. Ordered traversal is therefore a walk over the chain of leaves
+ * and internal nodes stay small.
+ * <p>The tree is made of the same {@link BTreeNode}s as
+ * {@link BTreeOfIntegers} is, its nodes link leaves and are written by
+ * {@link BTreeNodeCodec} in a format with handle of the next leaf. A leaf
+ * is split the way B-tree nodes are, except that its median stays in the
+ * new leaf and only a copy of it goes up as a separator. The root is pinned
+ * in the cache.</p>
+ * <p>Keys are deleted from leaves without rebalancing, so leaves may become
+ * short of keys or even empty.</p>
+ * <p>
+ * Note: This implementation is NOT thread-safe, so using in multithreading
+ * context will require additional synchronization
+ * </p>
+ */
+public class BPlusTreeOfIntegers implements Closeable {
+    private final BTreeNodeStorage storage;
+    // whether the storage is created by the tree and closed with it
+    private final boolean ownsStorage;
+    private BTreeNode root;
+
+    /**
+     * Creates <code>BPlusTreeOfIntegers</code> which nodes are kept in a
+     * storage of its own
+     *
+     * @param minDegree a parameter of B-tree that controls number of keys per
+     *                  tree node and child nodes.
+     */
+    public BPlusTreeOfIntegers(int minDegree) {
+        this(minDegree, BTreeNodeStorage.temporal(), true);
+    }
+
+    /**
+     * Creates <code>BPlusTreeOfIntegers</code> which nodes are kept in the
+     * given storage
+     *
+     * @param minDegree a parameter of B-tree that controls number of keys per
+     *                  tree node and child nodes.
+     * @param storage a storage of nodes, it could be shared with other trees
+     *                and is not closed with the tree
+     */
+    public BPlusTreeOfIntegers(int minDegree, BTreeNodeStorage storage) {
+        this(minDegree, storage, false);
+    }
+
+    private BPlusTreeOfIntegers(
+            int minDegree, BTreeNodeStorage storage, boolean ownsStorage)
+    {
+        this.storage = storage;
+        this.ownsStorage = ownsStorage;
+        this.root = new BTreeNode(storage, minDegree, false, true);
+        this.root.pin();
+    }
+
+    /**
+     * Inserts key into B+-tree
+     *
+     * @param key a key to insert
+     */
+    public void insert(int key) {
+        if (root.isFull()) {
+            BTreeNode newRoot =
+                    new BTreeNode(storage, root.getMinDegree(), false, true);
+            newRoot.addChild(0, root.getHandle());
+            newRoot.splitChild(root);
+            newRoot.pin();
+            root.unpin();
+            root = newRoot;
+        }
+        root.insertNonFull(key);
+    }
+
+    /**
+     * Checks if the specified key is in B+-tree
+     *
+     * @param key a key to check
+     * @return <code>true</code> if key is in this tree or <code>false</code>
+     * if otherwise
+     */
+    public boolean contains(int key) {
+        return rangeScan(key, key).hasNext();
+    }
+
+    /**
+     * Deletes one occurrence of the specified key from the leaf that holds it
+     *
+     * @param key a key to delete
+     * @throws NoSuchElementException if tree does not contain the key
+     */
+    public void delete(int key) {
+        BTreeNode leaf = findLeaf(key);
+        while (leaf != null) {
+            int position = leaf.findPositionForKey(key);
+            if (position < leaf.numberOfKeys()) {
+                if (leaf.keyAt(position) == key) {
+                    leaf.removeEntryAt(position);
+                    return;
+                }
+                break;
+            }
+            leaf = nextLeaf(leaf);
+        }
+        throw new NoSuchElementException(
+                format("There is no key %d in the tree", key));
+    }
+
+    /**
+     * Returns keys of this tree that are within the specified range in
+     * ascending order. The iterator descends to the first leaf once and then
+     * follows the chain of leaves keeping only the current leaf in memory.
+     * <p>Note: the tree should not be modified while the iterator is used.</p>
+     *
+     * @param from the lowest key to return, inclusive
+     * @param to the highest key to return, inclusive
+     * @return iterator over keys within the range
+     */
+    public PrimitiveIterator.OfInt rangeScan(int from, int to) {
+        return new LeafCursor(from <= to ? findLeaf(from) : null, from, to);
+    }
+
+    /**
+     * Releases the root of the tree and closes the storage of nodes if the
+     * tree was created without a storage. The tree should not be used
+     * afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        root.unpin();
+        if (ownsStorage) {
+            storage.close();
+        }
+    }
+
+    /**
+     * @return the left most leaf that may contain the key
+     */
+    private BTreeNode findLeaf(int key) {
+        BTreeNode node = root;
+        while (!node.isLeaf()) {
+            node = node.childAt(node.findPositionForKey(key));
+        }
+        return node;
+    }
+
+    private BTreeNode nextLeaf(BTreeNode leaf) {
+        return leaf.nextLeaf() == NO_NEXT_LEAF
+                ? null : storage.load(leaf.nextLeaf());
+    }
+
+    /**
+     * Walks keys of the chain of leaves starting from the given one
+     */
+    private class LeafCursor implements PrimitiveIterator.OfInt {
+        private final int to;
+        private BTreeNode leaf;
+        private int position;
+
+        private LeafCursor(BTreeNode firstLeaf, int from, int to) {
+            this.to = to;
+            this.leaf = firstLeaf;
+            if (leaf != null) {
+                this.position = leaf.findPositionForKey(from);
+                skipExhaustedLeaves();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null && leaf.keyAt(position) <= to;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException(
+                        "There are no more keys in range");
+            }
+            int key = leaf.keyAt(position++);
+            skipExhaustedLeaves();
+            return key;
+        }
+
+        private void skipExhaustedLeaves() {
+            while (leaf != null && position >= leaf.numberOfKeys()) {
+                leaf = nextLeaf(leaf);
+                position = 0;
+            }
+        }
+    }
+}
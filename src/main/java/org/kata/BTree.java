@@ -0,0 +1,407 @@
+package org.kata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+import static org.kata.BTreeOfIntegers.BTreeNode.LOWEST_MIN_DEGREE;
+
+/**
+ * <code>BTree</code> is an implementation of B-tree data structure for keys
+ * of any type that could be serialized by {@link KeyCodec} into fixed number
+ * of bytes. Nodes keep keys serialized in one byte array and the tree
+ * compares them with the codec in serialized form.
+ * <p>Children of nodes and changes of tree structure (splits, rotations and
+ * merges) are handled by {@link AbstractBTreeNode}, the same way they are
+ * for {@link BTreeOfIntegers}. The tree itself only searches serialized
+ * keys.</p>
+ * <p>Nodes are kept in a temporal data file of the tree behind a buffer
+ * pool, the root is pinned there. The file is closed with the tree.</p>
+ * <p>
+ * Note: This implementation is NOT thread-safe, so using in multithreading
+ * context will require additional synchronization
+ * </p>
+ *
+ * @param <K> a type of keys
+ */
+public class BTree<K> implements Closeable {
+    private static final Logger LOG = Logger.getLogger(BTree.class.getName());
+
+    private final KeyCodec<K> keyCodec;
+    private final int minDegree;
+    private final FileBasedStorage<Node> fileStorage;
+    private final CachedStorage<Node> storage;
+    private Node root;
+
+    /**
+     * Creates <code>BTree</code> which nodes are stored in temporal file
+     *
+     * @param keyCodec a codec of keys
+     * @param minDegree a parameter of B-tree that controls number of keys per
+     *                  tree node and child nodes.
+     */
+    public BTree(KeyCodec<K> keyCodec, int minDegree) throws IOException {
+        if (minDegree < LOWEST_MIN_DEGREE) {
+            throw new IllegalArgumentException(
+                    format("Min degree for tree node should be greater than " +
+                            "or equals to 2, but passed '%d'", minDegree));
+        }
+        this.keyCodec = keyCodec;
+        this.minDegree = minDegree;
+        this.fileStorage = new FileBasedStorage<>(new NodeCodec());
+        this.storage = new CachedStorage<>(fileStorage);
+        this.root = createNode();
+        pin(root.handle);
+    }
+
+    /**
+     * Inserts key into B-tree
+     *
+     * @param key a key to insert
+     */
+    public void insert(K key) {
+        byte[] encodedKey = encode(key);
+        if (root.isFull()) {
+            Node newRoot = createNode();
+            newRoot.addChild(0, root.handle);
+            newRoot.splitChild(0, root);
+            changeRoot(newRoot);
+        }
+        Node node = root;
+        while (!node.isLeaf()) {
+            int position = findPositionForKey(node, encodedKey);
+            Node child = node.childAt(position);
+            if (child.isFull()) {
+                node.splitChild(position, child);
+                if (compare(encodedKey, node.keys, position) > 0) {
+                    child = node.childAt(position + 1);
+                }
+            }
+            node = child;
+        }
+        node.insertKeyAt(findPositionForKey(node, encodedKey), encodedKey, 0);
+        node.saveOnDisk();
+    }
+
+    /**
+     * Checks if the specified key is in B-tree
+     *
+     * @param key a key to check
+     * @return <code>true</code> if key is in this <code>BTree</code>
+     * or <code>false</code> if otherwise
+     */
+    public boolean contains(K key) {
+        byte[] encodedKey = encode(key);
+        Node node = root;
+        while (true) {
+            int position = searchKey(node, encodedKey);
+            if (position >= 0) {
+                return true;
+            }
+            if (node.isLeaf()) {
+                return false;
+            }
+            node = node.childAt(-position - 1);
+        }
+    }
+
+    /**
+     * Deletes one occurrence of the specified key from B-tree
+     *
+     * @param key a key to delete
+     * @throws NoSuchElementException if tree does not contain the key
+     */
+    public void delete(K key) {
+        byte[] encodedKey = encode(key);
+        boolean deleted = root.deleteEntry(node -> searchKey(node, encodedKey));
+        if (root.numberOfKeys() == 0 && !root.isLeaf()) {
+            changeRoot(root.childAt(0));
+        }
+        if (!deleted) {
+            throw new NoSuchElementException(
+                    format("There is no key %s in the tree", key));
+        }
+    }
+
+    /**
+     * Returns keys of this <code>BTree</code> that are within the specified
+     * range in ascending order. Only the path from root to the current node
+     * is kept in memory, keys are deserialized as they are returned.
+     * <p>Note: the tree should not be modified while the iterator is used.</p>
+     *
+     * @param from the lowest key to return, inclusive
+     * @param to the highest key to return, inclusive
+     * @return iterator over keys within the range
+     */
+    public Iterator<K> rangeScan(K from, K to) {
+        return new RangeCursor(encode(from), encode(to));
+    }
+
+    public KeyCodec<K> getKeyCodec() {
+        return keyCodec;
+    }
+
+    /**
+     * Releases the root of the tree and closes the data file of nodes. The
+     * tree should not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        storage.unpin(root.handle);
+        storage.flush();
+        fileStorage.close();
+    }
+
+    private void changeRoot(Node newRoot) {
+        pin(newRoot.handle);
+        storage.unpin(root.handle);
+        root = newRoot;
+    }
+
+    private int findPositionForKey(Node node, byte[] key) {
+        int position = searchKey(node, key);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    /**
+     * Binary search of the first key that is not less than the given one
+     *
+     * @return position of the key if it is in the node, otherwise
+     * <code>(-(position for the key) - 1)</code>
+     */
+    private int searchKey(Node node, byte[] key) {
+        int low = 0;
+        int high = node.keyCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(key, node.keys, middle) > 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low < node.keyCount && compare(key, node.keys, low) == 0 ?
+                low : -low - 1;
+    }
+
+    private int compare(byte[] key, byte[] keys, int index) {
+        return keyCodec.compare(key, 0, keys, index * keyCodec.width());
+    }
+
+    private byte[] encode(K key) {
+        byte[] encodedKey = new byte[keyCodec.width()];
+        keyCodec.encode(key, encodedKey, 0);
+        return encodedKey;
+    }
+
+    private Node createNode() {
+        Node node = new Node(minDegree);
+        node.saveOnDisk();
+        return node;
+    }
+
+    private void pin(long handle) {
+        try {
+            storage.pin(handle);
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException("Unable to pin B-tree node in cache");
+        }
+    }
+
+    /**
+     * <code>Node</code> of <code>BTree</code> keeps serialized keys one after
+     * another in a byte array
+     */
+    class Node extends AbstractBTreeNode<Node> {
+        private final int keyWidth;
+        private final byte[] keys;
+        private long handle = -1L;
+
+        Node(int minDegree) {
+            super(minDegree, new long[2 * minDegree], 0, 0);
+            this.keyWidth = keyCodec.width();
+            this.keys = new byte[(2 * minDegree - 1) * keyWidth];
+        }
+
+        @Override
+        Node childAt(int index) {
+            try {
+                return storage.load(childrenHandles[index]);
+            } catch (IOException | ClassNotFoundException e) {
+                throw new RuntimeException(
+                        "Unable to read B-tree node from disk");
+            }
+        }
+
+        @Override
+        Node createSibling() {
+            return createNode();
+        }
+
+        @Override
+        protected Long getHandle() {
+            return handle;
+        }
+
+        @Override
+        void saveOnDisk() {
+            try {
+                if (handle < 0) {
+                    handle = storage.create(this);
+                } else {
+                    storage.update(this, handle);
+                }
+            } catch (IOException e) {
+                LOG.severe("Unable to store B-tree node in storage");
+            }
+        }
+
+        @Override
+        void copyEntries(int from, Node destination, int destinationFrom,
+                         int count)
+        {
+            System.arraycopy(keys, from * keyWidth, destination.keys,
+                    destinationFrom * keyWidth, count * keyWidth);
+        }
+
+        @Override
+        void insertEntryFrom(int position, Node source, int sourceIndex) {
+            insertKeyAt(position, source.keys, sourceIndex);
+        }
+
+        @Override
+        void replaceEntryFrom(int position, Node source, int sourceIndex) {
+            System.arraycopy(source.keys, sourceIndex * keyWidth,
+                    keys, position * keyWidth, keyWidth);
+        }
+
+        @Override
+        void removeKeyAt(int index) {
+            System.arraycopy(keys, (index + 1) * keyWidth,
+                    keys, index * keyWidth, (keyCount - index - 1) * keyWidth);
+            keyCount--;
+        }
+
+        private void insertKeyAt(int position, byte[] source, int sourceIndex) {
+            System.arraycopy(keys, position * keyWidth,
+                    keys, (position + 1) * keyWidth,
+                    (keyCount - position) * keyWidth);
+            System.arraycopy(source, sourceIndex * keyWidth,
+                    keys, position * keyWidth, keyWidth);
+            keyCount++;
+        }
+    }
+
+    /**
+     * Walks keys within range in ascending order keeping the path from the
+     * root to the current node, for a leaf the index of a frame points to
+     * the next key and for an internal node to the child being walked
+     */
+    private class RangeCursor implements Iterator<K> {
+        private final Deque<Node> nodes = new ArrayDeque<>();
+        private final Deque<Integer> indexes = new ArrayDeque<>();
+        private final byte[] to;
+        private K nextKey;
+
+        private RangeCursor(byte[] from, byte[] to) {
+            this.to = to;
+            if (keyCodec.compare(from, 0, to, 0) <= 0) {
+                Node node = root;
+                while (true) {
+                    int position = findPositionForKey(node, from);
+                    nodes.push(node);
+                    indexes.push(position);
+                    if (node.isLeaf()) {
+                        break;
+                    }
+                    node = node.childAt(position);
+                }
+                advance();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextKey != null;
+        }
+
+        @Override
+        public K next() {
+            if (nextKey == null) {
+                throw new NoSuchElementException(
+                        "There are no more keys in range");
+            }
+            K key = nextKey;
+            advance();
+            return key;
+        }
+
+        private void advance() {
+            nextKey = null;
+            while (!nodes.isEmpty()) {
+                Node node = nodes.peek();
+                int index = indexes.pop();
+                if (index >= node.keyCount) {
+                    nodes.pop();
+                    continue;
+                }
+                indexes.push(index + 1);
+                if (compare(to, node.keys, index) < 0) {
+                    nodes.clear();
+                    indexes.clear();
+                    return;
+                }
+                nextKey = keyCodec.decode(node.keys, index * node.keyWidth);
+                for (Node child = node; !child.isLeaf(); ) {
+                    child = child.childAt(child == node ? index + 1 : 0);
+                    nodes.push(child);
+                    indexes.push(0);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Encodes nodes of <code>BTree</code> into fixed binary layout:
+     * <pre>
+     * | min degree: int | key count: int | child count: int |
+     * | keys: bytes * key width * key count | child handles: long * child count |
+     * </pre>
+     */
+    private class NodeCodec implements Codec<Node> {
+        @Override
+        public byte[] encode(Node node) {
+            ByteBuffer buffer = ByteBuffer.allocate(3 * Integer.BYTES
+                    + node.keyCount * node.keyWidth
+                    + node.childCount * Long.BYTES);
+            buffer.putInt(node.minDegree);
+            buffer.putInt(node.keyCount);
+            buffer.putInt(node.childCount);
+            buffer.put(node.keys, 0, node.keyCount * node.keyWidth);
+            for (int i = 0; i < node.childCount; i++) {
+                buffer.putLong(node.childrenHandles[i]);
+            }
+            return buffer.array();
+        }
+
+        @Override
+        public Node decode(ByteBuffer data, long handle) {
+            Node node = new Node(data.getInt());
+            node.keyCount = data.getInt();
+            node.childCount = data.getInt();
+            data.get(node.keys, 0, node.keyCount * node.keyWidth);
+            for (int i = 0; i < node.childCount; i++) {
+                node.childrenHandles[i] = data.getLong();
+            }
+            node.handle = handle;
+            return node;
+        }
+    }
+}
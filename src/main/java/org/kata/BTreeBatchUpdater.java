@@ -0,0 +1,446 @@
+package org.kata;
+
+import org.kata.BTreeOfIntegers.BTreeNode;
+
+import static java.util.Arrays.copyOf;
+import static java.util.Arrays.copyOfRange;
+
+/**
+ * <code>BTreeBatchUpdater</code> inserts or deletes a batch of keys sorted in
+ * ascending order with one walk of the tree. The batch is partitioned by
+ * keys of a node into runs of keys that belong to its children, so every
+ * node that gets keys of the batch is read and written once, other nodes
+ * are not visited at all.
+ * <p>New content of a node is built in memory first. A node that gets too
+ * many keys is split into as many nodes as needed at once, the keys that
+ * separate them go to the parent. A node that gets too few keys is merged
+ * with its sibling and split again if the merged node is too large.</p>
+ * <p>Note: only nodes without values are supported.</p>
+ */
+class BTreeBatchUpdater {
+    private static final int[] NO_KEYS = new int[0];
+
+    private final BTreeNodeStorage storage;
+    private final int minDegree;
+    private final int maxKeys;
+    private int deletedKeys;
+
+    BTreeBatchUpdater(BTreeNodeStorage storage, int minDegree) {
+        this.storage = storage;
+        this.minDegree = minDegree;
+        this.maxKeys = 2 * minDegree - 1;
+    }
+
+    /**
+     * @param root a root of the tree
+     * @param sortedKeys keys to insert in ascending order
+     * @return root of the tree after insertion, it is a new node if the
+     * tree has grown
+     */
+    BTreeNode insertAll(BTreeNode root, int[] sortedKeys) {
+        if (sortedKeys.length == 0) {
+            return root;
+        }
+        NodeImage fragment = insertRun(root, sortedKeys, 0, sortedKeys.length);
+        while (fragment.childCount > 1) {
+            fragment = split(null, fragment);
+        }
+        return rootOf(root, fragment.children[0]);
+    }
+
+    /**
+     * Deletes one occurrence of each given key, keys that are not in the tree
+     * are skipped
+     *
+     * @param root a root of the tree
+     * @param sortedKeys keys to delete in ascending order
+     * @return root of the tree after deletion, it is a descendant of the
+     * given root if the tree has shrunk
+     */
+    BTreeNode deleteAll(BTreeNode root, int[] sortedKeys) {
+        deletedKeys = 0;
+        if (sortedKeys.length == 0) {
+            return root;
+        }
+        deleteRun(root, sortedKeys, 0, sortedKeys.length);
+        BTreeNode newRoot = root;
+        while (newRoot.numberOfKeys() == 0 && !newRoot.isLeaf()) {
+            newRoot = load(newRoot.childHandleAt(0));
+        }
+        return newRoot;
+    }
+
+    /**
+     * @return number of keys deleted by the last {@link #deleteAll}
+     */
+    int deletedKeys() {
+        return deletedKeys;
+    }
+
+    /**
+     * Inserts keys into the subtree
+     *
+     * @return nodes that replace the node, with keys that separate them
+     */
+    private NodeImage insertRun(BTreeNode node, int[] keys, int from, int to) {
+        NodeImage image = new NodeImage();
+        int keyCount = node.numberOfKeys();
+        if (node.isLeaf()) {
+            int i = 0;
+            int j = from;
+            while (i < keyCount || j < to) {
+                if (j == to || i < keyCount && node.keyAt(i) <= keys[j]) {
+                    image.addKey(node.keyAt(i++));
+                } else {
+                    image.addKey(keys[j++]);
+                }
+            }
+        } else {
+            int start = from;
+            for (int i = 0; i <= keyCount; i++) {
+                int end = i < keyCount
+                        ? upperBound(keys, start, to, node.keyAt(i)) : to;
+                long childHandle = node.childHandleAt(i);
+                if (end > start) {
+                    image.append(
+                            insertRun(load(childHandle), keys, start, end));
+                } else {
+                    image.addChild(childHandle, false);
+                }
+                if (i < keyCount) {
+                    image.addKey(node.keyAt(i));
+                }
+                start = end;
+            }
+        }
+        return split(node, image);
+    }
+
+    /**
+     * Deletes keys from the subtree. Afterwards all descendants of the node
+     * have enough keys, but the node itself could have too few keys. If it
+     * has no keys at all, its only child could have too few keys as well.
+     *
+     * @return keys that are not found in the subtree
+     */
+    private int[] deleteRun(BTreeNode node, int[] keys, int from, int to) {
+        NodeImage image = new NodeImage();
+        int[] missing = new int[to - from];
+        int missingCount = 0;
+        int keyCount = node.numberOfKeys();
+        if (node.isLeaf()) {
+            int i = 0;
+            int j = from;
+            while (j < to) {
+                if (i == keyCount || node.keyAt(i) > keys[j]) {
+                    missing[missingCount++] = keys[j++];
+                } else if (node.keyAt(i) < keys[j]) {
+                    image.addKey(node.keyAt(i++));
+                } else {
+                    i++;
+                    j++;
+                    deletedKeys++;
+                }
+            }
+            while (i < keyCount) {
+                image.addKey(node.keyAt(i++));
+            }
+        } else {
+            int start = from;
+            int[] carried = NO_KEYS;
+            for (int i = 0; i <= keyCount; i++) {
+                int end = i < keyCount
+                        ? upperBound(keys, start, to, node.keyAt(i)) : to;
+                long childHandle = node.childHandleAt(i);
+                int[] run = concat(carried, keys, start, end);
+                int[] notFound = run.length > 0
+                        ? deleteRun(load(childHandle), run, 0, run.length)
+                        : NO_KEYS;
+                start = end;
+                carried = NO_KEYS;
+
+                // keys not found in the child could only be the separator
+                int position = 0;
+                int separator = i < keyCount ? node.keyAt(i) : 0;
+                while (position < notFound.length &&
+                        (i == keyCount || notFound[position] < separator)) {
+                    missing[missingCount++] = notFound[position++];
+                }
+                if (position == notFound.length) {
+                    image.addChild(childHandle, run.length > 0);
+                    if (i < keyCount) {
+                        image.addKey(separator);
+                    }
+                    continue;
+                }
+
+                deletedKeys++;
+                BTreeNode child = load(childHandle);
+                if (!isEmpty(child)) {
+                    image.addChild(childHandle, true);
+                    image.addKey(removeMax(child));
+                }
+                // other occurrences of the separator are in the next child
+                carried = copyOfRange(notFound, position + 1, notFound.length);
+            }
+            repair(image);
+        }
+        write(node, image, 0, image.keyCount, 0, image.childCount);
+        return copyOf(missing, missingCount);
+    }
+
+    /**
+     * Deletes the highest key of non-empty subtree
+     *
+     * @return deleted key
+     */
+    private int removeMax(BTreeNode node) {
+        NodeImage image = NodeImage.of(node);
+        int key;
+        if (node.isLeaf()) {
+            key = image.keys[--image.keyCount];
+        } else {
+            int last = image.childCount - 1;
+            key = removeMax(load(image.children[last]));
+            image.touched[last] = true;
+            repair(image);
+        }
+        write(node, image, 0, image.keyCount, 0, image.childCount);
+        return key;
+    }
+
+    /**
+     * Makes every child that may have too few keys to have enough of them
+     * by merging it with a sibling, unless it is the only child. The key
+     * that separates them goes down to the merged node, so even an empty
+     * subtree is merged rather than dropped.
+     */
+    private void repair(NodeImage image) {
+        int i = 0;
+        while (i < image.childCount && image.childCount > 1) {
+            if (!image.touched[i]) {
+                i++;
+                continue;
+            }
+            BTreeNode child = load(image.children[i]);
+            if (child.numberOfKeys() >= minDegree - 1) {
+                image.touched[i] = false;
+                i++;
+                continue;
+            }
+            int left = i < image.childCount - 1 ? i : i - 1;
+            BTreeNode leftNode = load(image.children[left]);
+            NodeImage merged = new NodeImage();
+            merged.append(leftNode);
+            merged.addKey(image.keys[left]);
+            merged.append(load(image.children[left + 1]));
+            storage.nodeMerges().increment();
+            repair(merged);
+            image.replace(left, split(leftNode, merged));
+            i = left;
+        }
+    }
+
+    /**
+     * Writes the image to the node, or to the node and new nodes if it has
+     * too many keys for a single node. Nodes get the same number of keys
+     * give or take one.
+     *
+     * @param node a node to write the image to or <code>null</code> if the
+     *             image should be written to new nodes only
+     * @return nodes the image is written to, with keys that separate them
+     */
+    private NodeImage split(BTreeNode node, NodeImage image) {
+        int keyCount = image.keyCount;
+        int nodeCount = (keyCount + 1 + maxKeys) / (maxKeys + 1);
+        int keysInNodes = keyCount - (nodeCount - 1);
+        boolean leaf = image.childCount == 0;
+        if (nodeCount > 1) {
+            storage.nodeSplits().add(nodeCount - 1);
+        }
+
+        NodeImage fragment = new NodeImage();
+        int keyPosition = 0;
+        int childPosition = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            int nodeKeyCount = keysInNodes / nodeCount +
+                    (i < keysInNodes % nodeCount ? 1 : 0);
+            int nodeChildCount = leaf ? 0 : nodeKeyCount + 1;
+            long handle = write(i == 0 ? node : null, image,
+                    keyPosition, nodeKeyCount, childPosition, nodeChildCount);
+            fragment.addChild(handle, nodeCount == 1);
+            keyPosition += nodeKeyCount;
+            childPosition += nodeChildCount;
+            if (i < nodeCount - 1) {
+                fragment.addKey(image.keys[keyPosition++]);
+            }
+        }
+        return fragment;
+    }
+
+    /**
+     * @return handle of the node the part of image is written to
+     */
+    private long write(BTreeNode node, NodeImage image, int keyFrom,
+                       int keyCount, int childFrom, int childCount)
+    {
+        if (node == null) {
+            return BTreeNode.build(storage, minDegree,
+                    copyOfRange(image.keys, keyFrom, keyFrom + maxKeys),
+                    keyCount,
+                    copyOfRange(image.children,
+                            childFrom, childFrom + maxKeys + 1),
+                    childCount).getHandle();
+        }
+        node.replaceEntries(image.keys, keyFrom, keyCount,
+                image.children, childFrom, childCount);
+        return node.getHandle();
+    }
+
+    private boolean isEmpty(BTreeNode node) {
+        return node.numberOfKeys() == 0 &&
+                (node.isLeaf() || isEmpty(load(node.childHandleAt(0))));
+    }
+
+    private BTreeNode rootOf(BTreeNode oldRoot, long handle) {
+        return handle == oldRoot.getHandle() ? oldRoot : load(handle);
+    }
+
+    private BTreeNode load(long handle) {
+        return storage.load(handle);
+    }
+
+    /**
+     * @return index of the first key within [from, to) that is greater than
+     * the given key
+     */
+    private static int upperBound(int[] keys, int from, int to, int key) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] <= key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int[] concat(int[] head, int[] keys, int from, int to) {
+        if (head.length == 0) {
+            return copyOfRange(keys, from, to);
+        }
+        int[] result = copyOf(head, head.length + to - from);
+        System.arraycopy(keys, from, result, head.length, to - from);
+        return result;
+    }
+
+    /**
+     * Keys and children of a node being built, children that may have too
+     * few keys are marked as touched
+     */
+    private static class NodeImage {
+        private int[] keys = new int[8];
+        private int keyCount;
+        private long[] children = new long[8];
+        private boolean[] touched = new boolean[8];
+        private int childCount;
+
+        private static NodeImage of(BTreeNode node) {
+            NodeImage image = new NodeImage();
+            image.append(node);
+            return image;
+        }
+
+        private void addKey(int key) {
+            if (keyCount == keys.length) {
+                keys = copyOf(keys, keyCount * 2);
+            }
+            keys[keyCount++] = key;
+        }
+
+        private void addChild(long handle, boolean mayHaveTooFewKeys) {
+            if (childCount == children.length) {
+                children = copyOf(children, childCount * 2);
+                touched = copyOf(touched, childCount * 2);
+            }
+            touched[childCount] = mayHaveTooFewKeys;
+            children[childCount++] = handle;
+        }
+
+        /**
+         * Appends keys and children of the node, if the node has no keys
+         * its only child may have too few keys
+         */
+        private void append(BTreeNode node) {
+            boolean withoutKeys = node.numberOfKeys() == 0;
+            for (int i = 0; i <= node.numberOfKeys(); i++) {
+                if (!node.isLeaf()) {
+                    addChild(node.childHandleAt(i), withoutKeys);
+                }
+                if (i < node.numberOfKeys()) {
+                    addKey(node.keyAt(i));
+                }
+            }
+        }
+
+        /**
+         * Appends children of another image with keys between them
+         */
+        private void append(NodeImage fragment) {
+            for (int i = 0; i < fragment.childCount; i++) {
+                addChild(fragment.children[i], fragment.touched[i]);
+                if (i < fragment.keyCount) {
+                    addKey(fragment.keys[i]);
+                }
+            }
+        }
+
+        private void removeKeyAt(int index) {
+            System.arraycopy(keys, index + 1, keys, index,
+                    keyCount - index - 1);
+            keyCount--;
+        }
+
+        private void removeChildAt(int index) {
+            System.arraycopy(children, index + 1, children, index,
+                    childCount - index - 1);
+            System.arraycopy(touched, index + 1, touched, index,
+                    childCount - index - 1);
+            childCount--;
+        }
+
+        /**
+         * Replaces two children at the given position and the key between
+         * them by children and keys of the fragment
+         */
+        private void replace(int index, NodeImage fragment) {
+            removeChildAt(index + 1);
+            removeChildAt(index);
+            removeKeyAt(index);
+            NodeImage tail = new NodeImage();
+            for (int i = index; i < childCount; i++) {
+                tail.addChild(children[i], touched[i]);
+            }
+            for (int i = index; i < keyCount; i++) {
+                tail.addKey(keys[i]);
+            }
+            childCount = index;
+            keyCount = index;
+            for (int i = 0; i < fragment.childCount; i++) {
+                addChild(fragment.children[i], fragment.touched[i]);
+            }
+            for (int i = 0; i < fragment.keyCount; i++) {
+                addKey(fragment.keys[i]);
+            }
+            for (int i = 0; i < tail.childCount; i++) {
+                addChild(tail.children[i], tail.touched[i]);
+            }
+            for (int i = 0; i < tail.keyCount; i++) {
+                addKey(tail.keys[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.kata;
+
+import org.kata.BTreeOfIntegers.BTreeNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Math.round;
+import static java.lang.String.format;
+import static java.util.Arrays.copyOf;
+import static org.kata.BTreeOfIntegers.BTreeNode.LOWEST_MIN_DEGREE;
+
+/**
+ * <code>BTreeBulkLoader</code> builds B-tree bottom-up from sorted keys.
+ * <p>Every level of the tree collects keys (and handles of children for
+ * internal levels) coming from the level below. Once a level has keys for a
+ * full node, a separator and a minimal node behind it, the node is created
+ * and the separator goes one level up. Therefore only the last node of a
+ * level could be short of keys and it is balanced with the remaining keys
+ * before anything is written, so every node is written to the storage
+ * exactly once and in the order of keys.</p>
+ */
+class BTreeBulkLoader {
+    static final double DEFAULT_FILL_FACTOR = 1.0;
+
+    private final BTreeNodeStorage storage;
+    private final int minDegree;
+    private final int maxKeys;
+    private final int keysPerNode;
+    private final List<Level> levels = new ArrayList<>();
+    private BTreeNode lastNode;
+    private long loadedKeys;
+
+    BTreeBulkLoader(
+            BTreeNodeStorage storage, int minDegree, double fillFactor)
+    {
+        if (minDegree < LOWEST_MIN_DEGREE) {
+            throw new IllegalArgumentException(
+                    format("Min degree for tree node should be greater than " +
+                            "or equals to 2, but passed '%d'", minDegree));
+        }
+        if (!(fillFactor > 0 && fillFactor <= 1)) {
+            throw new IllegalArgumentException(format(
+                    "Fill factor should be within (0, 1], but passed '%s'",
+                    fillFactor));
+        }
+        this.storage = storage;
+        this.minDegree = minDegree;
+        this.maxKeys = 2 * minDegree - 1;
+        this.keysPerNode = max(minDegree - 1,
+                min(maxKeys, (int) round(fillFactor * maxKeys)));
+    }
+
+    BTreeNode load(PrimitiveIterator.OfInt sortedKeys) {
+        levels.add(new Level(true));
+        boolean first = true;
+        int previousKey = 0;
+        while (sortedKeys.hasNext()) {
+            int key = sortedKeys.nextInt();
+            if (!first && key < previousKey) {
+                throw new IllegalArgumentException(format(
+                        "Keys should be sorted, but %d follows %d",
+                        key, previousKey));
+            }
+            addKey(0, key);
+            loadedKeys++;
+            previousKey = key;
+            first = false;
+        }
+        return finish();
+    }
+
+    /**
+     * @return number of keys loaded so far
+     */
+    long loadedKeys() {
+        return loadedKeys;
+    }
+
+    private BTreeNode finish() {
+        for (int index = 0; ; index++) {
+            Level level = levels.get(index);
+            boolean top = index == levels.size() - 1;
+            if (top && !level.leaf && level.keyCount == 0) {
+                // the only child of the topmost level is the root
+                return lastNode;
+            }
+            if (level.keyCount <= maxKeys) {
+                createNode(index, level.keyCount, false);
+            } else {
+                createNode(index, (level.keyCount - 1) / 2, true);
+                createNode(index, level.keyCount, false);
+            }
+        }
+    }
+
+    private void addKey(int levelIndex, int key) {
+        Level level = levels.get(levelIndex);
+        level.keys[level.keyCount++] = key;
+        if (level.leaf) {
+            createNodeIfEnoughKeysFollow(levelIndex);
+        }
+    }
+
+    private void addChild(int levelIndex, long childHandle) {
+        if (levelIndex == levels.size()) {
+            levels.add(new Level(false));
+        }
+        Level level = levels.get(levelIndex);
+        level.children[level.childCount++] = childHandle;
+        createNodeIfEnoughKeysFollow(levelIndex);
+    }
+
+    private void createNodeIfEnoughKeysFollow(int levelIndex) {
+        if (levels.get(levelIndex).keyCount >= keysPerNode + minDegree) {
+            createNode(levelIndex, keysPerNode, true);
+        }
+    }
+
+    /**
+     * Creates node from the first keys (and children) collected by level and
+     * hands it over to the level above
+     *
+     * @param promoteSeparator whether the key that follows the node should go
+     *                         to the level above as a separator
+     */
+    private void createNode(
+            int levelIndex, int nodeKeyCount, boolean promoteSeparator)
+    {
+        Level level = levels.get(levelIndex);
+        int nodeChildCount = level.leaf ? 0 : nodeKeyCount + 1;
+        lastNode = BTreeNode.build(storage, minDegree,
+                copyOf(level.keys, maxKeys), nodeKeyCount,
+                copyOf(level.children, maxKeys + 1), nodeChildCount);
+
+        int separator = level.keys[nodeKeyCount];
+        level.removeFirst(
+                nodeKeyCount + (promoteSeparator ? 1 : 0), nodeChildCount);
+
+        addChild(levelIndex + 1, lastNode.getHandle());
+        if (promoteSeparator) {
+            addKey(levelIndex + 1, separator);
+        }
+    }
+
+    private class Level {
+        private final boolean leaf;
+        private final int[] keys;
+        private final long[] children;
+        private int keyCount;
+        private int childCount;
+
+        private Level(boolean leaf) {
+            this.leaf = leaf;
+            this.keys = new int[keysPerNode + minDegree];
+            this.children = new long[leaf ? 0 : keysPerNode + minDegree + 1];
+        }
+
+        private void removeFirst(int keysToRemove, int childrenToRemove) {
+            keyCount -= keysToRemove;
+            System.arraycopy(keys, keysToRemove, keys, 0, keyCount);
+            childCount -= childrenToRemove;
+            System.arraycopy(children, childrenToRemove, children, 0, childCount);
+        }
+    }
+}
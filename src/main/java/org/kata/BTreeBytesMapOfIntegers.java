@@ -0,0 +1,164 @@
+package org.kata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static java.lang.String.format;
+
+/**
+ * <code>BTreeBytesMapOfIntegers</code> is a B-tree that maps int keys to byte
+ * array values.
+ * <p>Values of up to {@link #MAX_INLINE_LENGTH} bytes are kept inline in tree
+ * nodes packed into long together with their length, the highest bit of
+ * such long is set. Longer values overflow into a separate storage and the
+ * tree keeps their handles, which are never negative.</p>
+ * <p>A long value that replaces another long value is written over the
+ * record of the previous one. Note: {@link Storage} has no way to delete a
+ * record, so overflow records of values that were removed or replaced by
+ * inline values stay in the overflow storage, compaction of the storage
+ * keeps them as well.</p>
+ * <p>Closing the map closes the tree of keys and the overflow storage if
+ * the map was created without one.</p>
+ * <p>
+ * Note: This implementation is NOT thread-safe, so using in multithreading
+ * context will require additional synchronization
+ * </p>
+ */
+public class BTreeBytesMapOfIntegers implements Closeable {
+    public static final int MAX_INLINE_LENGTH = 7;
+
+    private static final long INLINE_FLAG = Long.MIN_VALUE;
+    private static final int LENGTH_SHIFT = 56;
+
+    private final BTreeMapOfIntegers map;
+    private final Storage<byte[]> overflowStorage;
+    // whether the overflow storage is created by the map and closed with it
+    private final boolean ownsOverflowStorage;
+
+    /**
+     * Creates <code>BTreeBytesMapOfIntegers</code> with overflow storage in
+     * temporal file
+     *
+     * @param minDegree a parameter of B-tree that controls number of keys per
+     *                  tree node and child nodes.
+     */
+    public BTreeBytesMapOfIntegers(int minDegree) throws IOException {
+        this(minDegree, new FileBasedStorage<>(new ByteArrayCodec()), true);
+    }
+
+    /**
+     * @param minDegree a parameter of B-tree that controls number of keys per
+     *                  tree node and child nodes.
+     * @param overflowStorage a storage for values that are too long to be
+     *                        kept in tree nodes, it is not closed with the
+     *                        map
+     */
+    public BTreeBytesMapOfIntegers(
+            int minDegree, Storage<byte[]> overflowStorage)
+    {
+        this(minDegree, overflowStorage, false);
+    }
+
+    private BTreeBytesMapOfIntegers(int minDegree,
+            Storage<byte[]> overflowStorage, boolean ownsOverflowStorage)
+    {
+        this.map = new BTreeMapOfIntegers(minDegree);
+        this.overflowStorage = overflowStorage;
+        this.ownsOverflowStorage = ownsOverflowStorage;
+    }
+
+    /**
+     * Associates the value with the key replacing previous value of the key
+     *
+     * @param key a key to associate the value with
+     * @param value a value to associate with the key
+     * @throws IOException if value could not be written to overflow storage
+     */
+    public void put(int key, byte[] value) throws IOException {
+        if (value.length <= MAX_INLINE_LENGTH) {
+            map.put(key, inline(value));
+            return;
+        }
+        OptionalLong previous = map.get(key);
+        if (previous.isPresent() && !isInline(previous.getAsLong())) {
+            overflowStorage.update(value, previous.getAsLong());
+        } else {
+            map.put(key, overflowStorage.create(value));
+        }
+    }
+
+    /**
+     * Returns value associated with the key
+     *
+     * @param key a key to look for
+     * @return value of the key or empty value if there is no such key
+     * @throws IOException if value could not be read from overflow storage
+     */
+    public Optional<byte[]> get(int key) throws IOException {
+        OptionalLong reference = map.get(key);
+        if (!reference.isPresent()) {
+            return Optional.empty();
+        }
+        return Optional.of(resolve(reference.getAsLong()));
+    }
+
+    public boolean containsKey(int key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * Removes the key and its value from the map
+     *
+     * @param key a key to remove
+     * @return <code>true</code> if there was such key
+     */
+    public boolean remove(int key) {
+        return map.remove(key).isPresent();
+    }
+
+    /**
+     * Closes the tree of keys and the overflow storage if the map was
+     * created without one. The map should not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            map.close();
+        } finally {
+            if (ownsOverflowStorage) {
+                ((Closeable) overflowStorage).close();
+            }
+        }
+    }
+
+    static boolean isInline(long reference) {
+        return (reference & INLINE_FLAG) != 0;
+    }
+
+    private static long inline(byte[] value) {
+        long reference = INLINE_FLAG | ((long) value.length << LENGTH_SHIFT);
+        for (int i = 0; i < value.length; i++) {
+            reference |= (value[i] & 0xFFL) << (8 * i);
+        }
+        return reference;
+    }
+
+    private byte[] resolve(long reference) throws IOException {
+        if (isInline(reference)) {
+            int length = (int) ((reference & ~INLINE_FLAG) >>> LENGTH_SHIFT);
+            byte[] value = new byte[length];
+            for (int i = 0; i < length; i++) {
+                value[i] = (byte) (reference >>> (8 * i));
+            }
+            return value;
+        }
+        try {
+            return overflowStorage.load(reference);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(
+                    format("Unable to load value with handle %d", reference), e);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.kata;
+
+import org.kata.BTreeOfIntegers.BTreeNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.OptionalLong;
+
+/**
+ * <code>BTreeMapOfIntegers</code> is a B-tree that maps int keys to long
+ * values. Values are kept in tree nodes next to their keys, so the value is
+ * found by the same node reads that find the key.
+ * <p>
+ * Note: This implementation is NOT thread-safe, so using in multithreading
+ * context will require additional synchronization
+ * </p>
+ */
+public class BTreeMapOfIntegers implements Closeable {
+    private final BTreeNodeStorage storage;
+    // whether the storage is created by the map and closed with it
+    private final boolean ownsStorage;
+    protected BTreeNode root;
+
+    /**
+     * Creates <code>BTreeMapOfIntegers</code> data structure which nodes are
+     * kept in a storage of its own
+     *
+     * @param minDegree a parameter of B-tree that controls number of keys per
+     *                  tree node and child nodes.
+     */
+    public BTreeMapOfIntegers(int minDegree) {
+        this(minDegree, BTreeNodeStorage.temporal(), true);
+    }
+
+    /**
+     * Creates <code>BTreeMapOfIntegers</code> data structure which nodes are
+     * kept in the given storage
+     *
+     * @param minDegree a parameter of B-tree that controls number of keys per
+     *                  tree node and child nodes.
+     * @param storage a storage of nodes, it could be shared with other trees
+     *                and is not closed with the map
+     */
+    public BTreeMapOfIntegers(int minDegree, BTreeNodeStorage storage) {
+        this(minDegree, storage, false);
+    }
+
+    private BTreeMapOfIntegers(
+            int minDegree, BTreeNodeStorage storage, boolean ownsStorage)
+    {
+        this.storage = storage;
+        this.ownsStorage = ownsStorage;
+        this.root = new BTreeNode(storage, minDegree, true);
+        this.root.pin();
+    }
+
+    /**
+     * Associates the value with the key replacing previous value of the key
+     *
+     * @param key a key to associate the value with
+     * @param value a value to associate with the key
+     */
+    public void put(int key, long value) {
+        if (root.replaceValue(key, value)) {
+            return;
+        }
+        if (root.isFull()) {
+            BTreeNode newRoot =
+                    new BTreeNode(storage, root.getMinDegree(), true);
+            newRoot.addChild(0, root.getHandle());
+            newRoot.splitChild(root);
+            newRoot.pin();
+            root.unpin();
+            root = newRoot;
+        }
+        root.insertNonFull(key, value);
+    }
+
+    /**
+     * Returns value associated with the key
+     *
+     * @param key a key to look for
+     * @return value of the key or empty value if there is no such key
+     */
+    public OptionalLong get(int key) {
+        return root.get(key);
+    }
+
+    /**
+     * Checks if there is a value associated with the key
+     *
+     * @param key a key to check
+     * @return <code>true</code> if there is such key in the map
+     */
+    public boolean containsKey(int key) {
+        return root.contains(key);
+    }
+
+    /**
+     * Removes the key and its value from the map. The tree is walked down
+     * once, nodes on the way are refilled from their siblings or merged
+     * with them, so the key is removed from a node that could afford it.
+     *
+     * @param key a key to remove
+     * @return removed value or empty value if there was no such key
+     */
+    public OptionalLong remove(int key) {
+        OptionalLong removed = root.get(key);
+        if (removed.isPresent()) {
+            root.deleteEntry(node -> node.searchKey(key));
+            if (root.numberOfKeys() == 0 && !root.isLeaf()) {
+                BTreeNode newRoot = root.pinChild(0);
+                root.unpin();
+                root = newRoot;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @see BTreeOfIntegers#close()
+     */
+    @Override
+    public void close() throws IOException {
+        root.unpin();
+        if (ownsStorage) {
+            storage.close();
+        }
+    }
+}
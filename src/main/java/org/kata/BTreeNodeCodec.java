@@ -0,0 +1,281 @@
+package org.kata;
+
+import org.kata.BTreeOfIntegers.BTreeNode;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static java.lang.String.format;
+
+/**
+ * <code>BTreeNodeCodec</code> encodes B-tree nodes into compact fixed binary
+ * layout:
+ * <pre>
+ * | format: byte | min degree: int | key count: int | child count: int |
+ * | keys: int * key count | child handles: long * child count |
+ * </pre>
+ * Nodes of trees that map keys to values are written in another format with
+ * values following child handles:
+ * <pre>
+ * | ... | child handles: long * child count | values: long * key count |
+ * </pre>
+ * Nodes of B+-trees are written in one more format with handle of the next
+ * leaf following the header:
+ * <pre>
+ * | format: byte | min degree: int | key count: int | child count: int |
+ * | next leaf: long | keys: int * key count | child handles: long * child count |
+ * </pre>
+ * Handle of the node is not stored since storage knows it anyway.
+ * <p>Codec created for compressed nodes writes the same fields as varints
+ * instead: keys are sorted, so the first key is followed by gaps between
+ * adjacent keys, and every child handle is written as a difference from the
+ * previous one, since children of a node are usually created close to each
+ * other. Values are written as zigzag varints. A typical node shrinks
+ * several times, so fewer bytes are read and written per node, while
+ * decoding remains a single pass over the page. Nodes of both layouts are
+ * decoded by any codec, so the layout could be switched for existing
+ * data.</p>
+ * <p>Decoded nodes belong to the node storage the codec is created for, they
+ * read their children from it.</p>
+ */
+class BTreeNodeCodec implements Codec<BTreeNode> {
+    static final byte FORMAT = 1;
+    static final byte FORMAT_WITH_VALUES = 2;
+    static final byte COMPRESSED_FORMAT = 3;
+    static final byte COMPRESSED_FORMAT_WITH_VALUES = 4;
+    static final byte LINKED_FORMAT = 5;
+    static final byte COMPRESSED_LINKED_FORMAT = 6;
+    static final int HEADER_SIZE = 1 + 3 * Integer.BYTES;
+    private static final int MAX_VARINT_INT_SIZE = 5;
+    private static final int MAX_VARINT_LONG_SIZE = 10;
+
+    private final BTreeNodeStorage storage;
+    private final boolean compressed;
+
+    BTreeNodeCodec(BTreeNodeStorage storage) {
+        this(storage, false);
+    }
+
+    /**
+     * @param compressed whether nodes are encoded with varints
+     */
+    BTreeNodeCodec(BTreeNodeStorage storage, boolean compressed) {
+        this.storage = storage;
+        this.compressed = compressed;
+    }
+
+    @Override
+    public byte[] encode(BTreeNode node) {
+        if (compressed) {
+            return encodeCompressed(node);
+        }
+        int keyCount = node.numberOfKeys();
+        int childCount = node.numberOfChildren();
+
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(node));
+        buffer.put(node.linksLeaves() ? LINKED_FORMAT
+                : node.hasValues() ? FORMAT_WITH_VALUES : FORMAT);
+        buffer.putInt(node.getMinDegree());
+        buffer.putInt(keyCount);
+        buffer.putInt(childCount);
+        if (node.linksLeaves()) {
+            buffer.putLong(node.nextLeaf());
+        }
+        for (int i = 0; i < keyCount; i++) {
+            buffer.putInt(node.keyAt(i));
+        }
+        for (int i = 0; i < childCount; i++) {
+            buffer.putLong(node.childHandleAt(i));
+        }
+        if (node.hasValues()) {
+            for (int i = 0; i < keyCount; i++) {
+                buffer.putLong(node.valueAt(i));
+            }
+        }
+        return buffer.array();
+    }
+
+    private byte[] encodeCompressed(BTreeNode node) {
+        int keyCount = node.numberOfKeys();
+        int childCount = node.numberOfChildren();
+
+        ByteBuffer buffer = ByteBuffer.allocate(1
+                + 3 * MAX_VARINT_INT_SIZE
+                + (1 + keyCount + childCount) * MAX_VARINT_LONG_SIZE
+                + (node.hasValues() ? keyCount * MAX_VARINT_LONG_SIZE : 0));
+        buffer.put(node.linksLeaves() ? COMPRESSED_LINKED_FORMAT
+                : node.hasValues() ? COMPRESSED_FORMAT_WITH_VALUES
+                : COMPRESSED_FORMAT);
+        putVarLong(buffer, node.getMinDegree());
+        putVarLong(buffer, keyCount);
+        putVarLong(buffer, childCount);
+        if (node.linksLeaves()) {
+            putVarLong(buffer, zigzag(node.nextLeaf()));
+        }
+        long previousKey = 0;
+        for (int i = 0; i < keyCount; i++) {
+            long key = node.keyAt(i);
+            // keys are sorted, so only the first key could be negative
+            putVarLong(buffer, i == 0 ? zigzag(key) : key - previousKey);
+            previousKey = key;
+        }
+        long previousHandle = 0;
+        for (int i = 0; i < childCount; i++) {
+            long childHandle = node.childHandleAt(i);
+            putVarLong(buffer, zigzag(childHandle - previousHandle));
+            previousHandle = childHandle;
+        }
+        if (node.hasValues()) {
+            for (int i = 0; i < keyCount; i++) {
+                putVarLong(buffer, zigzag(node.valueAt(i)));
+            }
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    @Override
+    public BTreeNode decode(ByteBuffer data, long handle) throws IOException {
+        byte format = data.get();
+        if (format == COMPRESSED_FORMAT
+                || format == COMPRESSED_FORMAT_WITH_VALUES
+                || format == COMPRESSED_LINKED_FORMAT) {
+            try {
+                return decodeCompressed(data, handle,
+                        format == COMPRESSED_FORMAT_WITH_VALUES,
+                        format == COMPRESSED_LINKED_FORMAT);
+            } catch (BufferUnderflowException e) {
+                throw new IOException(format(
+                        "Corrupted B-tree node with handle %d: " +
+                                "truncated page", handle), e);
+            }
+        }
+        if (format != FORMAT && format != FORMAT_WITH_VALUES
+                && format != LINKED_FORMAT) {
+            throw new IOException(format(
+                    "Unknown format '%d' of B-tree node with handle %d",
+                    format, handle));
+        }
+        int minDegree = data.getInt();
+        int keyCount = data.getInt();
+        int childCount = data.getInt();
+        long nextLeaf = format == LINKED_FORMAT ? data.getLong() : 0L;
+
+        int maxKeys = 2 * minDegree - 1;
+        if (keyCount > maxKeys || childCount > maxKeys + 1) {
+            throw new IOException(format(
+                    "Corrupted B-tree node with handle %d: %d keys and %d " +
+                            "children", handle, keyCount, childCount));
+        }
+        int[] keys = new int[maxKeys];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = data.getInt();
+        }
+        long[] childHandles = new long[maxKeys + 1];
+        for (int i = 0; i < childCount; i++) {
+            childHandles[i] = data.getLong();
+        }
+        long[] values = null;
+        if (format == FORMAT_WITH_VALUES) {
+            values = new long[maxKeys];
+            for (int i = 0; i < keyCount; i++) {
+                values[i] = data.getLong();
+            }
+        }
+        BTreeNode node = new BTreeNode(storage, minDegree,
+                keys, keyCount, childHandles, childCount, values, handle);
+        if (format == LINKED_FORMAT) {
+            node.restoreNextLeaf(nextLeaf);
+        }
+        return node;
+    }
+
+    private BTreeNode decodeCompressed(ByteBuffer data, long handle,
+                                       boolean withValues, boolean linked)
+            throws IOException
+    {
+        int minDegree = (int) getVarLong(data);
+        int keyCount = (int) getVarLong(data);
+        int childCount = (int) getVarLong(data);
+        long nextLeaf = linked ? unzigzag(getVarLong(data)) : 0L;
+
+        int maxKeys = 2 * minDegree - 1;
+        if (minDegree < 1 || keyCount < 0 || childCount < 0
+                || keyCount > maxKeys || childCount > maxKeys + 1) {
+            throw new IOException(format(
+                    "Corrupted B-tree node with handle %d: %d keys and %d " +
+                            "children", handle, keyCount, childCount));
+        }
+        int[] keys = new int[maxKeys];
+        long key = 0;
+        for (int i = 0; i < keyCount; i++) {
+            long delta = getVarLong(data);
+            key = i == 0 ? unzigzag(delta) : key + delta;
+            keys[i] = (int) key;
+        }
+        long[] childHandles = new long[maxKeys + 1];
+        long childHandle = 0;
+        for (int i = 0; i < childCount; i++) {
+            childHandle += unzigzag(getVarLong(data));
+            childHandles[i] = childHandle;
+        }
+        long[] values = null;
+        if (withValues) {
+            values = new long[maxKeys];
+            for (int i = 0; i < keyCount; i++) {
+                values[i] = unzigzag(getVarLong(data));
+            }
+        }
+        BTreeNode node = new BTreeNode(storage, minDegree,
+                keys, keyCount, childHandles, childCount, values, handle);
+        if (linked) {
+            node.restoreNextLeaf(nextLeaf);
+        }
+        return node;
+    }
+
+    /**
+     * Writes non-negative value by 7 bits per byte, the highest bit of a
+     * byte tells whether more bytes follow
+     */
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in B-tree node");
+    }
+
+    /**
+     * Maps signed value to unsigned one, so values close to zero take few
+     * bytes regardless of their sign
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static int encodedSize(BTreeNode node) {
+        return HEADER_SIZE
+                + (node.linksLeaves() ? Long.BYTES : 0)
+                + node.numberOfKeys() * Integer.BYTES
+                + node.numberOfChildren() * Long.BYTES
+                + (node.hasValues() ? node.numberOfKeys() * Long.BYTES : 0);
+    }
+}
@@ -0,0 +1,290 @@
+package org.kata;
+
+import org.kata.BTreeOfIntegers.BTreeNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.CompletableFuture;
+
+import static java.lang.String.format;
+
+/**
+ * <code>BTreeNodeStorage</code> keeps nodes of B-trees of int keys in a
+ * temporal data file of its own behind a buffer pool of the given size.
+ * <p>A tree created without a storage gets a storage of its own and closes
+ * it when the tree is closed. A storage passed to trees explicitly could be
+ * shared by several of them: the trees then share its file and its cache
+ * budget, so nodes of a busy tree may push nodes of an idle one out of the
+ * cache. Such storage is owned by the caller, it should be closed after all
+ * trees that use it are closed.</p>
+ * <p>Nodes could also be kept in fixed-size pages of a memory-mapped file,
+ * see {@link #mapped(int, int, boolean, Metrics)}, then a node missing in
+ * the cache is read from mapped memory rather than by a file system call.
+ * Such nodes are updated in place, so the file has no dead space to
+ * compact, but each encoded node must fit into a page.</p>
+ * <p>Storage created with {@link Metrics} reports its cache as
+ * <code>cache.*</code> metrics, its data file as <code>file.*</code>
+ * metrics and counts <code>nodes.splits</code> and
+ * <code>nodes.merges</code> of all trees that keep nodes in it.</p>
+ * <p>Operations are thread-safe as long as nodes are accessed only through
+ * the storage.</p>
+ */
+public class BTreeNodeStorage implements Closeable {
+    public static final int DEFAULT_CACHE_SIZE = 8192;
+
+    // nodes are kept in one of these storages, the other one is null
+    private final FileBasedStorage<BTreeNode> fileStorage;
+    private final MappedFileStorage<BTreeNode> mappedStorage;
+    private final CachedStorage<BTreeNode> cache;
+    private final int cacheSize;
+    private final Metrics.Counter nodeSplits;
+    private final Metrics.Counter nodeMerges;
+
+    /**
+     * Creates storage that caches up to {@link #DEFAULT_CACHE_SIZE} nodes
+     */
+    public BTreeNodeStorage() throws IOException {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize a number of nodes kept in memory, pinned nodes could
+     *                  temporarily exceed it
+     */
+    public BTreeNodeStorage(int cacheSize) throws IOException {
+        this(cacheSize, false);
+    }
+
+    /**
+     * @param cacheSize a number of nodes kept in memory, pinned nodes could
+     *                  temporarily exceed it
+     * @param compressedNodes whether nodes are written to the data file in
+     *                        varint compressed layout, it takes several times
+     *                        less space and I/O at the cost of slightly
+     *                        slower encoding and decoding
+     * @see BTreeNodeCodec
+     */
+    public BTreeNodeStorage(int cacheSize, boolean compressedNodes)
+            throws IOException
+    {
+        this(cacheSize, compressedNodes, Metrics.NONE);
+    }
+
+    /**
+     * @param metrics a registry the storage reports to
+     * @see #BTreeNodeStorage(int, boolean)
+     */
+    public BTreeNodeStorage(int cacheSize, boolean compressedNodes,
+                            Metrics metrics) throws IOException
+    {
+        this(cacheSize, compressedNodes, 0, metrics);
+    }
+
+    /**
+     * @param pageSize a size of page of mapped file or zero if nodes are
+     *                 kept in a data file
+     */
+    private BTreeNodeStorage(int cacheSize, boolean compressedNodes,
+                             int pageSize, Metrics metrics) throws IOException
+    {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException(format(
+                    "Cache size should be positive, but passed '%d'",
+                    cacheSize));
+        }
+        this.cacheSize = cacheSize;
+        this.nodeSplits = metrics.counter("nodes.splits");
+        this.nodeMerges = metrics.counter("nodes.merges");
+        BTreeNodeCodec codec = new BTreeNodeCodec(this, compressedNodes);
+        Storage<BTreeNode> nodes;
+        if (pageSize > 0) {
+            this.fileStorage = null;
+            this.mappedStorage = new MappedFileStorage<>(codec, pageSize,
+                    MappedFileStorage.DEFAULT_PAGES_PER_SEGMENT,
+                    metrics.scoped("file."));
+            nodes = mappedStorage;
+        } else {
+            this.fileStorage = new FileBasedStorage<>(
+                    codec, metrics.scoped("file."));
+            this.mappedStorage = null;
+            nodes = fileStorage;
+        }
+        this.cache = new CachedStorage<BTreeNode>(
+                nodes, cacheSize, metrics.scoped("cache.")) {
+            @Override
+            protected void evicted(long handle, BTreeNode node) {
+                node.markEvicted();
+            }
+        };
+    }
+
+    /**
+     * Creates storage that keeps nodes in pages of a memory-mapped file
+     *
+     * @param cacheSize a number of nodes kept in memory, pinned nodes could
+     *                  temporarily exceed it
+     * @param pageSize a size of page in bytes, a node that does not fit into
+     *                 a page is rejected with {@link IOException}
+     * @param compressedNodes whether nodes are written in varint compressed
+     *                        layout, so larger nodes fit into a page
+     * @param metrics a registry the storage reports to
+     * @see MappedFileStorage
+     */
+    public static BTreeNodeStorage mapped(int cacheSize, int pageSize,
+            boolean compressedNodes, Metrics metrics) throws IOException
+    {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException(format(
+                    "Page size should be positive, but passed '%d'",
+                    pageSize));
+        }
+        return new BTreeNodeStorage(
+                cacheSize, compressedNodes, pageSize, metrics);
+    }
+
+    /**
+     * Creates storage with default cache size for a tree that is created
+     * without a storage
+     */
+    static BTreeNodeStorage temporal() {
+        try {
+            return new BTreeNodeStorage();
+        } catch (IOException e) {
+            throw new RuntimeException(
+                    "Unable to create storage for B-tree nodes", e);
+        }
+    }
+
+    long create(BTreeNode node) throws IOException {
+        return cache.create(node);
+    }
+
+    void update(BTreeNode node, long handle) throws IOException {
+        cache.update(node, handle);
+    }
+
+    BTreeNode load(long handle) {
+        awaitPrefetch(handle);
+        try {
+            return cache.load(handle);
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException(
+                    "Unable to read B-tree node from disk");
+        }
+    }
+
+    /**
+     * Loads node without blocking on a cache miss, the future fails with
+     * {@link IOException} if the node could not be read
+     */
+    CompletableFuture<BTreeNode> loadAsync(long handle) {
+        return cache.loadAsync(handle);
+    }
+
+    /**
+     * Loads node and keeps it in the cache until it is unpinned, so the same
+     * object is returned for the handle meanwhile
+     */
+    BTreeNode pin(long handle) {
+        awaitPrefetch(handle);
+        try {
+            return cache.pin(handle);
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException(
+                    "Unable to pin B-tree node in cache");
+        }
+    }
+
+    void unpin(long handle) {
+        cache.unpin(handle);
+    }
+
+    /**
+     * @return counter of nodes split in two or more nodes
+     */
+    Metrics.Counter nodeSplits() {
+        return nodeSplits;
+    }
+
+    /**
+     * @return counter of nodes merged with their siblings
+     */
+    Metrics.Counter nodeMerges() {
+        return nodeMerges;
+    }
+
+    /**
+     * Starts loading of the node into the cache without waiting for it,
+     * a later load of the node waits for the same read instead of issuing
+     * another one
+     */
+    void prefetch(long handle) {
+        cache.loadAsync(handle);
+    }
+
+    /**
+     * @return maximal number of nodes worth loading ahead of a traversal,
+     * prefetched nodes should not push out of the cache the nodes the
+     * traversal is about to use
+     */
+    int prefetchLimit() {
+        return Math.max(1, cacheSize / 4);
+    }
+
+    private void awaitPrefetch(long handle) {
+        CompletableFuture<BTreeNode> prefetch = cache.pendingLoad(handle);
+        if (prefetch != null) {
+            // a failed prefetch is retried by the blocking load
+            prefetch.handle((node, error) -> node).join();
+        }
+    }
+
+    /**
+     * Moves current versions of nodes to a new data file without dead space,
+     * nodes of the given handles are placed first in the given order. Trees
+     * could be used meanwhile. Nodes kept in a mapped file are only written
+     * back, as they are updated in place.
+     *
+     * @see FileBasedStorage#compact(PrimitiveIterator.OfLong)
+     */
+    void compact(PrimitiveIterator.OfLong firstHandles) throws IOException {
+        cache.flush();
+        if (fileStorage != null) {
+            fileStorage.compact(firstHandles);
+        }
+    }
+
+    /**
+     * @return size of the data file in bytes
+     */
+    long dataFileSize() {
+        return fileStorage != null
+                ? fileStorage.dataFileSize() : mappedStorage.dataFileSize();
+    }
+
+    /**
+     * Writes nodes changed in the cache to the data file
+     */
+    public void flush() throws IOException {
+        cache.flush();
+        if (fileStorage != null) {
+            fileStorage.flush();
+        } else {
+            mappedStorage.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            cache.flush();
+        } finally {
+            if (fileStorage != null) {
+                fileStorage.close();
+            } else {
+                mappedStorage.close();
+            }
+        }
+    }
+}
@@ -2,20 +2,32 @@ package org.kata;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.OptionalLong;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntConsumer;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
-import static java.lang.Integer.valueOf;
+import static java.lang.Integer.MAX_VALUE;
+import static java.lang.Integer.MIN_VALUE;
 import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static java.lang.String.format;
 import static java.util.Collections.unmodifiableList;
 import static java.util.stream.Collectors.toList;
-import static org.apache.commons.lang3.builder.ToStringBuilder.reflectionToString;
 import static org.apache.commons.lang3.builder.ToStringStyle.JSON_STYLE;
 
 /**
@@ -28,17 +40,137 @@ import static org.apache.commons.lang3.builder.ToStringStyle.JSON_STYLE;
  *
  * @author kovalev.aleksey@gmail.com
  */
-public class BTreeOfIntegers {
+public class BTreeOfIntegers implements Closeable {
+    private static final int MIN_KEY_FILTER_CAPACITY = 1024;
+
+    private final BTreeNodeStorage storage;
+    // whether the storage is created by the tree and closed with it
+    private final boolean ownsStorage;
     protected BTreeNode root;
+    // number of keys in the tree, it sizes the key filter
+    protected long keyCount;
+    // answers contains of most missing keys without reading nodes, null if
+    // the filter is not enabled
+    private BloomFilter keyFilter;
+    private double keyFilterFalsePositiveRate;
+    // the last of inserts requested by insertAsync
+    private CompletableFuture<Void> pendingInserts =
+            CompletableFuture.completedFuture(null);
+    // number of levels of the tree, it is read by metrics from other threads
+    private volatile int height;
+    // latencies of operations, null if metrics are not enabled
+    private Metrics.Histogram insertLatency;
+    private Metrics.Histogram containsLatency;
+    private Metrics.Histogram deleteLatency;
 
     /**
-     * Creates <code>BTreeOfIntegers</code> data structure
+     * Creates <code>BTreeOfIntegers</code> data structure which nodes are
+     * kept in a storage of its own
      *
      * @param minDegree a parameter of B-tree that controls number of keys per
      *                  tree node and child nodes.
      */
     public BTreeOfIntegers(int minDegree) {
-        this.root = new BTreeNode(minDegree);
+        this(minDegree, BTreeNodeStorage.temporal(), true);
+    }
+
+    /**
+     * Creates <code>BTreeOfIntegers</code> data structure which nodes are
+     * kept in the given storage
+     *
+     * @param minDegree a parameter of B-tree that controls number of keys per
+     *                  tree node and child nodes.
+     * @param storage a storage of nodes, it could be shared with other trees
+     *                and is not closed with the tree
+     */
+    public BTreeOfIntegers(int minDegree, BTreeNodeStorage storage) {
+        this(minDegree, storage, false);
+    }
+
+    private BTreeOfIntegers(
+            int minDegree, BTreeNodeStorage storage, boolean ownsStorage)
+    {
+        this(new BTreeNode(storage, minDegree), 0, ownsStorage);
+    }
+
+    private BTreeOfIntegers(
+            BTreeNode root, long keyCount, boolean ownsStorage)
+    {
+        this.storage = root.storage();
+        this.ownsStorage = ownsStorage;
+        this.root = root;
+        this.keyCount = keyCount;
+        this.root.pin();
+        this.height = heightOf(root);
+    }
+
+    /**
+     * Builds <code>BTreeOfIntegers</code> from keys sorted in ascending
+     * order. The tree is built bottom-up with leaves packed as much as
+     * possible, each node is written to the storage exactly once.
+     *
+     * @param minDegree a parameter of B-tree that controls number of keys per
+     *                  tree node and child nodes.
+     * @param sortedKeys keys to put into the tree in ascending order
+     * @return tree containing all given keys
+     * @throws IllegalArgumentException if keys are not sorted
+     */
+    public static BTreeOfIntegers bulkLoad(int minDegree, int[] sortedKeys) {
+        return bulkLoad(minDegree, IntStream.of(sortedKeys));
+    }
+
+    /**
+     * @see #bulkLoad(int, int[])
+     */
+    public static BTreeOfIntegers bulkLoad(int minDegree, IntStream sortedKeys) {
+        return bulkLoad(minDegree, sortedKeys.iterator(),
+                BTreeBulkLoader.DEFAULT_FILL_FACTOR);
+    }
+
+    /**
+     * Builds <code>BTreeOfIntegers</code> from keys sorted in ascending
+     * order leaving some room in nodes for keys inserted later.
+     *
+     * @param minDegree a parameter of B-tree that controls number of keys per
+     *                  tree node and child nodes.
+     * @param sortedKeys keys to put into the tree in ascending order
+     * @param fillFactor a share of maximal number of keys per node that
+     *                   nodes are filled with, a value within (0, 1]. Nodes
+     *                   are never filled with less than minimal number of
+     *                   keys.
+     * @return tree containing all given keys
+     * @throws IllegalArgumentException if keys are not sorted
+     */
+    public static BTreeOfIntegers bulkLoad(
+            int minDegree, PrimitiveIterator.OfInt sortedKeys, double fillFactor)
+    {
+        return bulkLoad(minDegree, sortedKeys, fillFactor,
+                BTreeNodeStorage.temporal(), true);
+    }
+
+    /**
+     * Builds <code>BTreeOfIntegers</code> which nodes are kept in the given
+     * storage
+     *
+     * @param storage a storage of nodes, it could be shared with other trees
+     *                and is not closed with the tree
+     * @see #bulkLoad(int, PrimitiveIterator.OfInt, double)
+     */
+    public static BTreeOfIntegers bulkLoad(
+            int minDegree, PrimitiveIterator.OfInt sortedKeys,
+            double fillFactor, BTreeNodeStorage storage)
+    {
+        return bulkLoad(minDegree, sortedKeys, fillFactor, storage, false);
+    }
+
+    private static BTreeOfIntegers bulkLoad(
+            int minDegree, PrimitiveIterator.OfInt sortedKeys,
+            double fillFactor, BTreeNodeStorage storage, boolean ownsStorage)
+    {
+        BTreeBulkLoader loader =
+                new BTreeBulkLoader(storage, minDegree, fillFactor);
+        BTreeNode root = loader.load(sortedKeys);
+        return new BTreeOfIntegers(root, loader.loadedKeys(), ownsStorage);
     }
 
     /**
@@ -47,13 +179,85 @@ public class BTreeOfIntegers {
      * @param key a key to insert
      */
     public void insert(int key) {
+        long start = startTimer(insertLatency);
         if (root.isFull()) {
-            BTreeNode newRoot = new BTreeNode(root.getMinDegree());
+            BTreeNode newRoot = new BTreeNode(storage, root.getMinDegree());
             newRoot.addChild(0, root.getHandle());
             newRoot.splitChild(root);
+            newRoot.pin();
+            root.unpin();
             root = newRoot;
+            height++;
         }
         root.insertNonFull(key);
+        keyCount++;
+        if (keyFilter != null) {
+            keyFilter.add(key);
+            maintainKeyFilter();
+        }
+        stopTimer(insertLatency, start);
+    }
+
+    /**
+     * Inserts key into B-tree once nodes on its path are loaded without
+     * blocking. Inserts are applied one by one in the order they are
+     * requested, on the thread that completes I/O of the insert.
+     * <p>Note: the tree should not be used otherwise until the returned
+     * future is completed.</p>
+     *
+     * @param key a key to insert
+     * @return future completed once the key is inserted
+     */
+    public CompletableFuture<Void> insertAsync(int key) {
+        pendingInserts = pendingInserts
+                .exceptionally(error -> null)
+                .thenCompose(previous -> root.loadPathAsync(key))
+                .thenRun(() -> insert(key));
+        return pendingInserts;
+    }
+
+    /**
+     * Inserts all given keys into B-tree. Keys are sorted and pushed down the
+     * tree together, so every node that gets some of the keys is read and
+     * written once.
+     *
+     * @param keys keys to insert in any order
+     */
+    public void insertAll(int[] keys) {
+        int[] sortedKeys = keys.clone();
+        Arrays.sort(sortedKeys);
+        changeRoot(new BTreeBatchUpdater(storage, root.getMinDegree())
+                .insertAll(root, sortedKeys));
+        keyCount += sortedKeys.length;
+        if (keyFilter != null) {
+            for (int key : sortedKeys) {
+                keyFilter.add(key);
+            }
+            maintainKeyFilter();
+        }
+    }
+
+    /**
+     * Deletes one occurrence of each given key from B-tree, keys that are
+     * not in the tree are skipped. Keys are sorted and pushed down the tree
+     * together, so every node that loses some of the keys is read and
+     * written once, unless it is merged with a sibling.
+     *
+     * @param keys keys to delete in any order
+     * @return number of deleted keys
+     */
+    public int deleteAll(int[] keys) {
+        int[] sortedKeys = keys.clone();
+        Arrays.sort(sortedKeys);
+        BTreeBatchUpdater updater =
+                new BTreeBatchUpdater(storage, root.getMinDegree());
+        changeRoot(updater.deleteAll(root, sortedKeys));
+        keyCount -= updater.deletedKeys();
+        if (keyFilter != null) {
+            keyFilter.forget(updater.deletedKeys());
+            maintainKeyFilter();
+        }
+        return updater.deletedKeys();
     }
 
     /**
@@ -64,155 +268,430 @@ public class BTreeOfIntegers {
      * or <code>false</code> if otherwise
      */
     public boolean contains(int key) {
-        return this.root.contains(key);
+        long start = startTimer(containsLatency);
+        boolean found = (keyFilter == null || keyFilter.mightContain(key))
+                && this.root.contains(key);
+        stopTimer(containsLatency, start);
+        return found;
+    }
+
+    /**
+     * Reports latencies of {@link #insert(int)}, {@link #contains(int)} and
+     * {@link #delete(int)} in nanoseconds as <code>insert</code>,
+     * <code>contains</code> and <code>delete</code> histograms, and the
+     * number of levels of the tree as <code>height</code> gauge. Timing
+     * costs a couple of {@link System#nanoTime()} calls per operation, trees
+     * without metrics do not pay it. Nodes and their storage are reported by
+     * {@link BTreeNodeStorage} created with metrics.
+     *
+     * @param metrics a registry to report to
+     */
+    public void enableMetrics(Metrics metrics) {
+        insertLatency = metrics.histogram("insert");
+        containsLatency = metrics.histogram("contains");
+        deleteLatency = metrics.histogram("delete");
+        metrics.gauge("height", () -> height);
+    }
+
+    /**
+     * Checks if the specified key is in B-tree without blocking on nodes
+     * that are not cached, so a single thread could keep many lookups in
+     * flight. Nodes are read through {@link AsyncStorage} of the storage.
+     * <p>Note: the tree should not be modified until the returned future
+     * is completed.</p>
+     *
+     * @param key a key to check
+     * @return future of <code>true</code> if key is in this
+     * <code>BTreeOfIntegers</code> or <code>false</code> if otherwise
+     */
+    public CompletableFuture<Boolean> containsAsync(int key) {
+        if (keyFilter != null && !keyFilter.mightContain(key)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return root.containsAsync(key);
     }
 
     /**
-     * Deletes the specified key from <code>BTreeOfIntegers</code>
-     * <p>
-     * Note: The implementation of this method is not yet completed!
-     * </p>
+     * Keeps a Bloom filter of keys of the tree in memory, so
+     * {@link #contains(int)} answers most lookups of missing keys without
+     * reading any node. The filter is built from keys the tree contains and
+     * is updated with every insert. Deleted keys remain in the filter until
+     * it is rebuilt, that happens when deleted keys make a half of keys in
+     * the filter, when the filter outgrows its size and on {@link #compact()}.
+     * The filter is sized by the number of keys the tree keeps track of, a
+     * build or rebuild scans the whole tree once.
+     *
+     * @param falsePositiveRate a share of lookups of missing keys that
+     *                          still read nodes, a value within (0, 1)
+     */
+    public void enableKeyFilter(double falsePositiveRate) {
+        buildKeyFilter((int) min(keyCount, MAX_VALUE / 2),
+                falsePositiveRate);
+    }
+
+    /**
+     * Returns keys of this <code>BTreeOfIntegers</code> that are within the
+     * specified range in ascending order. The tree is walked once and only
+     * the path from root to the current node is kept in memory, so the
+     * iterator is suitable for ranges of any size.
+     * <p>Note: the tree should not be modified while the iterator is used.</p>
+     *
+     * @param from the lowest key to return, inclusive
+     * @param to the highest key to return, inclusive
+     * @return iterator over keys within the range
+     */
+    public PrimitiveIterator.OfInt rangeScan(int from, int to) {
+        return new BTreeRangeCursor(root, from, to);
+    }
+
+    /**
+     * Deletes the specified key from <code>BTreeOfIntegers</code>. Nodes
+     * are rebalanced on the way down, so the key is removed in a single pass.
      *
      * @param key a key to delete from <code>BTreeOfIntegers</code>
      * @throws NoSuchElementException if tree does not contain the key
      */
     public void delete(int key) {
-        if (root.contains(key) && root.isLeaf()) {
-            root.delete(key);
-        } else {
-            BTreeNode nodeContainingKey = root.findNodeContainingKey(key);
-            nodeContainingKey.delete(key);
+        long start = startTimer(deleteLatency);
+        boolean deleted = root.deleteEntry(node -> node.searchKey(key));
+        if (root.numberOfKeys() == 0 && !root.isLeaf()) {
+            changeRoot(root.childAt(0));
+        }
+        if (deleted) {
+            keyCount--;
+        }
+        if (deleted && keyFilter != null) {
+            keyFilter.forget(1);
+            maintainKeyFilter();
+        }
+        stopTimer(deleteLatency, start);
+        if (!deleted) {
+            throw new NoSuchElementException(
+                    format("There is no key %d in the tree", key));
+        }
+    }
+
+    /**
+     * Rewrites the storage of nodes without space taken by replaced versions
+     * of nodes. Nodes of this tree are written first in the order they are
+     * visited by a scan, so scans read the data file mostly sequentially.
+     * Nodes of other trees that share the storage follow them.
+     */
+    public void compact() throws IOException {
+        storage.compact(root.getSubtreeHandles().iterator());
+        if (keyFilter != null) {
+            buildKeyFilter(keyFilter.liveKeys(), keyFilterFalsePositiveRate);
+        }
+    }
+
+    /**
+     * Releases the root of the tree and closes the storage of nodes if the
+     * tree was created without a storage. The tree should not be used
+     * afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        root.unpin();
+        if (ownsStorage) {
+            storage.close();
+        }
+    }
+
+    private void maintainKeyFilter() {
+        if (keyFilter.needsRebuild()) {
+            buildKeyFilter(keyFilter.liveKeys(), keyFilterFalsePositiveRate);
+        }
+    }
+
+    /**
+     * Replaces key filter by a new one with keys the tree contains
+     *
+     * @param expectedKeys an upper bound of number of keys in the tree, the
+     *                     filter is sized with room for as many keys again
+     */
+    private void buildKeyFilter(int expectedKeys, double falsePositiveRate) {
+        BloomFilter filter = new BloomFilter(
+                max(MIN_KEY_FILTER_CAPACITY, 2 * expectedKeys),
+                falsePositiveRate);
+        rangeScan(MIN_VALUE, MAX_VALUE)
+                .forEachRemaining((IntConsumer) filter::add);
+        this.keyFilter = filter;
+        this.keyFilterFalsePositiveRate = falsePositiveRate;
+    }
+
+    private void changeRoot(BTreeNode newRoot) {
+        if (newRoot != root) {
+            newRoot.pin();
+            root.unpin();
+            root = newRoot;
+            height = heightOf(newRoot);
         }
     }
 
+    private static int heightOf(BTreeNode root) {
+        int height = 1;
+        for (BTreeNode node = root; !node.isLeaf(); height++) {
+            node = node.readFromDisk(node.childHandleAt(0));
+        }
+        return height;
+    }
+
+    private static long startTimer(Metrics.Histogram latency) {
+        return latency == null ? 0L : System.nanoTime();
+    }
+
+    private static void stopTimer(Metrics.Histogram latency, long start) {
+        if (latency != null) {
+            latency.record(System.nanoTime() - start);
+        }
+    }
 
     /**
      * <code>BTreeNode</code> is implementation of node of B-tree data structure
+     * <p>Keys and handles of children are kept in primitive arrays sized for
+     * the fullest node allowed by min degree, so node operations shift
+     * elements in place and never box keys.</p>
+     * <p>Nodes of trees that map keys to values keep values in one more
+     * array, a value is always moved together with its key.</p>
+     * <p>Children and changes of tree structure are handled by
+     * {@link AbstractBTreeNode} shared with {@link BTree}.</p>
+     * <p>Nodes of {@link BPlusTreeOfIntegers} link leaves: a leaf keeps
+     * handle of the next leaf or {@link #NO_NEXT_LEAF} if it is the last
+     * one.</p>
      */
-    static class BTreeNode implements Serializable {
+    static class BTreeNode extends AbstractBTreeNode<BTreeNode> {
         // lowest min degree must be greater than 2, otherwise a tree is
         // degenerated to a list
         public static final int LOWEST_MIN_DEGREE = 2;
-
-        private int minDegree;
-        private List<Integer> keys = new ArrayList<>();
-        private List<Long> childrenHandles = new ArrayList<>();
-        private static Storage<BTreeNode> storage;
+        static final long NO_NEXT_LEAF = -1L;
+
+        private int[] keys;
+        // values of keys, null for nodes of trees that keep only keys
+        private long[] values;
+        // whether the node belongs to B+-tree
+        private boolean linkedLeaves;
+        private long nextLeaf = NO_NEXT_LEAF;
+        private final BTreeNodeStorage storage;
+        // latch of the node for concurrent trees, created on first use
+        private volatile StampedLock latch;
+        // set when the cache drops this copy of the node
+        private boolean evicted;
 
         private static final Logger LOG = Logger.getLogger(
                 BTreeNode.class.getName());
 
-        static {
-            try {
-                storage = new CachedStorage<>(new FileBasedStorage<>());
-            } catch (IOException e) {
-                LOG.severe("Unable to create storage for B-tree node entries!");
-            }
+        private Long handle;
+
+        public BTreeNode(BTreeNodeStorage storage, int minDegree) {
+            this(storage, minDegree, false);
         }
 
-        private Long handle;
+        public BTreeNode(BTreeNodeStorage storage, int minDegree,
+                         boolean withValues)
+        {
+            this(storage, minDegree, withValues, false);
+        }
 
-        public BTreeNode(int minDegree) {
-            if (minDegree < LOWEST_MIN_DEGREE) {
+        /**
+         * @param linkedLeaves whether the node belongs to B+-tree, such
+         *                     nodes do not keep values
+         */
+        BTreeNode(BTreeNodeStorage storage, int minDegree,
+                  boolean withValues, boolean linkedLeaves)
+        {
+            super(validMinDegree(minDegree), new long[2 * minDegree], 0, 0);
+            if (withValues && linkedLeaves) {
                 throw new IllegalArgumentException(
-                        format("Min degree for tree node should be greater than " +
-                                "or equals to 2, but passed '%d'", minDegree));
+                        "Nodes of B+-tree do not keep values");
             }
-            this.minDegree = minDegree;
+            this.storage = storage;
+            this.keys = new int[maxKeysPerNode()];
+            this.values = withValues ? new long[maxKeysPerNode()] : null;
+            this.linkedLeaves = linkedLeaves;
             saveOnDisk();
         }
 
+        /**
+         * Restores node previously saved in the storage, used by codec
+         */
+        BTreeNode(BTreeNodeStorage storage, int minDegree, int[] keys,
+                  int keyCount, long[] childrenHandles, int childCount,
+                  long[] values, Long handle)
+        {
+            super(minDegree, childrenHandles, keyCount, childCount);
+            this.storage = storage;
+            this.keys = keys;
+            this.values = values;
+            this.handle = handle;
+        }
+
+        /**
+         * Creates node from arrays that already hold its keys and children
+         * and puts it in the storage
+         */
+        static BTreeNode build(BTreeNodeStorage storage, int minDegree,
+                               int[] keys, int keyCount,
+                               long[] childrenHandles, int childCount)
+        {
+            BTreeNode node = new BTreeNode(storage, minDegree,
+                    keys, keyCount, childrenHandles, childCount, null, null);
+            node.saveOnDisk();
+            return node;
+        }
+
+        /**
+         * Marks node restored from the storage as a node of B+-tree, used by
+         * codec
+         */
+        void restoreNextLeaf(long nextLeaf) {
+            this.linkedLeaves = true;
+            this.nextLeaf = nextLeaf;
+        }
+
+        /**
+         * Creates a copy of this node with its own handle in the storage
+         */
+        BTreeNode copy() {
+            BTreeNode copy = new BTreeNode(storage, minDegree,
+                    keys.clone(), keyCount,
+                    childrenHandles.clone(), childCount,
+                    values == null ? null : values.clone(), null);
+            copy.linkedLeaves = linkedLeaves;
+            copy.nextLeaf = nextLeaf;
+            copy.saveOnDisk();
+            return copy;
+        }
+
         public boolean contains(int key) {
-            int index = 0;
-            while (index < keys.size() && key > keys.get(index)) {
-                index++;
+            int position = searchKey(key);
+            return position >= 0 ||
+                    !isLeaf() && indexToNode(-position - 1).contains(key);
+        }
+
+        CompletableFuture<Boolean> containsAsync(int key) {
+            int position = searchKey(key);
+            if (position >= 0 || isLeaf()) {
+                return CompletableFuture.completedFuture(position >= 0);
             }
-            return keys.contains(key) ||
-                    !isLeaf() && indexToNode(index).contains(key);
+            return storage.loadAsync(childrenHandles[-position - 1])
+                    .thenCompose(child -> child.containsAsync(key));
         }
 
-        public void remove(int key) {
-            keys.remove(valueOf(key));
+        /**
+         * Loads nodes on the path an insert of the key takes into the cache
+         */
+        CompletableFuture<Void> loadPathAsync(int key) {
+            if (isLeaf()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return storage.loadAsync(findChildNodeThatShouldContainKey(key))
+                    .thenCompose(child -> child.loadPathAsync(key));
         }
 
-        public boolean isLeaf() {
-            return childrenHandles.size() == 0;
+        /**
+         * @return value of the key or empty value if there is no such key
+         */
+        public OptionalLong get(int key) {
+            int position = searchKey(key);
+            if (position >= 0) {
+                return OptionalLong.of(values[position]);
+            }
+            return isLeaf() ? OptionalLong.empty()
+                    : indexToNode(-position - 1).get(key);
         }
 
-        public boolean isFull() {
-            return keys.size() >= maxKeysPerNode();
+        /**
+         * Replaces value of the key if the key is in this node or its
+         * descendants
+         *
+         * @return <code>true</code> if value was replaced or
+         * <code>false</code> if there is no such key
+         */
+        public boolean replaceValue(int key, long value) {
+            int position = searchKey(key);
+            if (position >= 0) {
+                values[position] = value;
+                saveOnDisk();
+                return true;
+            }
+            return !isLeaf() &&
+                    indexToNode(-position - 1).replaceValue(key, value);
         }
 
-        public int getMinDegree() {
-            return minDegree;
+        public void remove(int key) {
+            int index = indexOfKey(key);
+            if (index >= 0) {
+                removeKeyAt(index);
+            }
         }
 
         public void splitChild(BTreeNode child) {
-            BTreeNode parent = this;
-            int median = child.getMedianOfKeys();
+            splitChild(getChildPosition(child), child);
+        }
 
-            BTreeNode newSubNode = new BTreeNode(minDegree);
-            child.moveHalfOfKeysTo(newSubNode);
-            if (!child.isLeaf()) {
-                child.moveHalfOfChildren(newSubNode);
-            }
+        @Override
+        void splitChild(int childIndex, BTreeNode child) {
+            super.splitChild(childIndex, child);
+            storage.nodeSplits().increment();
+        }
+
+        @Override
+        void mergeChildren(int separator, BTreeNode left, BTreeNode right) {
+            super.mergeChildren(separator, left, right);
+            storage.nodeMerges().increment();
+        }
+
+        void replaceChildAt(int index, long childHandle) {
+            childrenHandles[index] = childHandle;
+            saveOnDisk();
+        }
 
-            parent.insertKey(median);
-            int newSubNodePositionInParent = parent.getChildPosition(child) + 1;
-            parent.addChild(newSubNodePositionInParent, newSubNode.getHandle());
+        /**
+         * Replaces keys and children of this node by the given ones
+         */
+        void replaceEntries(int[] keys, int keyFrom, int keyCount,
+                            long[] childrenHandles, int childFrom,
+                            int childCount)
+        {
+            System.arraycopy(keys, keyFrom, this.keys, 0, keyCount);
+            System.arraycopy(childrenHandles, childFrom,
+                    this.childrenHandles, 0, childCount);
+            this.keyCount = keyCount;
+            this.childCount = childCount;
+            saveOnDisk();
+        }
 
-            newSubNode.saveOnDisk();
-            child.saveOnDisk();
-            parent.saveOnDisk();
+        void removeEntryAt(int position) {
+            removeKeyAt(position);
+            saveOnDisk();
+        }
+
+        void replaceEntryAt(int position, int key, long value) {
+            replaceEntry(position, key, value);
+            saveOnDisk();
         }
 
         public void insertNonFull(int key) {
+            insertNonFull(key, 0L);
+        }
+
+        public void insertNonFull(int key, long value) {
             if (isLeaf()) {
-                insertKey(key);
+                insertEntry(key, value);
                 saveOnDisk();
             } else {
-                Long nodeHandle = findChildNodeThatShouldContainKey(key);
+                long nodeHandle = findChildNodeThatShouldContainKey(key);
                 BTreeNode node = readFromDisk(nodeHandle);
                 if (node.isFull()) {
                     splitChild(node);
-                    insertNonFull(key);
+                    insertNonFull(key, value);
                 } else {
-                    node.insertNonFull(key);
-                }
-            }
-        }
-
-        public void delete(int key) {
-            if (isLeaf()) {
-                keys.remove((Integer) key);
-            }
-            else {
-                int childNodeIndex = findChildNodeIndexByKey(key);
-
-                BTreeNode nextChild = indexToNode(childNodeIndex + 1);
-                BTreeNode prevChild = indexToNode(childNodeIndex);
-
-                if (nextChild.numberOfKeys() >= minDegree) {
-                    Integer leftMostKey = nextChild.leftMostKey();
-                    nextChild.delete(leftMostKey);
-                    replaceKey(key, leftMostKey);
-                }
-                else if (prevChild.numberOfKeys() >= minDegree) {
-                    Integer rightMostKey = prevChild.rightMostKey();
-                    prevChild.delete(rightMostKey);
-                    replaceKey(key, rightMostKey);
-                }
-                else {
-                    nextChild.moveAllKeysTo(prevChild);
-                    prevChild.insertKey(key);
-                    keys.remove((Integer) key);
-                    childrenHandles.remove(childNodeIndex + 1);
-                    prevChild.delete(key);
+                    node.insertNonFull(key, value);
                 }
             }
-            saveOnDisk();
         }
 
+        @Override
         public void saveOnDisk() {
             try {
                 if (handle == null) {
@@ -225,20 +704,81 @@ public class BTreeOfIntegers {
             }
         }
 
+        /**
+         * Keeps this node in the cache until it is unpinned, nodes that are
+         * used by every operation (like root) are worth to be pinned
+         */
+        public void pin() {
+            storage.pin(handle);
+        }
+
+        public void unpin() {
+            storage.unpin(handle);
+        }
+
         public BTreeNode readFromDisk(long handle) {
-            try {
-                return storage.load(handle);
-            } catch (IOException | ClassNotFoundException e) {
-                throw new RuntimeException(
-                        "Unable to read B-tree node from disk");
+            return storage.load(handle);
+        }
+
+        /**
+         * Loads child at the given position and pins it in the cache, so the
+         * same object is returned for the child until it is unpinned
+         */
+        BTreeNode pinChild(int index) {
+            return storage.pin(childrenHandles[index]);
+        }
+
+        /**
+         * @return storage this node is kept in, nodes created by this node
+         * are kept there as well
+         */
+        BTreeNodeStorage storage() {
+            return storage;
+        }
+
+        /**
+         * @return latch of this node, it guards the node only while the node
+         * is pinned or if the node is not evicted
+         */
+        StampedLock latch() {
+            StampedLock latch = this.latch;
+            if (latch == null) {
+                synchronized (this) {
+                    latch = this.latch;
+                    if (latch == null) {
+                        latch = new StampedLock();
+                        this.latch = latch;
+                    }
+                }
             }
+            return latch;
+        }
+
+        /**
+         * Marks this copy of the node as obsolete, so optimistic readers that
+         * still use it are able to detect it. The node should not be pinned.
+         */
+        void markEvicted() {
+            StampedLock latch = latch();
+            long stamp = latch.writeLock();
+            evicted = true;
+            latch.unlockWrite(stamp);
+        }
+
+        /**
+         * @return <code>true</code> if the cache no longer keeps this copy of
+         * the node
+         */
+        boolean isEvicted() {
+            return evicted;
         }
 
         @Override
         public int hashCode() {
             return new HashCodeBuilder()
                     .append(minDegree)
-                    .append(keys)
+                    .append(getKeys())
+                    .append(getValues())
                     .append(getChildren())
                     .toHashCode();
         }
@@ -257,52 +797,119 @@ public class BTreeOfIntegers {
             BTreeNode otherNode = (BTreeNode) obj;
             return new EqualsBuilder()
                     .append(minDegree, otherNode.minDegree)
-                    .append(keys, otherNode.keys)
+                    .append(getKeys(), otherNode.getKeys())
+                    .append(getValues(), otherNode.getValues())
                     .append(getChildren(), otherNode.getChildren())
+                    .append(linkedLeaves, otherNode.linkedLeaves)
+                    .append(nextLeaf, otherNode.nextLeaf)
                     .isEquals();
         }
 
         @Override
         public String toString() {
-            return reflectionToString(this, JSON_STYLE);
+            return new ToStringBuilder(this, JSON_STYLE)
+                    .append("minDegree", minDegree)
+                    .append("keys", getKeys())
+                    .append("values", getValues())
+                    .append("childrenHandles", getChildHandles())
+                    .append("nextLeaf", linkedLeaves ? nextLeaf : null)
+                    .append("handle", handle)
+                    .toString();
         }
 
         protected List<Integer> getKeys() {
-            return unmodifiableList(keys);
+            List<Integer> keyList = new ArrayList<>(keyCount);
+            for (int i = 0; i < keyCount; i++) {
+                keyList.add(keys[i]);
+            }
+            return unmodifiableList(keyList);
+        }
+
+        /**
+         * @return values of keys or <code>null</code> if node keeps only keys
+         */
+        protected List<Long> getValues() {
+            if (values == null) {
+                return null;
+            }
+            List<Long> valueList = new ArrayList<>(keyCount);
+            for (int i = 0; i < keyCount; i++) {
+                valueList.add(values[i]);
+            }
+            return unmodifiableList(valueList);
         }
 
         protected List<Long> getChildHandles() {
-            return unmodifiableList(childrenHandles);
+            List<Long> handleList = new ArrayList<>(childCount);
+            for (int i = 0; i < childCount; i++) {
+                handleList.add(childrenHandles[i]);
+            }
+            return unmodifiableList(handleList);
         }
 
         protected List<BTreeNode> getAllDescendants() {
             List<BTreeNode> allDescendants = new ArrayList<>();
-            if (!isLeaf()) {
-                getChildHandles().stream().forEach(
-                        childHandle -> {
-                            BTreeNode child = readFromDisk(childHandle);
-                            allDescendants.addAll(child.getAllDescendants());
-                        }
-                );
-            }
+            collectDescendants(new BTreeReadahead(storage), allDescendants);
             return allDescendants;
         }
 
-        protected void addChild(int index, Long childNodeHandle) {
-            this.childrenHandles.add(index, childNodeHandle);
+        private void collectDescendants(BTreeReadahead readahead,
+                                        List<BTreeNode> allDescendants)
+        {
+            for (int i = 0; i < childCount; i++) {
+                BTreeNode child = readahead.child(this, i);
+                allDescendants.add(child);
+                child.collectDescendants(readahead, allDescendants);
+            }
+        }
+
+        /**
+         * @return handles of this node and its descendants, a node goes
+         * before its children and children go in order of keys
+         */
+        LongStream getSubtreeHandles() {
+            LongStream.Builder handles = LongStream.builder();
+            handles.add(handle);
+            // nodes on the path to the current one with index of the next
+            // child to visit
+            Deque<BTreeNode> nodes = new ArrayDeque<>();
+            Deque<Integer> nextChildren = new ArrayDeque<>();
+            nodes.push(this);
+            nextChildren.push(0);
+            BTreeReadahead readahead = new BTreeReadahead(storage);
+            while (!nodes.isEmpty()) {
+                BTreeNode node = nodes.peek();
+                int index = nextChildren.pop();
+                if (index >= node.childCount) {
+                    nodes.pop();
+                    continue;
+                }
+                nextChildren.push(index + 1);
+                BTreeNode child = readahead.child(node, index);
+                handles.add(node.childrenHandles[index]);
+                nodes.push(child);
+                nextChildren.push(0);
+            }
+            return handles.build();
         }
 
         protected List<BTreeNode> getAllLeaves() {
             List<BTreeNode> allLeaves = new ArrayList<>();
+            collectLeaves(new BTreeReadahead(storage), allLeaves);
+            return allLeaves;
+        }
+
+        private void collectLeaves(BTreeReadahead readahead,
+                                   List<BTreeNode> allLeaves)
+        {
             if (isLeaf()) {
                 allLeaves.add(this);
             } else {
-                childrenHandles.stream().forEach(childHandle -> {
-                    BTreeNode child = readFromDisk(childHandle);
-                    allLeaves.addAll(child.getAllLeaves());
-                });
+                for (int i = 0; i < childCount; i++) {
+                    readahead.child(this, i)
+                            .collectLeaves(readahead, allLeaves);
+                }
             }
-            return allLeaves;
         }
 
         protected int getDistanceTo(BTreeNode node) {
@@ -314,16 +921,15 @@ public class BTreeOfIntegers {
             if (targetNode.equals(this)) {
                 return path;
             } else if (!isLeaf()) {
-                if (childrenHandles.contains(targetNode.getHandle())) {
+                if (indexOfChild(targetNode.getHandle()) >= 0) {
                     path.add(this.getHandle());
                 } else {
-                    int index = 0;
-                    int key = targetNode.keys.get(0);
-                    while (index < keys.size() && key > keys.get(index)) {
-                        index++;
-                    }
+                    int key = targetNode.keys[0];
+                    int first = findPositionForKey(key);
+                    int index = first;
                     // handle case when there are same keys but in different children
-                    while (index < childrenHandles.size() && indexToNode(index).contains(key)) {
+                    while (index < childCount && path.isEmpty() &&
+                            (index == first || keys[index - 1] == key)) {
                         BTreeNode child = indexToNode(index);
                         List<Long> pathFromChild = child.findPath(targetNode);
                         if (pathFromChild.size() > 0) {
@@ -338,153 +944,230 @@ public class BTreeOfIntegers {
         }
 
         protected boolean keysAreWithinRange(int left, int right) {
+            return keysAreWithinRange(left, right, new BTreeReadahead(storage));
+        }
+
+        private boolean keysAreWithinRange(int left, int right,
+                                           BTreeReadahead readahead)
+        {
             boolean valid = true;
 
-            for (int k : getKeys()) {
-                if (k < left || k > right) {
+            for (int i = 0; i < keyCount; i++) {
+                if (keys[i] < left || keys[i] > right) {
                     valid = false;
                     break;
                 }
             }
 
             if (valid && !isLeaf()) {
-                int currentChildIndex = 0;
-                int maxChildIndex = getChildHandles().size() - 1;
-                int maxKeyIndex = getKeys().size() - 1;
-
-                for (Long childHandle : getChildHandles()) {
-                    int newRightBound = currentChildIndex == 0 ?
-                            getKeys().get(maxKeyIndex) : right;
-                    int newLeftBound = currentChildIndex == maxChildIndex ?
-                            getKeys().get(0) : left;
-                    BTreeNode child = readFromDisk(childHandle);
-                    if (!child.keysAreWithinRange(newLeftBound, newRightBound)) {
+                int maxChildIndex = childCount - 1;
+                int maxKeyIndex = keyCount - 1;
+
+                for (int i = 0; i < childCount; i++) {
+                    int newRightBound = i == 0 ? keys[maxKeyIndex] : right;
+                    int newLeftBound = i == maxChildIndex ? keys[0] : left;
+                    BTreeNode child = readahead.child(this, i);
+                    if (!child.keysAreWithinRange(
+                            newLeftBound, newRightBound, readahead)) {
                         valid = false;
                         break;
                     }
-                    currentChildIndex++;
                 }
             }
 
             return valid;
         }
 
+        @Override
         protected Long getHandle() {
             return handle;
         }
 
-        private void insertKeys(List<Integer> keysToInsert) {
-            keysToInsert.stream().forEach(this::insertKey);
+        int keyAt(int index) {
+            return keys[index];
         }
 
-        private void insertKey(int key) {
-            int position = findPositionForKey(key);
-            keys.add(position, key);
+        boolean hasValues() {
+            return values != null;
         }
 
-        private void insertChildren(List<Long> childrenHandles) {
-            this.childrenHandles.addAll(childrenHandles);
+        /**
+         * @return value of key at the given position or 0 if node keeps only
+         * keys
+         */
+        long valueAt(int index) {
+            return values == null ? 0L : values[index];
         }
 
-        private void moveHalfOfKeysTo(BTreeNode destNode) {
-            List<Integer> keysForNewSubNode = getKeysForNewSubNodeOnSplit();
-            destNode.insertKeys(keysForNewSubNode);
-            keys = new ArrayList<>(keys.subList(0, minDegree - 1));
+        private void insertEntry(int key, long value) {
+            if (isFull()) {
+                throw new IllegalStateException(
+                        format("Unable to insert key %d into full node", key));
+            }
+            insertEntryAt(findPositionForKey(key), key, value);
         }
 
-        private void moveHalfOfChildren(BTreeNode destNode) {
-            List<Long> childrenForNewNode = getChildrenForNewSubNodeOnSplit();
-            destNode.insertChildren(childrenForNewNode);
-            childrenHandles.removeAll(childrenForNewNode);
+        private void insertEntryAt(int position, int key, long value) {
+            System.arraycopy(keys, position, keys, position + 1,
+                    keyCount - position);
+            keys[position] = key;
+            if (values != null) {
+                System.arraycopy(values, position, values, position + 1,
+                        keyCount - position);
+                values[position] = value;
+            }
+            keyCount++;
         }
 
-        private Integer getMedianOfKeys() {
-            return keys.get(minDegree - 1);
+        @Override
+        BTreeNode childAt(int index) {
+            return indexToNode(index);
         }
 
-        private List<Integer> getKeysForNewSubNodeOnSplit() {
-            return keys.subList(minDegree, keys.size());
+        @Override
+        BTreeNode createSibling() {
+            return new BTreeNode(storage, minDegree, hasValues(), linkedLeaves);
         }
 
-        private List<Long> getChildrenForNewSubNodeOnSplit() {
-            return childrenHandles
-                    .subList(childrenHandles.size() / 2, childrenHandles.size());
+        @Override
+        boolean linksLeaves() {
+            return linkedLeaves;
         }
 
-        private Long findChildNodeThatShouldContainKey(int key) {
-            int childNodeIndexByKey = findChildNodeIndexByKey(key);
-            return childrenHandles.get(childNodeIndexByKey);
+        @Override
+        void linkNextLeaf(BTreeNode leaf) {
+            leaf.nextLeaf = nextLeaf;
+            nextLeaf = leaf.getHandle();
         }
 
-        private int findChildNodeIndexByKey(int key) {
-            return findPositionForKey(key);
+        /**
+         * @return handle of the next leaf of B+-tree or
+         * {@link #NO_NEXT_LEAF} if this leaf is the last one
+         */
+        long nextLeaf() {
+            return nextLeaf;
         }
 
-        private int findPositionForKey(int key) {
-            int index = 0;
-            while (index < keys.size() && key > keys.get(index)) {
-                index++;
+        @Override
+        void copyEntries(int from, BTreeNode destination, int destinationFrom,
+                         int count)
+        {
+            System.arraycopy(keys, from, destination.keys, destinationFrom,
+                    count);
+            if (values != null) {
+                System.arraycopy(values, from, destination.values,
+                        destinationFrom, count);
             }
-            return index;
         }
 
-        private int getChildPosition(BTreeNode child) {
-            return childrenHandles.indexOf(child.getHandle());
+        @Override
+        void insertEntryFrom(int position, BTreeNode source, int sourceIndex) {
+            insertEntryAt(position, source.keys[sourceIndex],
+                    source.valueAt(sourceIndex));
         }
 
-        private int maxKeysPerNode() {
-            return 2 * minDegree - 1;
+        @Override
+        void replaceEntryFrom(int position, BTreeNode source,
+                              int sourceIndex)
+        {
+            replaceEntry(position, source.keys[sourceIndex],
+                    source.valueAt(sourceIndex));
         }
 
-        private BTreeNode indexToNode(int index) {
-            Long childHandle = childrenHandles.get(index);
-            return readFromDisk(childHandle);
+        @Override
+        void removeKeyAt(int index) {
+            System.arraycopy(keys, index + 1, keys, index,
+                    keyCount - index - 1);
+            if (values != null) {
+                System.arraycopy(values, index + 1, values, index,
+                        keyCount - index - 1);
+            }
+            keyCount--;
         }
 
-        private List<BTreeNode> getChildren() {
-            List<BTreeNode> children = new ArrayList<>();
-            if (!isLeaf()) {
-                children.addAll(childrenHandles.stream()
-                        .map(this::readFromDisk)
-                        .collect(toList()));
-            }
-            return children;
+        private long findChildNodeThatShouldContainKey(int key) {
+            int childNodeIndexByKey = findChildNodeIndexByKey(key);
+            return childrenHandles[childNodeIndexByKey];
+        }
+
+        private int findChildNodeIndexByKey(int key) {
+            return findPositionForKey(key);
+        }
+
+        int findPositionForKey(int key) {
+            int position = searchKey(key);
+            return position >= 0 ? position : -position - 1;
+        }
+
+        private int indexOfKey(int key) {
+            int position = searchKey(key);
+            return position >= 0 ? position : -1;
         }
 
-        private BTreeNode findNodeContainingKey(int key) {
-            if (keys.contains(key)) {
-                return this;
+        /**
+         * Binary search of the first key that is not less than the given one.
+         * Its position is also the index of child that should contain the
+         * key if this node does not.
+         *
+         * @return position of the key if it is in this node, otherwise
+         * <code>(-(position for the key) - 1)</code>, the same way as
+         * {@link java.util.Arrays#binarySearch(int[], int)} does
+         */
+        int searchKey(int key) {
+            int low = 0;
+            int high = keyCount;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (keys[middle] < key) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
             }
-            if (!isLeaf()) {
-                Long nodeHandle = findChildNodeThatShouldContainKey(key);
-                BTreeNode childToLookForKey = readFromDisk(nodeHandle);
-                return childToLookForKey.findNodeContainingKey(key);
+            return low < keyCount && keys[low] == key ? low : -low - 1;
+        }
+
+        private static int validMinDegree(int minDegree) {
+            if (minDegree < LOWEST_MIN_DEGREE) {
+                throw new IllegalArgumentException(
+                        format("Min degree for tree node should be greater than " +
+                                "or equals to 2, but passed '%d'", minDegree));
             }
-            throw new NoSuchElementException(
-                    format("There is no key %d in the tree", key));
+            return minDegree;
         }
 
-        private Integer leftMostKey() {
-            return keys.get(0);
+        private int indexOfChild(long childHandle) {
+            for (int i = 0; i < childCount; i++) {
+                if (childrenHandles[i] == childHandle) {
+                    return i;
+                }
+            }
+            return -1;
         }
 
-        private Integer rightMostKey() {
-            return keys.get(max(0, keys.size() - 1));
+        private int getChildPosition(BTreeNode child) {
+            return indexOfChild(child.getHandle());
         }
 
-        private int numberOfKeys() {
-            return keys.size();
+        private BTreeNode indexToNode(int index) {
+            return readFromDisk(childrenHandles[index]);
         }
 
-        private void replaceKey(int oldKey, int newKey) {
-            int keyToRemovePosition = keys.indexOf(oldKey);
-            keys.remove((Integer) oldKey);
-            keys.add(keyToRemovePosition, newKey);
+        private List<BTreeNode> getChildren() {
+            List<BTreeNode> children = new ArrayList<>();
+            if (!isLeaf()) {
+                children.addAll(getChildHandles().stream()
+                        .map(this::readFromDisk)
+                        .collect(toList()));
+            }
+            return children;
         }
 
-        private void moveAllKeysTo(BTreeNode otherNode) {
-            otherNode.insertKeys(keys);
-            keys.clear();
+        private void replaceEntry(int position, int key, long value) {
+            keys[position] = key;
+            if (values != null) {
+                values[position] = value;
+            }
         }
     }
-}
\ No newline at end of file
+}
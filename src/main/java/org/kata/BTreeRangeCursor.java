@@ -0,0 +1,106 @@
+package org.kata;
+
+import org.kata.BTreeOfIntegers.BTreeNode;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * <code>BTreeRangeCursor</code> walks keys of B-tree within the given range
+ * in ascending order. It keeps only the path from the root to the current
+ * node, nodes are loaded from the storage as the cursor reaches them.
+ * Following siblings of the nodes are prefetched by {@link BTreeReadahead},
+ * so a long scan keeps reading ahead of the cursor.
+ * <p>Note: the tree should not be modified while the cursor is used.</p>
+ */
+class BTreeRangeCursor implements PrimitiveIterator.OfInt {
+    private final Deque<Frame> path = new ArrayDeque<>();
+    private final BTreeReadahead readahead;
+    private final int to;
+    private boolean hasNextKey;
+    private int nextKey;
+
+    /**
+     * @param root a root of the tree to walk
+     * @param from the lowest key to return, inclusive
+     * @param to the highest key to return, inclusive
+     */
+    BTreeRangeCursor(BTreeNode root, int from, int to) {
+        this.to = to;
+        this.readahead = new BTreeReadahead(root.storage());
+        if (from <= to) {
+            seek(root, from);
+            advance();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasNextKey;
+    }
+
+    @Override
+    public int nextInt() {
+        if (!hasNextKey) {
+            throw new NoSuchElementException("There are no more keys in range");
+        }
+        int key = nextKey;
+        advance();
+        return key;
+    }
+
+    private void seek(BTreeNode node, int from) {
+        int position = node.findPositionForKey(from);
+        path.push(new Frame(node, position));
+        if (!node.isLeaf()) {
+            seek(readahead.child(node, position), from);
+        }
+    }
+
+    private void descendToLeftMostLeaf(BTreeNode node) {
+        path.push(new Frame(node, 0));
+        if (!node.isLeaf()) {
+            descendToLeftMostLeaf(readahead.child(node, 0));
+        }
+    }
+
+    /**
+     * For leaf frame index points to the next key to return. For internal
+     * node frame index points to the child being walked, the key with the
+     * same index follows that child.
+     */
+    private void advance() {
+        hasNextKey = false;
+        while (!path.isEmpty()) {
+            Frame frame = path.peek();
+            BTreeNode node = frame.node;
+            if (frame.index >= node.numberOfKeys()) {
+                path.pop();
+                continue;
+            }
+            int key = node.keyAt(frame.index++);
+            if (key > to) {
+                path.clear();
+                return;
+            }
+            if (!node.isLeaf()) {
+                descendToLeftMostLeaf(readahead.child(node, frame.index));
+            }
+            nextKey = key;
+            hasNextKey = true;
+            return;
+        }
+    }
+
+    private static class Frame {
+        private final BTreeNode node;
+        private int index;
+
+        private Frame(BTreeNode node, int index) {
+            this.node = node;
+            this.index = index;
+        }
+    }
+}
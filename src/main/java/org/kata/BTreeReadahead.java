@@ -0,0 +1,76 @@
+package org.kata;
+
+import org.kata.BTreeOfIntegers.BTreeNode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <code>BTreeReadahead</code> loads children of B-tree nodes for a single
+ * traversal and prefetches the children the traversal is going to visit
+ * next. Children of every node are tracked separately: while they are
+ * visited one after another the readahead window doubles up to
+ * {@link #MAX_WINDOW} nodes, a jump to another child resets it. So a walk
+ * over the whole tree keeps many reads in flight, while a point lookup
+ * does not read anything it does not need.
+ * <p>Note: a readahead is not thread-safe, every traversal should use its
+ * own one.</p>
+ */
+class BTreeReadahead {
+    static final int MIN_WINDOW = 2;
+    static final int MAX_WINDOW = 64;
+
+    private final BTreeNodeStorage storage;
+    private final int maxWindow;
+    // progress of traversal over children of a node by the node handle
+    private final Map<Long, Stream> streams = new HashMap<>();
+
+    BTreeReadahead(BTreeNodeStorage storage) {
+        this.storage = storage;
+        this.maxWindow = Math.min(MAX_WINDOW, storage.prefetchLimit());
+    }
+
+    /**
+     * Loads child of the node at the given position and prefetches its
+     * following siblings if the children are visited in order
+     */
+    BTreeNode child(BTreeNode parent, int index) {
+        Long parentHandle = parent.getHandle();
+        Stream stream = streams.get(parentHandle);
+        if (stream == null) {
+            stream = new Stream();
+            streams.put(parentHandle, stream);
+        }
+        stream.visit(parent, index);
+        if (index >= parent.numberOfChildren() - 1) {
+            streams.remove(parentHandle);
+        }
+        return storage.load(parent.childHandleAt(index));
+    }
+
+    private class Stream {
+        private int window = Math.min(MIN_WINDOW, maxWindow);
+        private int lastIndex = -1;
+        // children before this index are prefetched already
+        private int prefetchedTo;
+
+        private void visit(BTreeNode parent, int index) {
+            if (index != lastIndex + 1) {
+                window = Math.min(MIN_WINDOW, maxWindow);
+                prefetchedTo = index + 1;
+            } else if (prefetchedTo - index <= window / 2) {
+                if (lastIndex >= 0) {
+                    window = Math.min(2 * window, maxWindow);
+                }
+                int from = Math.max(prefetchedTo, index + 1);
+                int to = Math.min(index + 1 + window,
+                        parent.numberOfChildren());
+                for (int i = from; i < to; i++) {
+                    storage.prefetch(parent.childHandleAt(i));
+                }
+                prefetchedTo = Math.max(prefetchedTo, to);
+            }
+            lastIndex = index;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.kata;
+
+import static java.lang.String.format;
+
+/**
+ * <code>BloomFilter</code> is a set of int keys that answers membership
+ * queries with no false negatives and a bounded share of false positives.
+ * Keys could not be removed from the filter, so the filter counts keys that
+ * are no longer in the source set and tells when it is worth rebuilding.
+ */
+class BloomFilter {
+    private static final double LN2 = Math.log(2);
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final int capacity;
+    private int size;
+    private int staleKeys;
+
+    /**
+     * @param capacity a number of keys the filter is sized for, the share
+     *                 of false positives grows when more keys are added
+     * @param falsePositiveRate expected share of false positives within
+     *                          capacity, a value within (0, 1)
+     */
+    BloomFilter(int capacity, double falsePositiveRate) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(format(
+                    "Capacity should be positive, but passed '%d'",
+                    capacity));
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException(format(
+                    "False positive rate should be within (0, 1), but " +
+                            "passed '%s'", falsePositiveRate));
+        }
+        long optimalBits = (long) Math.ceil(
+                -capacity * Math.log(falsePositiveRate) / (LN2 * LN2));
+        this.bits = new long[(int) ((optimalBits + 63) / 64)];
+        this.bitCount = bits.length * 64L;
+        this.hashCount = Math.max(1,
+                (int) Math.round((double) bitCount / capacity * LN2));
+        this.capacity = capacity;
+    }
+
+    void add(int key) {
+        long hash = mix(key);
+        long h1 = hash >>> 32;
+        long h2 = hash & 0xFFFFFFFFL | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (h1 + i * h2) % bitCount;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        size++;
+    }
+
+    /**
+     * @return <code>false</code> if the key was never added or
+     * <code>true</code> if it was probably added
+     */
+    boolean mightContain(int key) {
+        long hash = mix(key);
+        long h1 = hash >>> 32;
+        long h2 = hash & 0xFFFFFFFFL | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (h1 + i * h2) % bitCount;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts keys that are removed from the source set but remain in the
+     * filter
+     */
+    void forget(int keyCount) {
+        staleKeys += keyCount;
+    }
+
+    /**
+     * @return <code>true</code> if the filter holds more keys than it is
+     * sized for or too many of its keys are stale
+     */
+    boolean needsRebuild() {
+        return size > capacity || staleKeys > size / 2;
+    }
+
+    /**
+     * @return a number of added keys that are not forgotten, it is an upper
+     * bound of keys in the source set
+     */
+    int liveKeys() {
+        return size - staleKeys;
+    }
+
+    /**
+     * Finalizer of 64-bit MurmurHash3, spreads every bit of the key over
+     * the whole hash
+     */
+    private static long mix(int key) {
+        long hash = key;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,20 @@
+package org.kata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <code>ByteArrayCodec</code> stores byte arrays as they are
+ */
+public class ByteArrayCodec implements Codec<byte[]> {
+    @Override
+    public byte[] encode(byte[] object) {
+        return object;
+    }
+
+    @Override
+    public byte[] decode(ByteBuffer data, long handle) {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return bytes;
+    }
+}
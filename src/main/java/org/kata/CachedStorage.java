@@ -1,66 +1,440 @@
 package org.kata;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
+import static java.lang.String.format;
+
+/**
+ * <code>CachedStorage</code> is a buffer pool in front of another storage.
+ * It keeps up to a given number of objects in memory and evicts objects
+ * one by one when the limit is exceeded. Eviction follows the CLOCK
+ * (second chance) policy: objects are queued in the order they are cached,
+ * an object that was read since it was queued is queued once again instead
+ * of being evicted, so objects that are read often stay in the pool.
+ * <p>Objects updated since they were cached are marked as dirty. Only dirty
+ * objects are written back to the underlying storage, either when they are
+ * evicted or when the cache is flushed.</p>
+ * <p>Objects that are in use could be pinned, pinned objects are never
+ * evicted. If all cached objects are pinned the pool temporarily grows
+ * beyond its limit until some of them get unpinned.</p>
+ * <p>Objects missing in the cache are loaded asynchronously by
+ * {@link #loadAsync(long)} if the underlying storage is an
+ * {@link AsyncStorage}.</p>
+ * <p>Hits, misses and evictions are counted in {@link Metrics} the pool is
+ * created with.</p>
+ * <p>The pool is thread-safe as long as the underlying storage is used only
+ * through it. Objects are looked up in a concurrent map, so a read of a
+ * cached object takes no lock. Large pools are split into segments by
+ * handle, each segment has its own share of the size limit, its own
+ * eviction queue and its own lock, which guards misses, updates and pins of
+ * its objects.</p>
+ *
+ * @param <T> a type of objects stored in this storage
+ */
 public class CachedStorage<T> implements Storage<T> {
     private static final Logger LOG = Logger.getLogger(
             CachedStorage.class.getName());
 
     private final static int DEFAULT_CACHE_SIZE = 8192;
-    private Map<Long, T> cache = new HashMap<>();
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_SIZE = 64;
+
+    private final ConcurrentMap<Long, Entry<T>> cache =
+            new ConcurrentHashMap<>();
+    private final Segment<T>[] segments;
+    // asynchronous loads of objects that are not cached yet
+    private final ConcurrentMap<Long, CompletableFuture<T>> pendingLoads =
+            new ConcurrentHashMap<>();
     private Storage<T> storage;
-    private final int cacheSize;
+    private final Metrics.Counter hits;
+    private final Metrics.Counter misses;
+    private final Metrics.Counter evictions;
 
     public CachedStorage(Storage<T> storage) {
         this(storage, DEFAULT_CACHE_SIZE);
     }
 
     public CachedStorage(Storage<T> storage, int cacheSize) {
+        this(storage, cacheSize, Metrics.NONE);
+    }
+
+    /**
+     * @param metrics a registry of <code>hits</code>, <code>misses</code>
+     *                and <code>evictions</code> counters and
+     *                <code>size</code> gauge of the pool
+     */
+    @SuppressWarnings("unchecked")
+    public CachedStorage(Storage<T> storage, int cacheSize, Metrics metrics) {
         this.storage = storage;
-        this.cacheSize = cacheSize;
+        int segmentCount = Integer.highestOneBit(Math.max(1,
+                Math.min(MAX_SEGMENTS, cacheSize / MIN_SEGMENT_SIZE)));
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>(cacheSize / segmentCount
+                    + (i < cacheSize % segmentCount ? 1 : 0));
+        }
+        this.hits = metrics.counter("hits");
+        this.misses = metrics.counter("misses");
+        this.evictions = metrics.counter("evictions");
+        metrics.gauge("size", this::size);
     }
 
     @Override
     public long create(T object) throws IOException {
-        Long handle = storage.create(object);
-        if (cache.size() >= cacheSize) {
-            flush();
-            cache.clear();
+        // nobody knows the handle until it is returned, so the object is
+        // written without holding the segment
+        long handle = storage.create(object);
+        Segment<T> segment = segmentOf(handle);
+        synchronized (segment) {
+            pendingLoads.remove(handle);
+            cache(segment, handle, new Entry<>(object));
+            evictIfFull(segment);
         }
-        cache.put(handle, object);
         return handle;
     }
 
     @Override
     public void update(T object, long handle) throws IOException {
-        cache.put(handle, object);
+        Segment<T> segment = segmentOf(handle);
+        synchronized (segment) {
+            // a read issued before could complete after the new version is
+            // evicted, it must not be cached then
+            pendingLoads.remove(handle);
+            Entry<T> entry = cache.get(handle);
+            if (entry == null) {
+                entry = new Entry<>(object);
+                cache(segment, handle, entry);
+            } else {
+                entry.object = object;
+            }
+            entry.dirty = true;
+            evictIfFull(segment);
+        }
     }
 
     @Override
     public T load(long handle) throws IOException, ClassNotFoundException {
-        T object = cache.get(handle);
-        if (object == null) {
-            object = storage.load(handle);
+        Entry<T> entry = cache.get(handle);
+        if (entry != null) {
+            return hit(entry);
+        }
+        Segment<T> segment = segmentOf(handle);
+        synchronized (segment) {
+            entry = loadEntry(segment, handle);
+            evictIfFull(segment);
+            return entry.object;
         }
-        return object;
+    }
+
+    /**
+     * Returns cached object right away or loads it without blocking if the
+     * underlying storage supports it. Loaded object is put into the cache,
+     * unless another copy of it was cached meanwhile. Concurrent
+     * asynchronous loads of the same object share a single read. If the
+     * object is updated while it is read, the read is superseded and the
+     * future gets the new version.
+     *
+     * @param handle a handle of object to load
+     * @return future of the object
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<T> loadAsync(long handle) {
+        Entry<T> entry = cache.get(handle);
+        if (entry != null) {
+            return CompletableFuture.completedFuture(hit(entry));
+        }
+        Segment<T> segment = segmentOf(handle);
+        synchronized (segment) {
+            entry = cache.get(handle);
+            if (entry != null) {
+                return CompletableFuture.completedFuture(hit(entry));
+            }
+            CompletableFuture<T> pendingLoad = pendingLoads.get(handle);
+            if (pendingLoad != null) {
+                misses.increment();
+                return pendingLoad;
+            }
+            if (storage instanceof AsyncStorage) {
+                misses.increment();
+                CompletableFuture<T> load = new CompletableFuture<>();
+                pendingLoads.put(handle, load);
+                ((AsyncStorage<T>) storage).loadAsync(handle).whenComplete(
+                        (object, error) -> loaded(handle, load, object, error));
+                return load;
+            }
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            result.complete(load(handle));
+        } catch (IOException | ClassNotFoundException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * @return future of asynchronous load of the object that is not done yet
+     * or <code>null</code> if there is no such load
+     */
+    public CompletableFuture<T> pendingLoad(long handle) {
+        return pendingLoads.get(handle);
+    }
+
+    /**
+     * Loads object and pins it in the cache, so it is not evicted until
+     * {@link #unpin(long)} is called for it the same number of times
+     *
+     * @param handle a handle of object to pin
+     * @return pinned object
+     */
+    public T pin(long handle) throws IOException, ClassNotFoundException {
+        Segment<T> segment = segmentOf(handle);
+        synchronized (segment) {
+            Entry<T> entry = loadEntry(segment, handle);
+            entry.pinCount++;
+            evictIfFull(segment);
+            return entry.object;
+        }
+    }
+
+    /**
+     * Releases object pinned by {@link #pin(long)}
+     *
+     * @param handle a handle of object to unpin
+     * @throws IllegalStateException if object is not pinned
+     */
+    public void unpin(long handle) {
+        Segment<T> segment = segmentOf(handle);
+        synchronized (segment) {
+            Entry<T> entry = cache.get(handle);
+            if (entry == null || entry.pinCount == 0) {
+                throw new IllegalStateException(
+                        format("Object with handle %d is not pinned", handle));
+            }
+            entry.pinCount--;
+            evictIfFull(segment);
+        }
+    }
+
+    /**
+     * @return number of objects in the pool
+     */
+    public int size() {
+        return cache.size();
     }
 
     protected boolean isCached(Long handle) {
         return cache.containsKey(handle);
     }
 
-    protected void flush() {
-        cache.entrySet().stream().forEach(entry -> {
-            Long handle = entry.getKey();
-            T object = entry.getValue();
+    protected boolean isPinned(Long handle) {
+        synchronized (segmentOf(handle)) {
+            Entry<T> entry = cache.get(handle);
+            return entry != null && entry.pinCount > 0;
+        }
+    }
+
+    protected boolean isDirty(Long handle) {
+        synchronized (segmentOf(handle)) {
+            Entry<T> entry = cache.get(handle);
+            return entry != null && entry.dirty;
+        }
+    }
+
+    /**
+     * Writes back all dirty objects to the underlying storage, objects stay
+     * in the cache
+     *
+     * @throws IOException if some objects could not be written back, they
+     * stay dirty and the others are written back anyway
+     */
+    public void flush() throws IOException {
+        IOException failure = null;
+        for (Segment<T> segment : segments) {
+            synchronized (segment) {
+                for (Entry<T> entry : segment.queue) {
+                    try {
+                        writeBack(entry);
+                    } catch (IOException e) {
+                        if (failure == null) {
+                            failure = e;
+                        } else {
+                            failure.addSuppressed(e);
+                        }
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Counts a hit and marks the object as read, the mark is written only
+     * if eviction has cleared it
+     */
+    private T hit(Entry<T> entry) {
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        hits.increment();
+        return entry.object;
+    }
+
+    private Entry<T> loadEntry(Segment<T> segment, long handle)
+            throws IOException, ClassNotFoundException
+    {
+        Entry<T> entry = cache.get(handle);
+        if (entry == null) {
+            misses.increment();
+            entry = new Entry<>(handle, storage.load(handle));
+            entry.referenced = true;
+            cache(segment, handle, entry);
+        } else {
+            hit(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Completes asynchronous load. The read object is cached only if the
+     * load is still registered, otherwise the object was created or updated
+     * meanwhile and the read one may be stale, so the load is completed with
+     * the current version instead.
+     */
+    private void loaded(long handle, CompletableFuture<T> load, T object,
+                        Throwable error)
+    {
+        Segment<T> segment = segmentOf(handle);
+        synchronized (segment) {
+            boolean superseded = !pendingLoads.remove(handle, load);
+            Entry<T> entry = cache.get(handle);
+            if (entry != null) {
+                load.complete(entry.object);
+                return;
+            }
+            if (!superseded) {
+                if (error != null) {
+                    load.completeExceptionally(
+                            error instanceof CompletionException
+                                    ? error.getCause() : error);
+                    return;
+                }
+                entry = new Entry<>(handle, object);
+                entry.referenced = true;
+                cache(segment, handle, entry);
+                evictIfFull(segment);
+                load.complete(entry.object);
+                return;
+            }
+        }
+        // the new version is already written back, so it is read again
+        loadAsync(handle).whenComplete((current, failure) -> {
+            if (failure != null) {
+                load.completeExceptionally(failure);
+            } else {
+                load.complete(current);
+            }
+        });
+    }
+
+    private void cache(Segment<T> segment, long handle, Entry<T> entry) {
+        entry.handle = handle;
+        cache.put(handle, entry);
+        segment.queue.addLast(entry);
+    }
+
+    /**
+     * Evicts objects of the segment until it fits its share of the limit.
+     * Every object is looked at most twice, the first look clears the read
+     * mark, so the loop ends even if all objects are pinned. A dirty object
+     * that could not be written back stays in the cache as it is, so its
+     * changes are not lost.
+     */
+    private void evictIfFull(Segment<T> segment) {
+        Deque<Entry<T>> queue = segment.queue;
+        int looks = 2 * queue.size();
+        while (queue.size() > segment.capacity && looks-- > 0) {
+            Entry<T> candidate = queue.pollFirst();
+            if (candidate.pinCount > 0 || candidate.referenced) {
+                candidate.referenced = false;
+                queue.addLast(candidate);
+                continue;
+            }
             try {
-                storage.update(object, handle);
+                writeBack(candidate);
             } catch (IOException e) {
-                LOG.severe("Unable to store element in the storage");
+                LOG.severe(format("Unable to write back object with handle " +
+                        "%d, it is kept in the cache", candidate.handle));
+                queue.addLast(candidate);
+                continue;
             }
-        });
+            cache.remove(candidate.handle);
+            evictions.increment();
+            evicted(candidate.handle, candidate.object);
+        }
+    }
+
+    /**
+     * Called when object is evicted from the cache, the next access of the
+     * handle loads another copy of the object from the underlying storage
+     *
+     * @param handle a handle of evicted object
+     * @param object evicted object
+     */
+    protected void evicted(long handle, T object) {
+    }
+
+    private void writeBack(Entry<T> entry) throws IOException {
+        if (entry.dirty) {
+            storage.update(entry.object, entry.handle);
+            entry.dirty = false;
+        }
+    }
+
+    private Segment<T> segmentOf(long handle) {
+        // handles are sequential, so they are mixed to spread over segments
+        long hash = handle * 0x9E3779B97F4A7C15L;
+        return segments[(int) (hash >>> 32) & (segments.length - 1)];
+    }
+
+    /**
+     * Part of the pool with its own share of the limit, eviction queue and
+     * lock. Pin counts and dirty marks of its objects are guarded by it.
+     */
+    private static class Segment<T> {
+        private final int capacity;
+        private final Deque<Entry<T>> queue = new ArrayDeque<>();
+
+        private Segment(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+
+    private static class Entry<T> {
+        private long handle;
+        private volatile T object;
+        private int pinCount;
+        private boolean dirty;
+        // set by reads, cleared by eviction that gives the object a second
+        // chance
+        private volatile boolean referenced;
+
+        private Entry(T object) {
+            this.object = object;
+        }
+
+        private Entry(long handle, T object) {
+            this.handle = handle;
+            this.object = object;
+        }
     }
 }
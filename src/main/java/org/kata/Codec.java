@@ -0,0 +1,34 @@
+package org.kata;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Defines how objects kept in a {@link Storage} are turned into bytes and
+ * back. Storage implementations only move the produced bytes around, so the
+ * on-disk layout of stored objects is entirely up to the codec.
+ *
+ * @param <T> a type of objects this codec encodes/decodes
+ */
+public interface Codec<T> {
+    /**
+     * Encodes object into its binary representation
+     * @param object an object to encode
+     * @return encoded bytes of the object
+     * @throws IOException if object could not be encoded
+     */
+    byte[] encode(T object) throws IOException;
+
+    /**
+     * Decodes object from its binary representation
+     * @param data a buffer positioned at the first byte of encoded object,
+     *             its remaining bytes are exactly the encoded object
+     * @param handle a handle the object is stored under in the storage
+     * @return decoded object
+     * @throws IOException if object could not be decoded
+     * @throws ClassNotFoundException if class of encoded object could not be
+     * found in runtime
+     */
+    T decode(ByteBuffer data, long handle)
+            throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,637 @@
+package org.kata;
+
+import org.kata.BTreeOfIntegers.BTreeNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.lang.String.format;
+
+/**
+ * <code>ConcurrentBTreeOfIntegers</code> is a thread-safe B-tree of int keys.
+ * <p>Each node has its own read/write latch and operations walk down the tree
+ * latching nodes hand over hand (latch crabbing): a child is latched before
+ * its parent is released. Readers hold shared latches of at most two nodes
+ * at a time, so they do not block each other.</p>
+ * <p>Writers hold exclusive latches and make a child safe before descending
+ * into it, so the parent could be released right away: insert splits full
+ * children on the way down, delete refills children with minimal number of
+ * keys from a sibling or merges them with a sibling. Thus writers block
+ * only the nodes of the subtree they work on.</p>
+ * <p>Replacing the root is guarded by a separate tree latch, a writer holds
+ * it only while it works on the root node.</p>
+ * <p>Nodes are pinned in the cache while they are latched, so all threads
+ * see the same node object and the same latch.</p>
+ * <p>Lookups and scans do not latch nodes at first. They read a version of
+ * each node before reading the node and check that it is not changed after,
+ * so readers take neither latches nor locks and do not slow down each other
+ * on upper nodes. Nodes cached in {@link CachedStorage} are read without
+ * locks as well, a reader only marks a node as read if eviction has cleared
+ * the mark and counts a cache hit if metrics are enabled. A reader restarts
+ * if a node is changed by a writer or the root is replaced, and falls back
+ * to shared latches if it has to restart too many times.</p>
+ */
+public class ConcurrentBTreeOfIntegers implements Closeable {
+    private static final int OPTIMISTIC_ATTEMPTS = 8;
+    private static final int SCAN_BATCH_SIZE = 128;
+    private static final ConflictException CONFLICT = new ConflictException();
+
+    private final ReentrantReadWriteLock rootLatch =
+            new ReentrantReadWriteLock();
+    private final BTreeNodeStorage storage;
+    // whether the storage is created by the tree and closed with it
+    private final boolean ownsStorage;
+    private final int minDegree;
+    // changed under rootLatch, optimistic readers read it without the latch
+    protected volatile BTreeNode root;
+
+    /**
+     * Creates <code>ConcurrentBTreeOfIntegers</code> data structure which
+     * nodes are kept in a storage of its own
+     *
+     * @param minDegree a parameter of B-tree that controls number of keys per
+     *                  tree node and child nodes.
+     */
+    public ConcurrentBTreeOfIntegers(int minDegree) {
+        this(minDegree, BTreeNodeStorage.temporal(), true);
+    }
+
+    /**
+     * Creates <code>ConcurrentBTreeOfIntegers</code> data structure which
+     * nodes are kept in the given storage
+     *
+     * @param minDegree a parameter of B-tree that controls number of keys per
+     *                  tree node and child nodes.
+     * @param storage a storage of nodes, it could be shared with other trees
+     *                and is not closed with the tree
+     */
+    public ConcurrentBTreeOfIntegers(
+            int minDegree, BTreeNodeStorage storage)
+    {
+        this(minDegree, storage, false);
+    }
+
+    private ConcurrentBTreeOfIntegers(
+            int minDegree, BTreeNodeStorage storage, boolean ownsStorage)
+    {
+        this.storage = storage;
+        this.ownsStorage = ownsStorage;
+        this.minDegree = minDegree;
+        this.root = new BTreeNode(storage, minDegree);
+        this.root.pin();
+    }
+
+    /**
+     * Checks if the specified key is in B-tree
+     *
+     * @param key a key to check
+     * @return <code>true</code> if key is in the tree or <code>false</code>
+     * if otherwise
+     */
+    public boolean contains(int key) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            try {
+                return containsOptimistically(key);
+            } catch (ConflictException e) {
+                // a node is changed while it is read, restart
+            }
+        }
+        return containsWithLatches(key);
+    }
+
+    /**
+     * Returns keys of the tree that are within the specified range in
+     * ascending order. Keys are read in batches, each batch is read as
+     * lookups are, so the iterator does not block writers between batches.
+     * <p>Note: keys inserted or deleted while the iterator is used may or
+     * may not be returned.</p>
+     *
+     * @param from the lowest key to return, inclusive
+     * @param to the highest key to return, inclusive
+     * @return iterator over keys within the range
+     */
+    public PrimitiveIterator.OfInt rangeScan(int from, int to) {
+        return new RangeCursor(from, to);
+    }
+
+    private boolean containsOptimistically(int key) {
+        BTreeNode node = root;
+        long stamp = readRootVersion(node);
+        while (true) {
+            int position = node.searchKey(key);
+            if (position >= 0 || node.isLeaf()) {
+                validate(node, stamp);
+                return position >= 0;
+            }
+            BTreeNode child = readChild(node, stamp, -position - 1);
+            long childStamp = readVersion(child);
+            // the child could be split or merged before its version is read
+            validate(node, stamp);
+            node = child;
+            stamp = childStamp;
+        }
+    }
+
+    private boolean containsWithLatches(int key) {
+        BTreeNode node;
+        rootLatch.readLock().lock();
+        try {
+            node = acquireRoot(false);
+        } finally {
+            rootLatch.readLock().unlock();
+        }
+
+        try {
+            while (true) {
+                int position = node.searchKey(key);
+                if (position >= 0) {
+                    return true;
+                }
+                if (node.isLeaf()) {
+                    return false;
+                }
+                BTreeNode child = acquireChild(node, -position - 1, false);
+                release(node, false);
+                node = child;
+            }
+        } finally {
+            release(node, false);
+        }
+    }
+
+    /**
+     * Inserts key into B-tree
+     *
+     * @param key a key to insert
+     */
+    public void insert(int key) {
+        BTreeNode node;
+        rootLatch.writeLock().lock();
+        try {
+            node = acquireRoot(true);
+            if (node.isFull()) {
+                BTreeNode newRoot = new BTreeNode(storage, minDegree);
+                newRoot.addChild(0, node.getHandle());
+                newRoot.pin();
+                lock(newRoot, true);
+                newRoot.splitChild(node);
+                newRoot.pin();
+                root.unpin();
+                root = newRoot;
+                release(node, true);
+                node = newRoot;
+            }
+        } finally {
+            rootLatch.writeLock().unlock();
+        }
+
+        try {
+            while (!node.isLeaf()) {
+                int index = node.findPositionForKey(key);
+                BTreeNode child = acquireChild(node, index, true);
+                if (child.isFull()) {
+                    node.splitChild(child);
+                    if (key > node.keyAt(index)) {
+                        release(child, true);
+                        child = acquireChild(node, index + 1, true);
+                    }
+                }
+                release(node, true);
+                node = child;
+            }
+            node.insertNonFull(key);
+        } finally {
+            release(node, true);
+        }
+    }
+
+    /**
+     * Deletes the specified key from the tree
+     *
+     * @param key a key to delete
+     * @throws NoSuchElementException if tree does not contain the key
+     */
+    public void delete(int key) {
+        rootLatch.writeLock().lock();
+        boolean holdsRootLatch = true;
+        BTreeNode node = null;
+        try {
+            node = acquireRoot(true);
+            while (true) {
+                int position = node.searchKey(key);
+                if (node.isLeaf()) {
+                    if (position < 0) {
+                        throw new NoSuchElementException(format(
+                                "There is no key %d in the tree", key));
+                    }
+                    node.removeEntryAt(position);
+                    return;
+                }
+
+                BTreeNode child;
+                if (position >= 0) {
+                    child = deleteFromInternalNode(node, position);
+                    if (child == null) {
+                        return;
+                    }
+                } else {
+                    int index = -position - 1;
+                    child = acquireChild(node, index, true);
+                    if (child.numberOfKeys() < minDegree) {
+                        child = refill(node, index, child);
+                    }
+                }
+
+                if (holdsRootLatch) {
+                    if (node.numberOfKeys() == 0) {
+                        child.pin();
+                        root.unpin();
+                        root = child;
+                    }
+                    rootLatch.writeLock().unlock();
+                    holdsRootLatch = false;
+                }
+                release(node, true);
+                node = child;
+            }
+        } finally {
+            if (node != null) {
+                release(node, true);
+            }
+            if (holdsRootLatch) {
+                rootLatch.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Releases the root of the tree and closes the storage of nodes if the
+     * tree was created without a storage. The tree should not be used
+     * afterwards, operations that are in progress are not waited for.
+     */
+    @Override
+    public void close() throws IOException {
+        rootLatch.writeLock().lock();
+        try {
+            root.unpin();
+        } finally {
+            rootLatch.writeLock().unlock();
+        }
+        if (ownsStorage) {
+            storage.close();
+        }
+    }
+
+    /**
+     * Replaces the key at the given position of internal node by its
+     * successor or predecessor if a child next to the key has more than
+     * minimal number of keys, otherwise merges the children around the key.
+     *
+     * @return merged child to delete the key from or <code>null</code> if
+     * the key is already deleted
+     */
+    private BTreeNode deleteFromInternalNode(BTreeNode node, int position) {
+        BTreeNode right = acquireChild(node, position + 1, true);
+        if (right.numberOfKeys() >= minDegree) {
+            int successor = deleteEdgeKey(right, true);
+            node.replaceEntryAt(position, successor, 0L);
+            return null;
+        }
+        BTreeNode left = acquireChild(node, position, true);
+        if (left.numberOfKeys() >= minDegree) {
+            release(right, true);
+            int predecessor = deleteEdgeKey(left, false);
+            node.replaceEntryAt(position, predecessor, 0L);
+            return null;
+        }
+        node.mergeChildren(position, left, right);
+        release(right, true);
+        return left;
+    }
+
+    /**
+     * Deletes the lowest or the highest key of the subtree with the given
+     * latched root that has more than minimal number of keys, the latch is
+     * released afterwards
+     *
+     * @return deleted key
+     */
+    private int deleteEdgeKey(BTreeNode subtreeRoot, boolean lowest) {
+        BTreeNode node = subtreeRoot;
+        try {
+            while (!node.isLeaf()) {
+                int index = lowest ? 0 : node.numberOfChildren() - 1;
+                BTreeNode child = acquireChild(node, index, true);
+                if (child.numberOfKeys() < minDegree) {
+                    child = refill(node, index, child);
+                }
+                release(node, true);
+                node = child;
+            }
+            int position = lowest ? 0 : node.numberOfKeys() - 1;
+            int key = node.keyAt(position);
+            node.removeEntryAt(position);
+            return key;
+        } finally {
+            release(node, true);
+        }
+    }
+
+    /**
+     * Gives the child with minimal number of keys one more key taken from a
+     * sibling or merges it with a sibling. Siblings are latched only for
+     * the time of the change.
+     *
+     * @return latched child that has more than minimal number of keys now,
+     * it is the left sibling if the child was merged into it
+     */
+    private BTreeNode refill(BTreeNode node, int index, BTreeNode child) {
+        BTreeNode left = null;
+        BTreeNode right = null;
+        try {
+            if (index > 0) {
+                left = acquireChild(node, index - 1, true);
+                if (left.numberOfKeys() >= minDegree) {
+                    node.rotateFromLeftSibling(index, child, left);
+                    return child;
+                }
+            }
+            if (index < node.numberOfChildren() - 1) {
+                right = acquireChild(node, index + 1, true);
+                if (right.numberOfKeys() >= minDegree) {
+                    node.rotateFromRightSibling(index, child, right);
+                    return child;
+                }
+            }
+            if (left != null) {
+                node.mergeChildren(index - 1, left, child);
+                release(child, true);
+                BTreeNode merged = left;
+                left = null;
+                return merged;
+            }
+            node.mergeChildren(index, child, right);
+            return child;
+        } finally {
+            if (left != null) {
+                release(left, true);
+            }
+            if (right != null) {
+                release(right, true);
+            }
+        }
+    }
+
+    private BTreeNode acquireRoot(boolean exclusive) {
+        root.pin();
+        lock(root, exclusive);
+        return root;
+    }
+
+    private BTreeNode acquireChild(BTreeNode node, int index,
+                                   boolean exclusive)
+    {
+        BTreeNode child = node.pinChild(index);
+        lock(child, exclusive);
+        return child;
+    }
+
+    private void lock(BTreeNode node, boolean exclusive) {
+        if (exclusive) {
+            node.latch().asWriteLock().lock();
+        } else {
+            node.latch().asReadLock().lock();
+        }
+    }
+
+    private void release(BTreeNode node, boolean exclusive) {
+        if (exclusive) {
+            node.latch().asWriteLock().unlock();
+        } else {
+            node.latch().asReadLock().unlock();
+        }
+        node.unpin();
+    }
+
+    /**
+     * @return version of the node to validate optimistic read against
+     * @throws ConflictException if the node is being changed or if it is an
+     * obsolete copy of the node
+     */
+    private static long readVersion(BTreeNode node) {
+        long stamp = node.latch().tryOptimisticRead();
+        if (stamp == 0L || node.isEvicted()) {
+            throw CONFLICT;
+        }
+        return stamp;
+    }
+
+    /**
+     * @return version of the root to validate optimistic read against
+     * @throws ConflictException if the node is not the root anymore, a root
+     * split under a new root keeps validating, while it holds only a part of
+     * keys
+     */
+    private long readRootVersion(BTreeNode node) {
+        long stamp = readVersion(node);
+        // the root is replaced before the latch of the old one is released
+        if (root != node) {
+            throw CONFLICT;
+        }
+        return stamp;
+    }
+
+    private static void validate(BTreeNode node, long stamp) {
+        if (!node.latch().validate(stamp)) {
+            throw CONFLICT;
+        }
+    }
+
+    /**
+     * Loads child of optimistically read node, the handle of the child is
+     * validated before it is used
+     */
+    private static BTreeNode readChild(BTreeNode node, long stamp, int index) {
+        long childHandle = node.childHandleAt(index);
+        validate(node, stamp);
+        return node.readFromDisk(childHandle);
+    }
+
+    /**
+     * Signals that a node is changed while it is read optimistically, it is
+     * thrown often, so it is created once and has no stack trace
+     */
+    private static class ConflictException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private ConflictException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Walks keys within range in batches. Each batch is read by in-order walk
+     * from the last returned key, all nodes read are validated after the
+     * walk. Already returned occurrences of the last key are skipped, so
+     * duplicate keys are returned as many times as they are in the tree.
+     */
+    private class RangeCursor implements PrimitiveIterator.OfInt {
+        private final int from;
+        private final int to;
+        private final int[] batch = new int[SCAN_BATCH_SIZE];
+        private int batchSize;
+        private int batchPosition;
+        private boolean lastBatch;
+        private int lastKey;
+        private int lastKeyOccurrences;
+
+        // state of the batch being read
+        private boolean optimistic;
+        private int seekKey;
+        private int keysToSkip;
+        private BTreeNode[] readNodes = new BTreeNode[16];
+        private long[] readStamps = new long[16];
+        private int readCount;
+
+        private RangeCursor(int from, int to) {
+            this.from = from;
+            this.to = to;
+            if (from <= to) {
+                readBatch();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return batchPosition < batchSize;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException(
+                        "There are no more keys in range");
+            }
+            int key = batch[batchPosition++];
+            if (lastKeyOccurrences > 0 && key == lastKey) {
+                lastKeyOccurrences++;
+            } else {
+                lastKey = key;
+                lastKeyOccurrences = 1;
+            }
+            if (batchPosition == batchSize && !lastBatch) {
+                readBatch();
+            }
+            return key;
+        }
+
+        private void readBatch() {
+            seekKey = lastKeyOccurrences == 0 ? from : lastKey;
+            for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+                try {
+                    readBatch(true);
+                    return;
+                } catch (ConflictException e) {
+                    // a node is changed while it is read, restart
+                }
+            }
+            readBatch(false);
+        }
+
+        private void readBatch(boolean optimistic) {
+            this.optimistic = optimistic;
+            batchSize = 0;
+            batchPosition = 0;
+            keysToSkip = lastKeyOccurrences;
+            readCount = 0;
+            lastBatch = true;
+            if (optimistic) {
+                BTreeNode node = root;
+                walk(node, remember(node, readRootVersion(node)), true);
+                for (int i = 0; i < readCount; i++) {
+                    validate(readNodes[i], readStamps[i]);
+                }
+            } else {
+                BTreeNode node;
+                rootLatch.readLock().lock();
+                try {
+                    node = acquireRoot(false);
+                } finally {
+                    rootLatch.readLock().unlock();
+                }
+                try {
+                    walk(node, 0L, true);
+                } finally {
+                    release(node, false);
+                }
+            }
+            Arrays.fill(readNodes, 0, readCount, null);
+        }
+
+        /**
+         * @return <code>false</code> if the walk is over because the batch
+         * is full or because a key beyond the range is reached
+         */
+        private boolean walk(BTreeNode node, long stamp, boolean seeking) {
+            int keyCount = node.numberOfKeys();
+            boolean leaf = node.isLeaf();
+            int start = seeking ? node.findPositionForKey(seekKey) : 0;
+            for (int i = start; i <= keyCount; i++) {
+                if (!leaf && !walkChild(node, stamp, i, seeking && i == start)) {
+                    return false;
+                }
+                if (i < keyCount && !emit(node.keyAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean walkChild(BTreeNode node, long stamp, int index,
+                                  boolean seeking)
+        {
+            if (optimistic) {
+                BTreeNode child = readChild(node, stamp, index);
+                long childStamp = remember(child, readVersion(child));
+                validate(node, stamp);
+                return walk(child, childStamp, seeking);
+            }
+            BTreeNode child = acquireChild(node, index, false);
+            try {
+                return walk(child, 0L, seeking);
+            } finally {
+                release(child, false);
+            }
+        }
+
+        private boolean emit(int key) {
+            if (key > to) {
+                return false;
+            }
+            if (key == seekKey && keysToSkip > 0) {
+                keysToSkip--;
+                return true;
+            }
+            if (batchSize == batch.length) {
+                lastBatch = false;
+                return false;
+            }
+            batch[batchSize++] = key;
+            return true;
+        }
+
+        private long remember(BTreeNode node, long stamp) {
+            if (readCount == readNodes.length) {
+                readNodes = Arrays.copyOf(readNodes, readCount * 2);
+                readStamps = Arrays.copyOf(readStamps, readCount * 2);
+            }
+            readNodes[readCount] = node;
+            readStamps[readCount++] = stamp;
+            return stamp;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package org.kata;
+
+import org.kata.BTreeOfIntegers.BTreeNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+import static java.lang.String.format;
+
+/**
+ * <code>CopyOnWriteBTreeOfIntegers</code> is a B-tree of int keys that
+ * provides consistent read-only snapshots of itself.
+ * <p>Nodes seen by a snapshot are never changed. A writer copies such node
+ * before changing it, the copy gets its own handle in the storage and the
+ * parent is changed to point to the copy, so the path from the root to the
+ * changed node is copied and the tree gets a new root. Nodes created after
+ * the last snapshot are not seen by any snapshot and are changed in place.
+ * Handles are given to nodes in ascending order, so such nodes are told by
+ * a handle greater than handles of all nodes the last snapshot has seen.
+ * </p>
+ * <p>Nodes replaced by their copies are not removed from the storage, as
+ * {@link Storage} has no way to delete an object, even after all snapshots
+ * that have seen them are closed. They keep their place in the data file
+ * and in the handle table, and {@link BTreeNodeStorage#compact} copies them
+ * as well, so a tree that is changed between snapshots keeps growing.</p>
+ * <p>Snapshots could be read by other threads while the tree is changed,
+ * readers of snapshots and writers never wait for each other. Operations
+ * on the tree itself are synchronized.</p>
+ */
+public class CopyOnWriteBTreeOfIntegers implements Closeable {
+    private final BTreeNodeStorage storage;
+    // whether the storage is created by the tree and closed with it
+    private final boolean ownsStorage;
+    private final int minDegree;
+    // nodes with lower handles could be seen by a snapshot
+    private long lowestUnsharedHandle = Long.MIN_VALUE;
+    private long highestHandle = Long.MIN_VALUE;
+    protected BTreeNode root;
+
+    /**
+     * Creates <code>CopyOnWriteBTreeOfIntegers</code> data structure which
+     * nodes are kept in a storage of its own
+     *
+     * @param minDegree a parameter of B-tree that controls number of keys per
+     *                  tree node and child nodes.
+     */
+    public CopyOnWriteBTreeOfIntegers(int minDegree) {
+        this(minDegree, BTreeNodeStorage.temporal(), true);
+    }
+
+    /**
+     * Creates <code>CopyOnWriteBTreeOfIntegers</code> data structure which
+     * nodes are kept in the given storage
+     *
+     * @param minDegree a parameter of B-tree that controls number of keys per
+     *                  tree node and child nodes.
+     * @param storage a storage of nodes, it could be shared with other trees
+     *                and is not closed with the tree
+     */
+    public CopyOnWriteBTreeOfIntegers(
+            int minDegree, BTreeNodeStorage storage)
+    {
+        this(minDegree, storage, false);
+    }
+
+    private CopyOnWriteBTreeOfIntegers(
+            int minDegree, BTreeNodeStorage storage, boolean ownsStorage)
+    {
+        this.storage = storage;
+        this.ownsStorage = ownsStorage;
+        this.minDegree = minDegree;
+        this.root = unshared(new BTreeNode(storage, minDegree));
+        this.root.pin();
+    }
+
+    /**
+     * Captures the current state of the tree
+     *
+     * @return read-only view of the tree that is not affected by further
+     * changes of the tree
+     */
+    public synchronized Snapshot snapshot() {
+        lowestUnsharedHandle = highestHandle + 1;
+        return new Snapshot(root);
+    }
+
+    /**
+     * Inserts key into B-tree
+     *
+     * @param key a key to insert
+     */
+    public synchronized void insert(int key) {
+        BTreeNode node = writableRoot();
+        if (node.isFull()) {
+            BTreeNode newRoot = unshared(new BTreeNode(storage, minDegree));
+            newRoot.addChild(0, node.getHandle());
+            newRoot.splitChild(node);
+            created(newRoot.childHandleAt(1));
+            setRoot(newRoot);
+            node = newRoot;
+        }
+        while (!node.isLeaf()) {
+            int index = node.findPositionForKey(key);
+            BTreeNode child = writableChild(node, index);
+            if (child.isFull()) {
+                node.splitChild(child);
+                created(node.childHandleAt(index + 1));
+                if (key > node.keyAt(index)) {
+                    child = childAt(node, index + 1);
+                }
+            }
+            node = child;
+        }
+        node.insertNonFull(key);
+    }
+
+    /**
+     * Checks if the specified key is in B-tree
+     *
+     * @param key a key to check
+     * @return <code>true</code> if key is in the tree or <code>false</code>
+     * if otherwise
+     */
+    public synchronized boolean contains(int key) {
+        return root.contains(key);
+    }
+
+    /**
+     * Deletes the specified key from the tree
+     *
+     * @param key a key to delete
+     * @throws NoSuchElementException if tree does not contain the key
+     */
+    public synchronized void delete(int key) {
+        BTreeNode node = writableRoot();
+        while (true) {
+            int position = node.searchKey(key);
+            if (node.isLeaf()) {
+                if (position < 0) {
+                    throw new NoSuchElementException(
+                            format("There is no key %d in the tree", key));
+                }
+                node.removeEntryAt(position);
+                return;
+            }
+
+            BTreeNode child;
+            if (position >= 0) {
+                if (childAt(node, position + 1).numberOfKeys() >= minDegree) {
+                    int successor = deleteEdgeKey(
+                            writableChild(node, position + 1), true);
+                    node.replaceEntryAt(position, successor, 0L);
+                    return;
+                }
+                if (childAt(node, position).numberOfKeys() >= minDegree) {
+                    int predecessor = deleteEdgeKey(
+                            writableChild(node, position), false);
+                    node.replaceEntryAt(position, predecessor, 0L);
+                    return;
+                }
+                child = writableChild(node, position);
+                node.mergeChildren(position, child, childAt(node, position + 1));
+            } else {
+                int index = -position - 1;
+                child = writableChild(node, index);
+                if (child.numberOfKeys() < minDegree) {
+                    child = refill(node, index, child);
+                }
+            }
+
+            if (node == root && node.numberOfKeys() == 0) {
+                setRoot(child);
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Releases the root of the tree and closes the storage of nodes if the
+     * tree was created without a storage. Snapshots should be closed before
+     * the tree, neither of them should be used afterwards.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        root.unpin();
+        if (ownsStorage) {
+            storage.close();
+        }
+    }
+
+    /**
+     * Deletes the lowest or the highest key of the subtree with writable
+     * root that has more than minimal number of keys
+     *
+     * @return deleted key
+     */
+    private int deleteEdgeKey(BTreeNode node, boolean lowest) {
+        while (!node.isLeaf()) {
+            int index = lowest ? 0 : node.numberOfChildren() - 1;
+            BTreeNode child = writableChild(node, index);
+            if (child.numberOfKeys() < minDegree) {
+                child = refill(node, index, child);
+            }
+            node = child;
+        }
+        int position = lowest ? 0 : node.numberOfKeys() - 1;
+        int key = node.keyAt(position);
+        node.removeEntryAt(position);
+        return key;
+    }
+
+    /**
+     * Gives the writable child with minimal number of keys one more key
+     * taken from a sibling or merges it with a sibling. Only siblings that
+     * are changed are copied.
+     *
+     * @return writable child that has more than minimal number of keys now,
+     * it is the left sibling if the child was merged into it
+     */
+    private BTreeNode refill(BTreeNode node, int index, BTreeNode child) {
+        boolean hasLeft = index > 0;
+        boolean hasRight = index < node.numberOfChildren() - 1;
+        if (hasLeft && childAt(node, index - 1).numberOfKeys() >= minDegree) {
+            node.rotateFromLeftSibling(
+                    index, child, writableChild(node, index - 1));
+            return child;
+        }
+        if (hasRight &&
+                childAt(node, index + 1).numberOfKeys() >= minDegree) {
+            node.rotateFromRightSibling(
+                    index, child, writableChild(node, index + 1));
+            return child;
+        }
+        if (hasLeft) {
+            BTreeNode left = writableChild(node, index - 1);
+            node.mergeChildren(index - 1, left, child);
+            return left;
+        }
+        node.mergeChildren(index, child, childAt(node, index + 1));
+        return child;
+    }
+
+    private BTreeNode writableRoot() {
+        if (isShared(root.getHandle())) {
+            setRoot(unshared(root.copy()));
+        }
+        return root;
+    }
+
+    /**
+     * Copies child of writable node if the child is seen by a snapshot
+     *
+     * @return child that could be changed in place
+     */
+    private BTreeNode writableChild(BTreeNode node, int index) {
+        BTreeNode child = childAt(node, index);
+        if (!isShared(child.getHandle())) {
+            return child;
+        }
+        BTreeNode copy = unshared(child.copy());
+        node.replaceChildAt(index, copy.getHandle());
+        return copy;
+    }
+
+    private BTreeNode childAt(BTreeNode node, int index) {
+        return node.readFromDisk(node.childHandleAt(index));
+    }
+
+    private BTreeNode unshared(BTreeNode node) {
+        created(node.getHandle());
+        return node;
+    }
+
+    private void created(long handle) {
+        highestHandle = Math.max(highestHandle, handle);
+    }
+
+    private boolean isShared(long handle) {
+        return handle < lowestUnsharedHandle;
+    }
+
+    private void setRoot(BTreeNode newRoot) {
+        newRoot.pin();
+        root.unpin();
+        root = newRoot;
+    }
+
+    /**
+     * <code>Snapshot</code> is a read-only view of the tree at the moment it
+     * was taken. The root of the snapshot is kept pinned in the cache until
+     * the snapshot is closed.
+     */
+    public static class Snapshot implements Closeable {
+        private final BTreeNode root;
+        private boolean closed;
+
+        private Snapshot(BTreeNode root) {
+            this.root = root;
+            this.root.pin();
+        }
+
+        /**
+         * @see CopyOnWriteBTreeOfIntegers#contains(int)
+         */
+        public boolean contains(int key) {
+            return root.contains(key);
+        }
+
+        /**
+         * Returns keys of the snapshot that are within the specified range
+         * in ascending order
+         *
+         * @param from the lowest key to return, inclusive
+         * @param to the highest key to return, inclusive
+         * @return iterator over keys within the range
+         */
+        public PrimitiveIterator.OfInt rangeScan(int from, int to) {
+            return new BTreeRangeCursor(root, from, to);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                root.unpin();
+            }
+        }
+    }
+}
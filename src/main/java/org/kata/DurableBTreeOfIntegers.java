@@ -0,0 +1,151 @@
+package org.kata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static java.lang.Integer.MAX_VALUE;
+import static java.lang.Integer.MIN_VALUE;
+import static java.lang.String.format;
+
+/**
+ * <code>DurableBTreeOfIntegers</code> is a thread-safe B-tree of int keys
+ * that survives crashes. Every change is written to a write-ahead log
+ * before the change is acknowledged, so a durable insert costs one
+ * sequential append to the log shared with concurrent writers. When the
+ * tree is opened again it is restored by replaying the log.
+ * <p>A change is logged and committed before it is applied to the tree,
+ * so readers see only durable changes and a change that could not be
+ * logged is not applied at all. Changes of the same key are logged and
+ * applied in the same order, so the log reproduces the tree.</p>
+ * <p>The log grows with every change, {@link #checkpoint()} shrinks it to
+ * the keys the tree contains.</p>
+ */
+public class DurableBTreeOfIntegers implements Closeable {
+    private static final int KEY_LOCKS = 64;
+
+    private final ConcurrentBTreeOfIntegers tree;
+    private final WriteAheadLog log;
+    // changes are applied under the read lock, checkpoint takes write lock
+    private final ReentrantReadWriteLock checkpointLatch =
+            new ReentrantReadWriteLock();
+    private final Object[] keyLocks = new Object[KEY_LOCKS];
+
+    /**
+     * Opens <code>DurableBTreeOfIntegers</code> kept in the given log file,
+     * the file is created if it does not exist
+     *
+     * @param minDegree a parameter of B-tree that controls number of keys per
+     *                  tree node and child nodes.
+     * @param logFile a file of write-ahead log of the tree
+     */
+    public DurableBTreeOfIntegers(int minDegree, Path logFile)
+            throws IOException
+    {
+        this(minDegree, new WriteAheadLog(logFile));
+    }
+
+    DurableBTreeOfIntegers(int minDegree, WriteAheadLog log)
+            throws IOException
+    {
+        for (int i = 0; i < KEY_LOCKS; i++) {
+            keyLocks[i] = new Object();
+        }
+        this.tree = new ConcurrentBTreeOfIntegers(minDegree);
+        this.log = log;
+        this.log.recover((type, key) -> {
+            if (type == WriteAheadLog.INSERT) {
+                tree.insert(key);
+            } else {
+                tree.delete(key);
+            }
+        });
+    }
+
+    /**
+     * Inserts key into B-tree, the key is durable when the method returns
+     *
+     * @param key a key to insert
+     * @throws IOException if the change could not be written to the log
+     */
+    public void insert(int key) throws IOException {
+        checkpointLatch.readLock().lock();
+        try {
+            synchronized (keyLockOf(key)) {
+                log.commit(log.append(WriteAheadLog.INSERT, key));
+                tree.insert(key);
+            }
+        } finally {
+            checkpointLatch.readLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes the specified key from the tree, the deletion is durable when
+     * the method returns
+     *
+     * @param key a key to delete
+     * @throws NoSuchElementException if tree does not contain the key
+     * @throws IOException if the change could not be written to the log
+     */
+    public void delete(int key) throws IOException {
+        checkpointLatch.readLock().lock();
+        try {
+            synchronized (keyLockOf(key)) {
+                // the key could be changed only under the same key lock
+                if (!tree.contains(key)) {
+                    throw new NoSuchElementException(
+                            format("There is no key %d in the tree", key));
+                }
+                log.commit(log.append(WriteAheadLog.DELETE, key));
+                tree.delete(key);
+            }
+        } finally {
+            checkpointLatch.readLock().unlock();
+        }
+    }
+
+    /**
+     * @see ConcurrentBTreeOfIntegers#contains(int)
+     */
+    public boolean contains(int key) {
+        return tree.contains(key);
+    }
+
+    /**
+     * @see ConcurrentBTreeOfIntegers#rangeScan(int, int)
+     */
+    public PrimitiveIterator.OfInt rangeScan(int from, int to) {
+        return tree.rangeScan(from, to);
+    }
+
+    /**
+     * Replaces the log by the list of keys the tree contains, so the log
+     * does not keep changes that are overridden by later ones. Changes wait
+     * until the checkpoint is done.
+     */
+    public void checkpoint() throws IOException {
+        checkpointLatch.writeLock().lock();
+        try {
+            log.rewrite(tree.rangeScan(MIN_VALUE, MAX_VALUE));
+        } finally {
+            checkpointLatch.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            log.close();
+        } finally {
+            tree.close();
+        }
+    }
+
+    private Object keyLockOf(int key) {
+        return keyLocks[(key & 0x7fffffff) % KEY_LOCKS];
+    }
+}
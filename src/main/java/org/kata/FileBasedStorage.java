@@ -1,94 +1,754 @@
 package org.kata;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Logger;
+import java.util.stream.LongStream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
  * <code>FileBasedStorage</code> is simple implementation of storage backed with
- * temporal file. Stored data is guaranteed to be available while JVM run.
- * Once JVM is stopped the temporal file might be removed (depending on OS
- * type and settings) and all data lost.
+ * a data file. By default the data file is temporal, so stored data is
+ * guaranteed to be available while JVM run. The temporal file is deleted
+ * when the storage is closed, or when JVM is stopped if the storage was
+ * never closed, and all data lost.
+ * Storage created for a named data file keeps the data and can be reopened
+ * after it is closed.
+ * <p>Each object is written as its length followed by bytes produced by
+ * {@link Codec} the storage is created with. Offsets of objects in the data
+ * file are kept in {@link HandleTable} stored next to the data file.</p>
+ * <p>An updated object is written to a new place and the space of its
+ * previous version is given to {@link FreeSpaceMap}, new records are put
+ * into free space before the file is extended. Space of a named data file
+ * is given away only once the handle table is flushed, until then the
+ * table on disk may still point to the previous version, so it survives a
+ * crash. Sizes of records are kept in memory, so the space is freed without
+ * reading the record. Free space is known only while the storage is open,
+ * {@link #compact} reclaims all of it.</p>
+ * <p>Objects could also be read and written asynchronously through
+ * {@link AsyncStorage} methods, they are backed by
+ * {@link AsynchronousFileChannel}. Space that might be touched by
+ * asynchronous I/O in flight is not reused until the I/O is done.</p>
+ * <p>Bytes of records read and written are counted in {@link Metrics} the
+ * storage is created with.</p>
+ * <p>All operations are synchronized on the storage, asynchronous ones hold
+ * the lock only to issue I/O and to publish its result.</p>
  *
  * @param <T> a type of objects stored in this storage
  */
-public class FileBasedStorage<T> implements Storage<T> {
+public class FileBasedStorage<T>
+        implements Storage<T>, AsyncStorage<T>, Closeable
+{
     private Logger LOG = Logger.getLogger(FileBasedStorage.class.getName());
 
-    // @to-do: this maps needs to be stored in file, non in mem too
-    private Map<Long, Long> offsetInFileByHandle = new HashMap<>();
+    static final String HANDLE_TABLE_SUFFIX = ".idx";
+    static final String COMPACTED_FILE_SUFFIX = ".compacted";
+    // bytes read by the first read of an asynchronous load, most records
+    // fit into them, larger ones take another read
+    private static final int ASYNC_READ_SIZE = 4096;
+    private static final int MAX_RECORD_SIZES = Integer.MAX_VALUE - 8;
+
+    private HandleTable offsetInFileByHandle;
+    private final FreeSpaceMap freeSpace = new FreeSpaceMap();
+    private final Path dataFile;
 
-    private FileInputStream fis;
-    private FileOutputStream fos;
+    private FileChannel channel;
+    private AsynchronousFileChannel asyncChannel;
+    private long dataFileSize;
+    // asynchronous reads and writes that are not done yet, regions freed
+    // meanwhile are deferred as the reads might still read them
+    private int asyncOperations;
+    private final List<long[]> deferredFreeRegions = new ArrayList<>();
+    // regions of replaced records of a named data file, the handle table on
+    // disk may point to them until it is flushed
+    private final List<long[]> unflushedFreeRegions = new ArrayList<>();
+    // whether the data file is temporal, so it is not read after a crash
+    private final boolean temporal;
+    // sizes of records by handle, zero if the record was written before the
+    // storage was opened
+    private int[] recordSizes = new int[16];
+    // free space is not reused while compaction is in progress, so an offset
+    // of a handle changes whenever the handle is updated
+    private boolean compacting;
+    private final Codec<T> codec;
+    private final Metrics.Counter bytesRead;
+    private final Metrics.Counter bytesWritten;
 
-    private long currentHandle = 0L;
+    private long currentHandle;
+    private boolean closed;
+    // closes and deletes a temporal storage that was never closed, it is
+    // removed once the storage is closed
+    private final Thread deleteOnExitHook;
 
+    /**
+     * Creates storage that encodes objects with standard Java serialization
+     */
     public FileBasedStorage() throws IOException {
-        Path dataFile = Files.createTempFile(null, null);
-        this.fis = new FileInputStream(dataFile.toFile());
-        this.fos = new FileOutputStream(dataFile.toFile(), true);
-        deleteDataFileOnExit(dataFile);
+        this(new SerializationCodec<>());
+    }
+
+    /**
+     * Creates storage that encodes objects with the specified codec
+     *
+     * @param codec a codec used to encode/decode stored objects
+     */
+    public FileBasedStorage(Codec<T> codec) throws IOException {
+        this(codec, Metrics.NONE);
+    }
+
+    /**
+     * Creates storage that encodes objects with the specified codec and
+     * reports to the given metrics
+     *
+     * @param codec a codec used to encode/decode stored objects
+     * @param metrics a registry of <code>bytesRead</code> and
+     *                <code>bytesWritten</code> counters of the storage
+     */
+    public FileBasedStorage(Codec<T> codec, Metrics metrics)
+            throws IOException
+    {
+        this(Files.createTempFile(null, null), codec, metrics, true);
+    }
+
+    /**
+     * Creates or reopens storage kept in the specified data file
+     *
+     * @param dataFile a data file of the storage, offsets of stored objects
+     *                 are kept in the same path with ".idx" suffix
+     * @param codec a codec used to encode/decode stored objects
+     */
+    public FileBasedStorage(Path dataFile, Codec<T> codec) throws IOException {
+        this(dataFile, codec, Metrics.NONE, false);
+    }
+
+    private FileBasedStorage(Path dataFile, Codec<T> codec, Metrics metrics,
+                             boolean temporal) throws IOException
+    {
+        this.codec = codec;
+        this.bytesRead = metrics.counter("bytesRead");
+        this.bytesWritten = metrics.counter("bytesWritten");
+        this.dataFile = dataFile;
+        this.temporal = temporal;
+        recoverCompaction(dataFile);
+        Path handleTableFile = handleTableFileOf(dataFile);
+        this.offsetInFileByHandle = new HandleTable(handleTableFile);
+        this.currentHandle = offsetInFileByHandle.size();
+        this.channel = FileChannel.open(dataFile, CREATE, READ, WRITE);
+        this.asyncChannel = AsynchronousFileChannel.open(dataFile, READ, WRITE);
+        this.dataFileSize = channel.size();
+        if (temporal) {
+            this.deleteOnExitHook = new Thread(() -> closeQueitely(this));
+            Runtime.getRuntime().addShutdownHook(deleteOnExitHook);
+        } else {
+            this.deleteOnExitHook = null;
+        }
     }
 
     /**
      * Stores object in the storage
-     * <p>Note: This implementation adds all stored data to the end of file.
-     * It never deletes anything from the file. If you need to save new version
-     * of object you will need to save it in the storage and get new handle</p>
+     * <p>Note: This implementation never overwrites stored objects. Space of
+     * a replaced version of object is reused for other objects.</p>
      */
     @Override
-    public long create(T object) throws IOException {
+    public synchronized long create(T object) throws IOException {
         long handle = nextHandle();
-        offsetInFileByHandle.put(handle, appendObjectToDataFile(object));
+        offsetInFileByHandle.put(handle, writeRecord(handle, object));
         return handle;
     }
 
     @Override
-    @SuppressWarnings(value = "unchecked")
-    public T load(long handle) throws IOException, ClassNotFoundException {
+    public synchronized T load(long handle)
+            throws IOException, ClassNotFoundException
+    {
         long offset = offsetInFileByHandle.get(handle);
-        fis.getChannel().position(offset);
-        ObjectInputStream ois = new ObjectInputStream(
-                new BufferedInputStream(fis));
-        return (T) ois.readObject();
+        if (offset < 0) {
+            throw new IllegalArgumentException("Unknown handle " + handle);
+        }
+        ByteBuffer data = readRecord(channel, offset);
+        bytesRead.add(Integer.BYTES + data.remaining());
+        return codec.decode(data, handle);
+    }
+
+    @Override
+    public synchronized void update(T object, long handle)
+            throws IOException
+    {
+        long previousOffset = offsetInFileByHandle.get(handle);
+        int previousSize = recordSize(handle, previousOffset);
+        offsetInFileByHandle.put(handle, writeRecord(handle, object));
+        release(previousOffset, previousSize);
     }
 
     @Override
-    public void update(T object, long handle) throws IOException {
-        offsetInFileByHandle.put(handle, appendObjectToDataFile(object));
+    public CompletableFuture<Long> createAsync(T object) {
+        ByteBuffer record;
+        try {
+            record = encodeRecord(object);
+        } catch (IOException e) {
+            return failed(e);
+        }
+        long handle;
+        long position;
+        AsynchronousFileChannel channel;
+        synchronized (this) {
+            handle = nextHandle();
+            position = allocate(record.limit());
+            channel = startAsyncOperation();
+        }
+        return writeAsync(channel, record, position)
+                .handle((written, error) -> {
+                    synchronized (this) {
+                        finishAsyncOperation();
+                        if (error != null) {
+                            throw new CompletionException(error);
+                        }
+                        try {
+                            offsetInFileByHandle.put(handle, position);
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                        rememberRecordSize(handle, record.limit());
+                        return handle;
+                    }
+                });
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Note: updates of the same object should not overlap, otherwise the
+     * object gets the state of the update that is written last.</p>
+     */
+    @Override
+    public CompletableFuture<Void> updateAsync(T object, long handle) {
+        ByteBuffer record;
+        try {
+            record = encodeRecord(object);
+        } catch (IOException e) {
+            return failed(e);
+        }
+        long position;
+        AsynchronousFileChannel channel;
+        synchronized (this) {
+            position = allocate(record.limit());
+            channel = startAsyncOperation();
+        }
+        return writeAsync(channel, record, position)
+                .handle((written, error) -> {
+                    synchronized (this) {
+                        finishAsyncOperation();
+                        if (error != null) {
+                            throw new CompletionException(error);
+                        }
+                        try {
+                            long previousOffset =
+                                    offsetInFileByHandle.get(handle);
+                            int previousSize =
+                                    recordSize(handle, previousOffset);
+                            offsetInFileByHandle.put(handle, position);
+                            rememberRecordSize(handle, record.limit());
+                            release(previousOffset, previousSize);
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    @Override
+    public CompletableFuture<T> loadAsync(long handle) {
+        long offset;
+        AsynchronousFileChannel channel;
+        synchronized (this) {
+            try {
+                offset = offsetInFileByHandle.get(handle);
+            } catch (IOException e) {
+                return failed(e);
+            }
+            if (offset < 0) {
+                return failed(new IllegalArgumentException(
+                        "Unknown handle " + handle));
+            }
+            channel = startAsyncOperation();
+        }
+        return readRecordAsync(channel, offset).handle((data, error) -> {
+            synchronized (this) {
+                finishAsyncOperation();
+            }
+            if (error != null) {
+                throw new CompletionException(error);
+            }
+            bytesRead.add(Integer.BYTES + data.remaining());
+            try {
+                return codec.decode(data, handle);
+            } catch (IOException | ClassNotFoundException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Moves current versions of all objects to a new data file, so the file
+     * keeps no dead space. Objects of the given handles are written first in
+     * the given order, so objects that are read together could be placed
+     * together, other objects follow in order of their handles.
+     * <p>Objects are copied in small batches, the storage is available for
+     * other operations between them. Objects changed meanwhile are copied
+     * once again before the storage is switched to the new file.</p>
+     * <p>The handle table of the new file is written next to it. The new
+     * data file replaces the old one first, then the new handle table
+     * replaces the old one, so a crash in between is completed once the
+     * storage is reopened, see {@link #recoverCompaction(Path)}.</p>
+     *
+     * @param firstHandles handles of objects to place first, unknown
+     *                     handles are skipped. The iterator is consumed
+     *                     while the storage is locked, so it should not use
+     *                     the storage.
+     */
+    public void compact(PrimitiveIterator.OfLong firstHandles)
+            throws IOException
+    {
+        long handleCount;
+        synchronized (this) {
+            if (compacting) {
+                throw new IllegalStateException(
+                        "Storage is already being compacted");
+            }
+            compacting = true;
+            handleCount = currentHandle;
+        }
+        Path compactedFile = compactedFileOf(dataFile);
+        Path compactedTableFile = handleTableFileOf(compactedFile);
+        FileChannel compacted = FileChannel.open(
+                compactedFile, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+        boolean switched = false;
+        try {
+            Compaction compaction = new Compaction(compacted, handleCount);
+            while (firstHandles.hasNext()) {
+                compaction.copyBatch(firstHandles);
+            }
+            PrimitiveIterator.OfLong allHandles =
+                    LongStream.range(0, handleCount).iterator();
+            while (allHandles.hasNext()) {
+                compaction.copyBatch(allHandles);
+            }
+            synchronized (this) {
+                awaitAsyncOperations();
+                compaction.finish();
+                compacted.force(false);
+                HandleTable compactedTable =
+                        compaction.writeTable(compactedTableFile);
+                try {
+                    Files.move(compactedFile, dataFile,
+                            ATOMIC_MOVE, REPLACE_EXISTING);
+                } catch (IOException | RuntimeException e) {
+                    closeQueitely(compactedTable);
+                    throw e;
+                }
+                switched = true;
+                closeQueitely(channel);
+                channel = compacted;
+                closeQueitely(asyncChannel);
+                asyncChannel = AsynchronousFileChannel.open(
+                        dataFile, READ, WRITE);
+                dataFileSize = compacted.size();
+                freeSpace.clear();
+                unflushedFreeRegions.clear();
+                // the open table follows its file when it is moved, until
+                // then it is kept next to the compacted file
+                closeQueitely(offsetInFileByHandle);
+                offsetInFileByHandle = compactedTable;
+                Files.move(compactedTableFile, handleTableFileOf(dataFile),
+                        ATOMIC_MOVE, REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!switched) {
+                compacted.close();
+                Files.deleteIfExists(compactedTableFile);
+                Files.deleteIfExists(compactedFile);
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * @return path of the data file
+     */
+    Path dataFile() {
+        return dataFile;
+    }
+
+    /**
+     * @return size of the data file in bytes
+     */
+    synchronized long dataFileSize() {
+        return dataFileSize;
+    }
+
+    /**
+     * @return number of bytes of the data file that are known to be free
+     */
+    synchronized long freeBytes() {
+        return freeSpace.freeBytes();
+    }
+
+    /**
+     * Writes cached part of the handle table to disk, so the storage could be
+     * reopened with all objects stored so far. Space of records replaced
+     * before the flush could be reused afterwards.
+     */
+    public synchronized void flush() throws IOException {
+        channel.force(false);
+        offsetInFileByHandle.flush();
+        try {
+            for (long[] region : unflushedFreeRegions) {
+                releaseFlushed(region);
+            }
+        } finally {
+            unflushedFreeRegions.clear();
+        }
+    }
+
+    /**
+     * Closes the storage once asynchronous operations in flight are done,
+     * files of a temporal storage are deleted
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        awaitAsyncOperations();
+        try {
+            offsetInFileByHandle.close();
+        } finally {
+            closeQueitely(channel);
+            closeQueitely(asyncChannel);
+            if (temporal) {
+                deleteFiles();
+            }
+        }
     }
 
     protected long nextHandle() {
         return currentHandle++;
     }
 
-    private long appendObjectToDataFile(T object) throws IOException {
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
-             ObjectOutputStream oos = new ObjectOutputStream(bos)) {
-            oos.writeObject(object);
-            long position = fos.getChannel().position();
-            bos.writeTo(fos);
-            return position;
+    static Path handleTableFileOf(Path dataFile) {
+        return Paths.get(dataFile.toString() + HANDLE_TABLE_SUFFIX);
+    }
+
+    static Path compactedFileOf(Path dataFile) {
+        return Paths.get(dataFile.toString() + COMPACTED_FILE_SUFFIX);
+    }
+
+    /**
+     * Completes or rolls back compaction that was interrupted by a crash.
+     * The compacted data file replaces the data file before its handle
+     * table is moved, so the compacted table is complete once the compacted
+     * data file is gone. Otherwise both are dropped, the table first.
+     */
+    private static void recoverCompaction(Path dataFile) throws IOException {
+        Path compactedFile = compactedFileOf(dataFile);
+        Path compactedTableFile = handleTableFileOf(compactedFile);
+        if (Files.exists(compactedFile)) {
+            Files.deleteIfExists(compactedTableFile);
+            Files.delete(compactedFile);
+        } else if (Files.exists(compactedTableFile)) {
+            Files.move(compactedTableFile, handleTableFileOf(dataFile),
+                    ATOMIC_MOVE, REPLACE_EXISTING);
         }
     }
 
-    private void deleteDataFileOnExit(Path dataFile) {
-        dataFile.toFile().deleteOnExit();
+    /**
+     * Writes object into free space that fits it or to the end of file
+     *
+     * @return offset of the record
+     */
+    private long writeRecord(long handle, T object) throws IOException {
+        ByteBuffer record = encodeRecord(object);
+        long position = allocate(record.limit());
+        writeFully(channel, record, position);
+        bytesWritten.add(record.limit());
+        rememberRecordSize(handle, record.limit());
+        return position;
+    }
+
+    private ByteBuffer encodeRecord(T object) throws IOException {
+        byte[] data = codec.encode(object);
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + data.length);
+        record.putInt(data.length).put(data).flip();
+        return record;
+    }
+
+    /**
+     * Takes free space that fits the record or the space at the end of file
+     *
+     * @return offset of the record
+     */
+    private long allocate(int recordSize) {
+        long position = compacting ? -1L : freeSpace.allocate(recordSize);
+        if (position < 0) {
+            position = dataFileSize;
+            dataFileSize += recordSize;
+        }
+        return position;
+    }
+
+    /**
+     * Gives space of a replaced record to free space, unless the handle
+     * table on disk or asynchronous reads might still use it
+     *
+     * @param offset offset of the record or negative value if there is none
+     * @param size size of the record
+     */
+    private void release(long offset, int size) throws IOException {
+        if (offset < 0 || compacting) {
+            return;
+        }
+        long[] region = {offset, size};
+        if (temporal) {
+            releaseFlushed(region);
+        } else {
+            unflushedFreeRegions.add(region);
+        }
+    }
+
+    private void releaseFlushed(long[] region) throws IOException {
+        if (asyncOperations > 0) {
+            deferredFreeRegions.add(region);
+        } else {
+            free(region[0], (int) region[1]);
+        }
+    }
+
+    private void free(long offset, int size) throws IOException {
+        freeSpace.free(offset, size);
+        long end = freeSpace.trimTail(dataFileSize);
+        if (end < dataFileSize) {
+            channel.truncate(end);
+            dataFileSize = end;
+        }
+    }
+
+    /**
+     * @return channel the asynchronous operation should use
+     */
+    private AsynchronousFileChannel startAsyncOperation() {
+        asyncOperations++;
+        return asyncChannel;
+    }
+
+    private void finishAsyncOperation() {
+        asyncOperations--;
+        if (asyncOperations > 0) {
+            return;
+        }
+        try {
+            for (long[] region : deferredFreeRegions) {
+                if (!compacting) {
+                    free(region[0], (int) region[1]);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warning("Unable to truncate data file");
+        } finally {
+            deferredFreeRegions.clear();
+            notifyAll();
+        }
+    }
+
+    private void awaitAsyncOperations() throws IOException {
+        while (asyncOperations > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "Interrupted while waiting for asynchronous I/O");
+            }
+        }
+    }
+
+    /**
+     * @return size of the record of the handle, it is read from the data
+     * file only if the record was written before the storage was opened
+     */
+    private int recordSize(long handle, long offset) throws IOException {
+        if (offset < 0) {
+            return 0;
+        }
+        if (handle < recordSizes.length && recordSizes[(int) handle] > 0) {
+            return recordSizes[(int) handle];
+        }
+        return Integer.BYTES +
+                readFromDataFile(channel, offset, Integer.BYTES).getInt();
+    }
+
+    private void rememberRecordSize(long handle, int size) {
+        if (handle >= MAX_RECORD_SIZES) {
+            return;
+        }
+        if (handle >= recordSizes.length) {
+            recordSizes = Arrays.copyOf(recordSizes, (int) Math.min(
+                    MAX_RECORD_SIZES,
+                    Math.max(handle + 1, 2L * recordSizes.length)));
+        }
+        recordSizes[(int) handle] = size;
+    }
+
+    private static ByteBuffer readRecord(FileChannel channel, long offset)
+            throws IOException
+    {
+        ByteBuffer length = readFromDataFile(channel, offset, Integer.BYTES);
+        return readFromDataFile(
+                channel, offset + Integer.BYTES, length.getInt());
+    }
 
-        // The shutdown hook is required to close  I/O streams worked with
-        // data file otherwise deleteOnExit would not remove temp data file
-        Runtime.getRuntime().addShutdownHook(new Thread() {
-            @Override
-            public void run() {
-                closeQueitely(fis);
-                closeQueitely(fos);
+    /**
+     * Reads record with a single read if it fits {@link #ASYNC_READ_SIZE}
+     * bytes
+     */
+    private static CompletableFuture<ByteBuffer> readRecordAsync(
+            AsynchronousFileChannel channel, long offset)
+    {
+        return readAsync(channel, offset, ByteBuffer.allocate(ASYNC_READ_SIZE),
+                Integer.BYTES).thenCompose(head -> {
+            head.flip();
+            int length = head.getInt();
+            if (head.remaining() >= length) {
+                head.limit(head.position() + length);
+                return CompletableFuture.completedFuture(head.slice());
             }
+            ByteBuffer record = ByteBuffer.allocate(length);
+            record.put(head);
+            return readAsync(channel, offset + Integer.BYTES, record, length)
+                    .thenApply(data -> (ByteBuffer) data.flip());
         });
     }
 
+    /**
+     * Reads into the buffer from the offset of its current position until
+     * at least the given number of bytes is in the buffer
+     */
+    private static CompletableFuture<ByteBuffer> readAsync(
+            AsynchronousFileChannel channel, long offset, ByteBuffer buffer,
+            int minimum)
+    {
+        CompletableFuture<ByteBuffer> result = new CompletableFuture<>();
+        channel.read(buffer, offset + buffer.position(), null,
+                new CompletionHandler<Integer, Void>() {
+                    @Override
+                    public void completed(Integer read, Void attachment) {
+                        if (buffer.position() >= minimum) {
+                            result.complete(buffer);
+                        } else if (read < 0) {
+                            result.completeExceptionally(new EOFException(
+                                    "Unexpected end of data file at " +
+                                            "offset " + offset));
+                        } else {
+                            channel.read(buffer, offset + buffer.position(),
+                                    null, this);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Throwable error, Void attachment) {
+                        result.completeExceptionally(error);
+                    }
+                });
+        return result;
+    }
+
+    private CompletableFuture<Void> writeAsync(
+            AsynchronousFileChannel channel, ByteBuffer buffer, long position)
+    {
+        bytesWritten.add(buffer.remaining());
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        channel.write(buffer, position, null,
+                new CompletionHandler<Integer, Void>() {
+                    @Override
+                    public void completed(Integer written, Void attachment) {
+                        if (buffer.hasRemaining()) {
+                            channel.write(buffer,
+                                    position + buffer.position(), null, this);
+                        } else {
+                            result.complete(null);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Throwable error, Void attachment) {
+                        result.completeExceptionally(error);
+                    }
+                });
+        return result;
+    }
+
+    private static <R> CompletableFuture<R> failed(Throwable error) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        result.completeExceptionally(error);
+        return result;
+    }
+
+    private static ByteBuffer readFromDataFile(
+            FileChannel channel, long offset, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset + buffer.position());
+            if (read < 0) {
+                throw new EOFException(
+                        "Unexpected end of data file at offset " + offset);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeFully(
+            FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private void deleteFiles() throws IOException {
+        try {
+            Runtime.getRuntime().removeShutdownHook(deleteOnExitHook);
+        } catch (IllegalStateException e) {
+            // JVM is stopping, the storage is closed by the hook itself
+        }
+        Files.deleteIfExists(dataFile);
+        Files.deleteIfExists(handleTableFileOf(dataFile));
+    }
+
     private void closeQueitely(Closeable closeable) {
         if (closeable != null) {
             try {
@@ -98,4 +758,105 @@ public class FileBasedStorage<T> implements Storage<T> {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Copies records to the compacted file and remembers where they were
+     * copied from, so records updated during compaction are copied again
+     */
+    private class Compaction {
+        private static final int BATCH_SIZE = 64;
+
+        private final FileChannel compacted;
+        private final long handleCount;
+        private final BitSet copied = new BitSet();
+        private final long[] sourceOffsets;
+        private long[] targetOffsets;
+        private long size;
+
+        private Compaction(FileChannel compacted, long handleCount) {
+            if (handleCount > Integer.MAX_VALUE) {
+                throw new IllegalStateException(
+                        "Too many handles to compact: " + handleCount);
+            }
+            this.compacted = compacted;
+            this.handleCount = handleCount;
+            this.sourceOffsets = new long[(int) handleCount];
+            this.targetOffsets = new long[(int) handleCount];
+        }
+
+        private void copyBatch(PrimitiveIterator.OfLong handles)
+                throws IOException
+        {
+            synchronized (FileBasedStorage.this) {
+                for (int i = 0; i < BATCH_SIZE && handles.hasNext(); i++) {
+                    long handle = handles.nextLong();
+                    if (handle >= 0 && handle < handleCount &&
+                            !copied.get((int) handle)) {
+                        copy(handle);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Copies records that are created or updated since they were
+         * copied, should be called under the lock of the storage
+         */
+        private void finish() throws IOException {
+            targetOffsets = Arrays.copyOf(
+                    targetOffsets, (int) currentHandle);
+            for (long handle = 0; handle < currentHandle; handle++) {
+                if (handle >= handleCount ||
+                        offsetInFileByHandle.get(handle) !=
+                                sourceOffsets[(int) handle]) {
+                    copy(handle);
+                }
+            }
+        }
+
+        /**
+         * Writes offsets of the copied records to a new handle table and
+         * flushes it
+         *
+         * @return the open table
+         */
+        private HandleTable writeTable(Path file) throws IOException {
+            Files.deleteIfExists(file);
+            HandleTable table = new HandleTable(file);
+            try {
+                for (long handle = 0; handle < targetOffsets.length;
+                     handle++) {
+                    if (copied.get((int) handle)) {
+                        table.put(handle, targetOffsets[(int) handle]);
+                    }
+                }
+                table.flush();
+                return table;
+            } catch (IOException | RuntimeException e) {
+                closeQueitely(table);
+                Files.deleteIfExists(file);
+                throw e;
+            }
+        }
+
+        private void copy(long handle) throws IOException {
+            long offset = offsetInFileByHandle.get(handle);
+            if (offset < 0) {
+                return;
+            }
+            ByteBuffer data = readRecord(channel, offset);
+            ByteBuffer record = ByteBuffer.allocate(
+                    Integer.BYTES + data.remaining());
+            record.putInt(data.remaining()).put(data).flip();
+            writeFully(compacted, record, size);
+            bytesRead.add(record.limit());
+            bytesWritten.add(record.limit());
+            if (handle < handleCount) {
+                sourceOffsets[(int) handle] = offset;
+            }
+            targetOffsets[(int) handle] = size;
+            copied.set((int) handle);
+            size += record.limit();
+        }
+    }
+}
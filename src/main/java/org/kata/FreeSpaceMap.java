@@ -0,0 +1,114 @@
+package org.kata;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static java.lang.String.format;
+
+/**
+ * <code>FreeSpaceMap</code> keeps track of dead regions of a data file, so
+ * they could be reused for new records. Adjacent regions are coalesced when
+ * they are freed, a region is allocated by best fit and the rest of it
+ * remains free.
+ */
+class FreeSpaceMap {
+    // length of free region by its offset
+    private final TreeMap<Long, Long> regionsByOffset = new TreeMap<>();
+    // offsets of free regions ordered by length and then by offset
+    private final NavigableSet<long[]> regionsByLength = new TreeSet<>(
+            Comparator.<long[]>comparingLong(region -> region[1])
+                    .thenComparingLong(region -> region[0]));
+    private long freeBytes;
+
+    /**
+     * Marks the region as free, the region should not overlap other free
+     * regions. Lengths are kept as long, as coalesced regions may outgrow
+     * records.
+     */
+    void free(long offset, long length) {
+        if (offset < 0 || length <= 0) {
+            throw new IllegalArgumentException(format(
+                    "Invalid region of %d bytes at offset %d", length, offset));
+        }
+        freeBytes += length;
+        Map.Entry<Long, Long> previous = regionsByOffset.floorEntry(offset);
+        if (previous != null &&
+                previous.getKey() + previous.getValue() == offset) {
+            remove(previous.getKey(), previous.getValue());
+            offset = previous.getKey();
+            length += previous.getValue();
+        }
+        Long nextLength = regionsByOffset.get(offset + length);
+        if (nextLength != null) {
+            remove(offset + length, nextLength);
+            length += nextLength;
+        }
+        add(offset, length);
+    }
+
+    /**
+     * Takes the smallest free region that fits the given length
+     *
+     * @return offset of allocated space or -1 if no free region is large
+     * enough
+     */
+    long allocate(int length) {
+        long[] region = regionsByLength.ceiling(
+                new long[]{Long.MIN_VALUE, length});
+        if (region == null) {
+            return -1L;
+        }
+        long offset = region[0];
+        long regionLength = region[1];
+        remove(offset, regionLength);
+        if (regionLength > length) {
+            add(offset + length, regionLength - length);
+        }
+        freeBytes -= length;
+        return offset;
+    }
+
+    /**
+     * Forgets free region at the end of the data file, so the file could be
+     * truncated
+     *
+     * @param end the end of the data file
+     * @return the end of the file without trailing free region
+     */
+    long trimTail(long end) {
+        Map.Entry<Long, Long> last = regionsByOffset.lowerEntry(end);
+        if (last == null || last.getKey() + last.getValue() != end) {
+            return end;
+        }
+        remove(last.getKey(), last.getValue());
+        freeBytes -= last.getValue();
+        return last.getKey();
+    }
+
+    long freeBytes() {
+        return freeBytes;
+    }
+
+    int regionCount() {
+        return regionsByOffset.size();
+    }
+
+    void clear() {
+        regionsByOffset.clear();
+        regionsByLength.clear();
+        freeBytes = 0;
+    }
+
+    private void add(long offset, long length) {
+        regionsByOffset.put(offset, length);
+        regionsByLength.add(new long[]{offset, length});
+    }
+
+    private void remove(long offset, long length) {
+        regionsByOffset.remove(offset);
+        regionsByLength.remove(new long[]{offset, length});
+    }
+}
@@ -0,0 +1,181 @@
+package org.kata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * <code>HandleTable</code> is a file based array of offsets indexed by
+ * handles. Since handles are allocated sequentially the table is a plain
+ * sequence of fixed-size pages following a small header with the number of
+ * allocated handles. Only a bounded number of recently used pages are kept
+ * in memory, modified pages are written back when they are evicted or the
+ * table is flushed.
+ * <pre>
+ * | size: long | page 0: long * entries per page | page 1 ... |
+ * </pre>
+ */
+class HandleTable implements Closeable {
+    static final int DEFAULT_ENTRIES_PER_PAGE = 512;
+    static final int DEFAULT_CACHED_PAGES = 64;
+
+    // an offset is stored incremented by one, so zeroes of not yet written
+    // parts of the file mean "no offset"
+    private static final long NO_OFFSET = -1L;
+    private static final int HEADER_SIZE = Long.BYTES;
+
+    private final FileChannel channel;
+    private final int entriesPerPage;
+    private final Map<Long, Page> cachedPages;
+    private long size;
+
+    HandleTable(Path file) throws IOException {
+        this(file, DEFAULT_ENTRIES_PER_PAGE, DEFAULT_CACHED_PAGES);
+    }
+
+    HandleTable(Path file, int entriesPerPage, int cachedPages)
+            throws IOException
+    {
+        this.channel = new RandomAccessFile(file.toFile(), "rw").getChannel();
+        this.entriesPerPage = entriesPerPage;
+        this.cachedPages = new LinkedHashMap<Long, Page>(
+                cachedPages, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Page> eldest) {
+                if (size() > cachedPages) {
+                    writeBack(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.size = readSize();
+    }
+
+    /**
+     * @return offset stored for the handle or -1 if there is no such handle
+     */
+    long get(long handle) throws IOException {
+        if (handle < 0 || handle >= size) {
+            return NO_OFFSET;
+        }
+        return page(handle / entriesPerPage)
+                .entries[(int) (handle % entriesPerPage)] - 1;
+    }
+
+    void put(long handle, long offset) throws IOException {
+        if (handle < 0 || offset < 0) {
+            throw new IllegalArgumentException(format(
+                    "Invalid handle %d or offset %d", handle, offset));
+        }
+        Page page = page(handle / entriesPerPage);
+        page.entries[(int) (handle % entriesPerPage)] = offset + 1;
+        page.dirty = true;
+        size = Math.max(size, handle + 1);
+    }
+
+    /**
+     * @return number of handles allocated so far
+     */
+    long size() {
+        return size;
+    }
+
+    void flush() throws IOException {
+        for (Map.Entry<Long, Page> entry : cachedPages.entrySet()) {
+            writeBack(entry.getKey(), entry.getValue());
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(size).flip();
+        writeFully(header, 0);
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            flush();
+            channel.close();
+        }
+    }
+
+    private Page page(long pageIndex) throws IOException {
+        Page page = cachedPages.get(pageIndex);
+        if (page == null) {
+            page = readPage(pageIndex);
+            cachedPages.put(pageIndex, page);
+        }
+        return page;
+    }
+
+    private Page readPage(long pageIndex) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(entriesPerPage * Long.BYTES);
+        long position = pagePosition(pageIndex);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        buffer.rewind();
+        Page page = new Page(entriesPerPage);
+        buffer.asLongBuffer().get(page.entries);
+        return page;
+    }
+
+    private void writeBack(long pageIndex, Page page) {
+        if (!page.dirty) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(entriesPerPage * Long.BYTES);
+        buffer.asLongBuffer().put(page.entries);
+        try {
+            writeFully(buffer, pagePosition(pageIndex));
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    format("Unable to write page %d of handle table", pageIndex),
+                    e);
+        }
+        page.dirty = false;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position)
+            throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private long readSize() throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return 0L;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            channel.read(header, header.position());
+        }
+        header.flip();
+        return header.getLong();
+    }
+
+    private long pagePosition(long pageIndex) {
+        return HEADER_SIZE + pageIndex * entriesPerPage * Long.BYTES;
+    }
+
+    private static class Page {
+        private final long[] entries;
+        private boolean dirty;
+
+        private Page(int entriesPerPage) {
+            this.entries = new long[entriesPerPage];
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.kata;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * <code>InMemoryMetrics</code> keeps metrics in memory: counters are
+ * {@link LongAdder}s and histograms are {@link LatencyHistogram}s, so
+ * updates from many threads do not contend. Metrics could be read as a
+ * {@link #snapshot()} or through JMX once the registry is registered as an
+ * MBean, every metric is a read-only attribute of it.
+ */
+public class InMemoryMetrics implements Metrics {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final ConcurrentMap<String, AdderCounter> counters =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> histograms =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> gauges =
+            new ConcurrentHashMap<>();
+
+    @Override
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new AdderCounter());
+    }
+
+    @Override
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(
+                name, key -> new LatencyHistogram());
+    }
+
+    @Override
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Reads current values of all metrics. A histogram is reported as its
+     * count, max and percentiles with names like <code>insert.p99</code>.
+     *
+     * @return values of metrics by their names in alphabetical order
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        histograms.forEach((name, histogram) -> {
+            values.put(name + ".count", histogram.count());
+            values.put(name + ".max", histogram.max());
+            for (double percentile : PERCENTILES) {
+                values.put(name + ".p" + percentileName(percentile),
+                        histogram.percentile(percentile));
+            }
+        });
+        return values;
+    }
+
+    /**
+     * Registers the registry in the platform MBean server
+     *
+     * @param objectName a name of the MBean, like
+     *                   <code>org.kata:type=BTree,name=orders</code>
+     * @return the name of registered MBean
+     * @throws JMException if the name is malformed or is already taken
+     */
+    public ObjectName registerMBean(String objectName) throws JMException {
+        ObjectName name = new ObjectName(objectName);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(new MetricsMBean(), name);
+        return name;
+    }
+
+    private static String percentileName(double percentile) {
+        return percentile == Math.rint(percentile)
+                ? String.valueOf((long) percentile)
+                : String.valueOf(percentile).replace(".", "");
+    }
+
+    private static class AdderCounter extends LongAdder implements Counter {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Exposes the current snapshot of metrics as attributes, the set of
+     * attributes grows as components register their metrics
+     */
+    private class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute)
+                throws AttributeNotFoundException
+        {
+            Long value = snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> snapshot = snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Long value = snapshot.get(attribute);
+                if (value != null) {
+                    list.add(new Attribute(attribute, value));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute)
+                throws AttributeNotFoundException
+        {
+            throw new AttributeNotFoundException(
+                    "Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params,
+                             String[] signature) throws ReflectionException
+        {
+            throw new ReflectionException(
+                    new NoSuchMethodException(actionName),
+                    "Metrics have no operations: " + actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            MBeanAttributeInfo[] attributes = snapshot().keySet().stream()
+                    .map(name -> new MBeanAttributeInfo(name,
+                            Long.class.getName(), name, true, false, false))
+                    .toArray(MBeanAttributeInfo[]::new);
+            return new MBeanInfo(InMemoryMetrics.class.getName(),
+                    "Metrics of B-trees and their storages", attributes,
+                    null, null, null);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.kata;
+
+/**
+ * Defines how keys of {@link BTree} are serialized and compared. Keys are
+ * serialized into fixed number of bytes and the tree compares them in
+ * serialized form, so keys are never deserialized while the tree is
+ * searched.
+ * <p>The default comparison is unsigned lexicographic comparison of bytes,
+ * codecs of fixed-width numbers override it with comparison of numbers read
+ * straight from bytes.</p>
+ *
+ * @param <K> a type of keys
+ */
+public interface KeyCodec<K> {
+    /**
+     * @return number of bytes every serialized key takes
+     */
+    int width();
+
+    /**
+     * Serializes key into buffer
+     * @param key a key to serialize
+     * @param buffer a buffer to write the key to
+     * @param offset an offset in buffer to write the key at
+     */
+    void encode(K key, byte[] buffer, int offset);
+
+    /**
+     * Deserializes key from buffer
+     * @param buffer a buffer to read the key from
+     * @param offset an offset in buffer to read the key at
+     * @return deserialized key
+     */
+    K decode(byte[] buffer, int offset);
+
+    /**
+     * Compares two serialized keys
+     * @return negative number, zero or positive number if the left key is
+     * less than, equal to or greater than the right key
+     */
+    default int compare(byte[] left, int leftOffset,
+                        byte[] right, int rightOffset)
+    {
+        for (int i = 0; i < width(); i++) {
+            int difference = (left[leftOffset + i] & 0xFF)
+                    - (right[rightOffset + i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+}
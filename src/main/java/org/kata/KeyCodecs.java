@@ -0,0 +1,162 @@
+package org.kata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static java.lang.String.format;
+
+/**
+ * Standard codecs of {@link BTree} keys. Numbers are written big-endian
+ * and compared as numbers read straight from bytes.
+ */
+public final class KeyCodecs {
+    public static final KeyCodec<Integer> INT = new KeyCodec<Integer>() {
+        @Override
+        public int width() {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public void encode(Integer key, byte[] buffer, int offset) {
+            writeLong(key, Integer.BYTES, buffer, offset);
+        }
+
+        @Override
+        public Integer decode(byte[] buffer, int offset) {
+            return (int) readLong(Integer.BYTES, buffer, offset);
+        }
+
+        @Override
+        public int compare(byte[] left, int leftOffset,
+                           byte[] right, int rightOffset)
+        {
+            return Integer.compare(
+                    (int) readLong(Integer.BYTES, left, leftOffset),
+                    (int) readLong(Integer.BYTES, right, rightOffset));
+        }
+    };
+
+    public static final KeyCodec<Long> LONG = new KeyCodec<Long>() {
+        @Override
+        public int width() {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void encode(Long key, byte[] buffer, int offset) {
+            writeLong(key, Long.BYTES, buffer, offset);
+        }
+
+        @Override
+        public Long decode(byte[] buffer, int offset) {
+            return readLong(Long.BYTES, buffer, offset);
+        }
+
+        @Override
+        public int compare(byte[] left, int leftOffset,
+                           byte[] right, int rightOffset)
+        {
+            return Long.compare(readLong(Long.BYTES, left, leftOffset),
+                    readLong(Long.BYTES, right, rightOffset));
+        }
+    };
+
+    /**
+     * Codec of UUID keys, keys are ordered the same way as
+     * {@link UUID#compareTo(UUID)} does
+     */
+    public static final KeyCodec<UUID> UUID = new KeyCodec<UUID>() {
+        @Override
+        public int width() {
+            return 2 * Long.BYTES;
+        }
+
+        @Override
+        public void encode(UUID key, byte[] buffer, int offset) {
+            writeLong(key.getMostSignificantBits(), Long.BYTES, buffer, offset);
+            writeLong(key.getLeastSignificantBits(), Long.BYTES,
+                    buffer, offset + Long.BYTES);
+        }
+
+        @Override
+        public UUID decode(byte[] buffer, int offset) {
+            return new UUID(readLong(Long.BYTES, buffer, offset),
+                    readLong(Long.BYTES, buffer, offset + Long.BYTES));
+        }
+
+        @Override
+        public int compare(byte[] left, int leftOffset,
+                           byte[] right, int rightOffset)
+        {
+            int result = Long.compare(readLong(Long.BYTES, left, leftOffset),
+                    readLong(Long.BYTES, right, rightOffset));
+            if (result == 0) {
+                result = Long.compare(
+                        readLong(Long.BYTES, left, leftOffset + Long.BYTES),
+                        readLong(Long.BYTES, right, rightOffset + Long.BYTES));
+            }
+            return result;
+        }
+    };
+
+    private KeyCodecs() {
+    }
+
+    /**
+     * Creates codec of short string keys. Strings are stored as UTF-8 bytes
+     * padded with zeros, so they are ordered by code points and should not
+     * contain zero characters.
+     *
+     * @param maxBytes maximal length of UTF-8 representation of a key
+     * @return codec of string keys
+     */
+    public static KeyCodec<String> fixedLengthString(int maxBytes) {
+        return new KeyCodec<String>() {
+            @Override
+            public int width() {
+                return maxBytes;
+            }
+
+            @Override
+            public void encode(String key, byte[] buffer, int offset) {
+                byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > maxBytes) {
+                    throw new IllegalArgumentException(format(
+                            "Key '%s' is longer than %d bytes", key, maxBytes));
+                }
+                System.arraycopy(bytes, 0, buffer, offset, bytes.length);
+                for (int i = bytes.length; i < maxBytes; i++) {
+                    buffer[offset + i] = 0;
+                }
+            }
+
+            @Override
+            public String decode(byte[] buffer, int offset) {
+                int length = 0;
+                while (length < maxBytes && buffer[offset + length] != 0) {
+                    length++;
+                }
+                return new String(
+                        buffer, offset, length, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    private static void writeLong(
+            long value, int width, byte[] buffer, int offset)
+    {
+        for (int i = width - 1; i >= 0; i--) {
+            buffer[offset + i] = (byte) value;
+            value >>= 8;
+        }
+    }
+
+    private static long readLong(int width, byte[] buffer, int offset) {
+        // the first byte is sign extended, the rest are not
+        long value = buffer[offset];
+        for (int i = 1; i < width; i++) {
+            value = (value << 8) | (buffer[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,259 @@
+package org.kata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * <code>MappedFileStorage</code> is implementation of storage that keeps
+ * every object in its own fixed-size page of memory-mapped temporal file.
+ * The file grows by mapped segments of several pages, so loading an object
+ * is a read from mapped memory rather than a file system call.
+ * <p>Handle of an object is the number of its page, that is why objects are
+ * updated in place and the storage needs no index to find them. Each page
+ * holds encoded length of an object followed by its bytes, so an encoded
+ * object must fit into a page.</p>
+ * <p>As well as a temporal {@link FileBasedStorage} the data is available
+ * only until the storage is closed, the file is deleted then, or until JVM
+ * stops if the storage is never closed.</p>
+ * <p>Handles are given and the file is mapped under the lock of the
+ * storage, pages are read and written without it. Pages of different
+ * objects do not overlap, so the storage is thread-safe as long as the
+ * same object is not written concurrently with another access to it, which
+ * is the case behind {@link CachedStorage}.</p>
+ *
+ * @param <T> a type of objects stored in this storage
+ */
+public class MappedFileStorage<T> implements Storage<T>, Closeable {
+    private static final Logger LOG = Logger.getLogger(
+            MappedFileStorage.class.getName());
+
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+    public static final int DEFAULT_PAGES_PER_SEGMENT = 256;
+
+    private final Codec<T> codec;
+    private final int pageSize;
+    private final int pagesPerSegment;
+    private final Path dataFile;
+    private final RandomAccessFile file;
+    private final Metrics.Counter bytesRead;
+    private final Metrics.Counter bytesWritten;
+    // closes and deletes the storage if it is never closed, it is removed
+    // once the storage is closed
+    private final Thread deleteOnExitHook;
+
+    // mapped so far, the array is replaced when the file grows, so pages are
+    // found without the lock
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private volatile long currentHandle = 0L;
+    private boolean closed;
+
+    public MappedFileStorage(Codec<T> codec) throws IOException {
+        this(codec, DEFAULT_PAGE_SIZE, DEFAULT_PAGES_PER_SEGMENT);
+    }
+
+    /**
+     * Creates storage with the specified page geometry
+     *
+     * @param codec a codec used to encode/decode stored objects
+     * @param pageSize a size of page in bytes, it limits size of an encoded
+     *                 object
+     * @param pagesPerSegment a number of pages mapped at once when the file
+     *                        needs to grow
+     */
+    public MappedFileStorage(Codec<T> codec, int pageSize, int pagesPerSegment)
+            throws IOException
+    {
+        this(codec, pageSize, pagesPerSegment, Metrics.NONE);
+    }
+
+    /**
+     * Creates storage with the specified page geometry that reports to the
+     * given metrics
+     *
+     * @param metrics a registry of <code>bytesRead</code> and
+     *                <code>bytesWritten</code> counters of the storage
+     * @see #MappedFileStorage(Codec, int, int)
+     */
+    public MappedFileStorage(Codec<T> codec, int pageSize,
+                             int pagesPerSegment, Metrics metrics)
+            throws IOException
+    {
+        if (pageSize <= Integer.BYTES || pagesPerSegment < 1) {
+            throw new IllegalArgumentException(format(
+                    "Invalid page geometry: page size %d, pages per segment %d",
+                    pageSize, pagesPerSegment));
+        }
+        this.codec = codec;
+        this.bytesRead = metrics.counter("bytesRead");
+        this.bytesWritten = metrics.counter("bytesWritten");
+        this.pageSize = pageSize;
+        this.pagesPerSegment = pagesPerSegment;
+
+        this.dataFile = Files.createTempFile(null, null);
+        this.file = new RandomAccessFile(dataFile.toFile(), "rw");
+        this.deleteOnExitHook = new Thread(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                LOG.warning("Unable to close data file");
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(deleteOnExitHook);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>An object that does not fit into a page is rejected before it gets
+     * a handle.</p>
+     */
+    @Override
+    public long create(T object) throws IOException {
+        byte[] data = encode(object);
+        long handle = nextHandle();
+        writePage(data, handle);
+        return handle;
+    }
+
+    @Override
+    public void update(T object, long handle) throws IOException {
+        checkHandle(handle);
+        writePage(encode(object), handle);
+    }
+
+    @Override
+    public T load(long handle) throws IOException, ClassNotFoundException {
+        checkHandle(handle);
+        ByteBuffer page = page(handle);
+        int length = page.getInt();
+        page.limit(page.position() + length);
+        bytesRead.add(Integer.BYTES + length);
+        return codec.decode(page.slice(), handle);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Writes pages changed so far to the data file
+     */
+    public void flush() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * @return path of the data file
+     */
+    Path dataFile() {
+        return dataFile;
+    }
+
+    /**
+     * @return size of the mapped part of the data file in bytes
+     */
+    long dataFileSize() {
+        return (long) segments.length * pageSize * pagesPerSegment;
+    }
+
+    /**
+     * Drops mappings of the file and deletes it, mapped memory is released
+     * once the mappings are collected. The storage should not be used
+     * afterwards.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segments = new MappedByteBuffer[0];
+        try {
+            file.close();
+        } finally {
+            try {
+                Runtime.getRuntime().removeShutdownHook(deleteOnExitHook);
+            } catch (IllegalStateException e) {
+                // JVM is stopping, the storage is closed by the hook itself
+            }
+            try {
+                Files.deleteIfExists(dataFile);
+            } catch (IOException e) {
+                // some systems do not delete files that are still mapped
+                dataFile.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    protected synchronized long nextHandle() {
+        return currentHandle++;
+    }
+
+    private byte[] encode(T object) throws IOException {
+        byte[] data = codec.encode(object);
+        if (Integer.BYTES + data.length > pageSize) {
+            throw new IOException(format(
+                    "Encoded object of %d bytes does not fit into page of " +
+                            "%d bytes", data.length, pageSize));
+        }
+        return data;
+    }
+
+    private void writePage(byte[] data, long handle) throws IOException {
+        page(handle).putInt(data.length).put(data);
+        bytesWritten.add(Integer.BYTES + data.length);
+    }
+
+    private ByteBuffer page(long handle) throws IOException {
+        int segmentIndex = (int) (handle / pagesPerSegment);
+        int pageIndex = (int) (handle % pagesPerSegment);
+        ByteBuffer page = segment(segmentIndex).duplicate();
+        page.position(pageIndex * pageSize);
+        page.limit(page.position() + pageSize);
+        return page;
+    }
+
+    private MappedByteBuffer segment(int index) throws IOException {
+        MappedByteBuffer[] mapped = segments;
+        if (index < mapped.length) {
+            return mapped[index];
+        }
+        return mapSegment(index);
+    }
+
+    private synchronized MappedByteBuffer mapSegment(int index)
+            throws IOException
+    {
+        MappedByteBuffer[] mapped = segments;
+        if (index >= mapped.length) {
+            long segmentSize = (long) pageSize * pagesPerSegment;
+            int count = mapped.length;
+            mapped = Arrays.copyOf(mapped, index + 1);
+            for (int i = count; i <= index; i++) {
+                mapped[i] = file.getChannel().map(
+                        FileChannel.MapMode.READ_WRITE,
+                        i * segmentSize, segmentSize);
+            }
+            segments = mapped;
+        }
+        return mapped[index];
+    }
+
+    private void checkHandle(long handle) {
+        if (handle < 0 || handle >= currentHandle) {
+            throw new IllegalArgumentException(
+                    format("Unknown handle %d", handle));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.kata;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Defines a registry of operational metrics that trees and storages report
+ * to. Metrics are looked up by name once, when a component is created, and
+ * then updated on hot paths, so implementations should make updates cheap.
+ * {@link InMemoryMetrics} keeps metrics in memory and exposes them through
+ * JMX, other implementations could bridge metrics to a monitoring system.
+ * <p>Components created without a registry report to {@link #NONE}.</p>
+ */
+public interface Metrics {
+    /**
+     * Registry that ignores all updates
+     */
+    Metrics NONE = new Metrics() {
+        private final Counter counter = amount -> {};
+        private final Histogram histogram = value -> {};
+
+        @Override
+        public Counter counter(String name) {
+            return counter;
+        }
+
+        @Override
+        public Histogram histogram(String name) {
+            return histogram;
+        }
+
+        @Override
+        public void gauge(String name, LongSupplier value) {
+        }
+    };
+
+    /**
+     * @param name a name of the counter
+     * @return counter of the given name, the same counter is returned for
+     * the same name
+     */
+    Counter counter(String name);
+
+    /**
+     * @param name a name of the histogram
+     * @return histogram of the given name, the same histogram is returned
+     * for the same name
+     */
+    Histogram histogram(String name);
+
+    /**
+     * Registers a value that is read only when metrics are reported
+     *
+     * @param name a name of the gauge, a gauge registered with the same name
+     *             before is replaced
+     * @param value a supplier of current value
+     */
+    void gauge(String name, LongSupplier value);
+
+    /**
+     * @return view of this registry that puts the given prefix before names
+     * of metrics, so components of the same type could report separately
+     */
+    default Metrics scoped(String prefix) {
+        Metrics metrics = this;
+        return new Metrics() {
+            @Override
+            public Counter counter(String name) {
+                return metrics.counter(prefix + name);
+            }
+
+            @Override
+            public Histogram histogram(String name) {
+                return metrics.histogram(prefix + name);
+            }
+
+            @Override
+            public void gauge(String name, LongSupplier value) {
+                metrics.gauge(prefix + name, value);
+            }
+        };
+    }
+
+    /**
+     * Monotonically growing number of events or bytes
+     */
+    interface Counter {
+        void add(long amount);
+
+        default void increment() {
+            add(1);
+        }
+    }
+
+    /**
+     * Distribution of recorded values, like latencies in nanoseconds
+     */
+    interface Histogram {
+        void record(long value);
+    }
+}
@@ -0,0 +1,37 @@
+package org.kata;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * <code>SerializationCodec</code> is a general purpose codec that relies on
+ * standard Java serialization. It works for any {@link Serializable} object,
+ * but it is slow and verbose, so types stored in bulk should rather come with
+ * a dedicated codec.
+ *
+ * @param <T> a type of objects this codec encodes/decodes
+ */
+public class SerializationCodec<T> implements Codec<T> {
+    @Override
+    public byte[] encode(T object) throws IOException {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(object);
+            oos.flush();
+            return bos.toByteArray();
+        }
+    }
+
+    @Override
+    @SuppressWarnings(value = "unchecked")
+    public T decode(ByteBuffer data, long handle)
+            throws IOException, ClassNotFoundException
+    {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(bytes))) {
+            return (T) ois.readObject();
+        }
+    }
+}
@@ -1,13 +1,14 @@
 package org.kata;
 
 import java.io.IOException;
-import java.io.Serializable;
 
 /**
- * Defines the contract for storage service
+ * Defines the contract for storage service. Storage does not require stored
+ * objects to be {@link java.io.Serializable}, implementations that write
+ * objects out of heap get their binary form from a {@link Codec}.
  * @param <T> a type of objects that a given storage stores/loads
  */
-public interface Storage<T> extends Serializable {
+public interface Storage<T> {
     /**
      * Creates object in the storage
      * @param object an object to store
@@ -0,0 +1,268 @@
+package org.kata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.PrimitiveIterator;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * <code>WriteAheadLog</code> is a sequential redo log of operations on a
+ * tree of int keys. Each record keeps the type of operation, the key and
+ * a checksum of both, so a record torn by a crash is detected and dropped
+ * on recovery.
+ * <pre>
+ * | type: byte | key: int | crc32 of type and key: int |
+ * </pre>
+ * <p>Records are appended to a memory buffer and become durable on commit.
+ * Commits are grouped: one of committing threads writes all records
+ * appended so far and forces them to disk while the others wait for it, so
+ * concurrent writers share one write and one sync.</p>
+ * <p>Position of a record in the log (log sequence number) is the offset
+ * of the end of the record in the log file.</p>
+ */
+class WriteAheadLog implements Closeable {
+    static final byte INSERT = 1;
+    static final byte DELETE = 2;
+
+    private static final int RECORD_SIZE = 1 + Integer.BYTES + Integer.BYTES;
+    private static final int INITIAL_BUFFER_SIZE = 64 * RECORD_SIZE;
+
+    private final Path file;
+    private FileChannel channel;
+    // records appended, but not yet written by a commit
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private ByteBuffer spareBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private long appendedLsn;
+    private long durableLsn;
+    // whether a thread writes records to the file at the moment
+    private boolean writing;
+    // log is not usable after it failed to write records
+    private IOException failure;
+
+    /**
+     * Receives records of the log on recovery
+     */
+    interface Replayer {
+        void apply(byte type, int key);
+    }
+
+    WriteAheadLog(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, CREATE, READ, WRITE);
+    }
+
+    /**
+     * Passes all complete records of the log to the replayer in order they
+     * were appended and drops the rest of the log, if any. Should be called
+     * before records are appended.
+     *
+     * @param replayer a receiver of records
+     */
+    synchronized void recover(Replayer replayer) throws IOException {
+        ByteBuffer records = ByteBuffer.allocate(1024 * RECORD_SIZE);
+        long validEnd = 0;
+        channel.position(0);
+        while (channel.read(records) > 0) {
+            records.flip();
+            while (records.remaining() >= RECORD_SIZE) {
+                byte type = records.get();
+                int key = records.getInt();
+                int checksum = records.getInt();
+                if (checksum != checksum(type, key) ||
+                        type != INSERT && type != DELETE) {
+                    truncate(validEnd);
+                    return;
+                }
+                replayer.apply(type, key);
+                validEnd += RECORD_SIZE;
+            }
+            records.compact();
+        }
+        truncate(validEnd);
+    }
+
+    /**
+     * Appends record to the log, the record is not durable until it is
+     * committed
+     *
+     * @return log sequence number of the record
+     */
+    synchronized long append(byte type, int key) {
+        if (buffer.remaining() < RECORD_SIZE) {
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        writeRecord(buffer, type, key);
+        appendedLsn += RECORD_SIZE;
+        return appendedLsn;
+    }
+
+    /**
+     * Makes all records up to the given one durable. If another thread is
+     * writing records already, waits for it and then writes the records
+     * appended meanwhile, if they are still not written.
+     *
+     * @param lsn log sequence number of the last record to make durable
+     */
+    void commit(long lsn) throws IOException {
+        ByteBuffer batch;
+        long batchLsn;
+        synchronized (this) {
+            awaitWriting(lsn);
+            if (durableLsn >= lsn) {
+                return;
+            }
+            writing = true;
+            batch = buffer;
+            batchLsn = appendedLsn;
+            buffer = spareBuffer;
+        }
+
+        boolean written = false;
+        try {
+            batch.flip();
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+            written = true;
+        } catch (IOException e) {
+            synchronized (this) {
+                failure = e;
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                batch.clear();
+                spareBuffer = batch;
+                if (written) {
+                    durableLsn = batchLsn;
+                }
+                writing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Replaces the log by the log of insertions of given keys. The new log
+     * is written aside and then moved over the old one, so either of them
+     * survives a crash. No records should be appended meanwhile.
+     *
+     * @param keys keys to keep in the log
+     */
+    void rewrite(PrimitiveIterator.OfInt keys) throws IOException {
+        commit(appendedLsn());
+        synchronized (this) {
+            awaitWriting(Long.MAX_VALUE);
+            writing = true;
+        }
+        try {
+            Path rewritten = file.resolveSibling(file.getFileName() + ".new");
+            long size = 0;
+            try (FileChannel out = FileChannel.open(
+                    rewritten, CREATE, TRUNCATE_EXISTING, WRITE))
+            {
+                ByteBuffer records = ByteBuffer.allocate(1024 * RECORD_SIZE);
+                while (keys.hasNext()) {
+                    writeRecord(records, INSERT, keys.nextInt());
+                    size += RECORD_SIZE;
+                    if (!records.hasRemaining() || !keys.hasNext()) {
+                        records.flip();
+                        while (records.hasRemaining()) {
+                            out.write(records);
+                        }
+                        records.clear();
+                    }
+                }
+                out.force(true);
+            }
+            channel.close();
+            Files.move(rewritten, file, ATOMIC_MOVE, REPLACE_EXISTING);
+            channel = FileChannel.open(file, READ, WRITE);
+            channel.position(size);
+            synchronized (this) {
+                appendedLsn = size;
+                durableLsn = size;
+            }
+        } finally {
+            synchronized (this) {
+                writing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    synchronized long appendedLsn() {
+        return appendedLsn;
+    }
+
+    synchronized long durableLsn() {
+        return durableLsn;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            commit(appendedLsn());
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Waits until no other thread writes records or until records up to
+     * the given one are durable
+     */
+    private void awaitWriting(long lsn) throws IOException {
+        while (writing && durableLsn < lsn) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "Interrupted while waiting for log commit");
+            }
+        }
+        if (failure != null) {
+            throw new IOException("Log is not writable", failure);
+        }
+    }
+
+    private void truncate(long size) throws IOException {
+        channel.truncate(size);
+        channel.position(size);
+        appendedLsn = size;
+        durableLsn = size;
+    }
+
+    private static void writeRecord(ByteBuffer buffer, byte type, int key) {
+        buffer.put(type);
+        buffer.putInt(key);
+        buffer.putInt(checksum(type, key));
+    }
+
+    private static int checksum(byte type, int key) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(key >>> 24);
+        crc.update(key >>> 16);
+        crc.update(key >>> 8);
+        crc.update(key);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,105 @@
+package org.kata;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import static java.lang.Integer.MAX_VALUE;
+import static java.lang.Integer.MIN_VALUE;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.kata.BTreeTestUtils.keys;
+
+public class BPlusTreeOfIntegersTest {
+    @Test
+    public void containsAllInsertedKeys() throws Exception {
+        BPlusTreeOfIntegers tree = new BPlusTreeOfIntegers(2);
+        int[] keys = new Random(3).ints(1000, -5000, 5000).toArray();
+        IntStream.of(keys).forEach(tree::insert);
+
+        IntStream.of(keys).forEach(key -> assertTrue(tree.contains(key)));
+        IntStream.range(-5000, 5000)
+                .filter(key -> IntStream.of(keys).noneMatch(k -> k == key))
+                .forEach(key -> assertFalse(tree.contains(key)));
+    }
+
+    @Test
+    public void rangeScanWalksLeavesInAscendingOrder() throws Exception {
+        BPlusTreeOfIntegers tree = new BPlusTreeOfIntegers(3);
+        List<Integer> keys = new Random(5).ints(2000, -1000, 1000)
+                .boxed().collect(toList());
+        keys.forEach(tree::insert);
+        keys.sort(null);
+
+        assertThat(scan(tree, MIN_VALUE, MAX_VALUE), is(keys));
+        assertThat(scan(tree, -10, 10), is(keys.stream()
+                .filter(key -> key >= -10 && key <= 10).collect(toList())));
+        assertThat(scan(tree, 10, -10), is(keys()));
+    }
+
+    @Test
+    public void duplicateKeysSpanningSeveralLeavesAreFound() throws Exception {
+        BPlusTreeOfIntegers tree = new BPlusTreeOfIntegers(2);
+        for (int i = 0; i < 30; i++) {
+            tree.insert(i % 3 == 0 ? 7 : i);
+        }
+
+        // 7 itself is not divisible by 3
+        assertThat(scan(tree, 7, 7).size(), is(11));
+        for (int i = 0; i < 11; i++) {
+            tree.delete(7);
+        }
+        assertFalse(tree.contains(7));
+        assertTrue(tree.contains(8));
+    }
+
+    @Test
+    public void deletedKeysAreNotReturned() throws Exception {
+        BPlusTreeOfIntegers tree = new BPlusTreeOfIntegers(2);
+        IntStream.range(0, 100).forEach(tree::insert);
+
+        IntStream.range(0, 100).filter(key -> key % 2 == 1)
+                .forEach(tree::delete);
+
+        assertThat(scan(tree, MIN_VALUE, MAX_VALUE), is(IntStream.range(0, 100)
+                .filter(key -> key % 2 == 0).boxed().collect(toList())));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void whenNonExistingKeyRequestedToBeRemovedThrowAnException()
+            throws Exception
+    {
+        BPlusTreeOfIntegers tree = new BPlusTreeOfIntegers(2);
+        IntStream.range(0, 10).forEach(tree::insert);
+
+        tree.delete(42);
+    }
+
+    @Test
+    public void closedTreeDoesNotCloseSharedStorage() throws Exception {
+        try (BTreeNodeStorage storage = new BTreeNodeStorage()) {
+            BPlusTreeOfIntegers closed = new BPlusTreeOfIntegers(2, storage);
+            IntStream.range(0, 100).forEach(closed::insert);
+            closed.close();
+
+            BPlusTreeOfIntegers tree = new BPlusTreeOfIntegers(2, storage);
+            IntStream.range(0, 100).forEach(tree::insert);
+            assertTrue(tree.contains(99));
+            tree.close();
+        }
+    }
+
+    private List<Integer> scan(BPlusTreeOfIntegers tree, int from, int to) {
+        List<Integer> keys = new ArrayList<>();
+        tree.rangeScan(from, to).forEachRemaining((IntConsumer) keys::add);
+        return keys;
+    }
+}
@@ -0,0 +1,91 @@
+package org.kata;
+
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+public class BTreeBytesMapOfIntegersTest {
+    @Test
+    public void shortValuesAreKeptInlineAndLongOnesOverflow() throws Exception {
+        Storage<byte[]> overflowStorage =
+                spy(new FileBasedStorage<>(new ByteArrayCodec()));
+        BTreeBytesMapOfIntegers map =
+                new BTreeBytesMapOfIntegers(2, overflowStorage);
+
+        byte[] empty = new byte[0];
+        byte[] inline = {1, -2, 3, -4, 5, -6, 127};
+        byte[] overflow = "does not fit into long".getBytes();
+        map.put(1, empty);
+        map.put(2, inline);
+        map.put(3, overflow);
+
+        assertArrayEquals(empty, map.get(1).get());
+        assertArrayEquals(inline, map.get(2).get());
+        assertArrayEquals(overflow, map.get(3).get());
+        verify(overflowStorage, times(1)).create(any(byte[].class));
+    }
+
+    @Test
+    public void overflowRecordIsReusedWhenLongValueIsReplaced()
+            throws Exception
+    {
+        Storage<byte[]> overflowStorage =
+                spy(new FileBasedStorage<>(new ByteArrayCodec()));
+        BTreeBytesMapOfIntegers map =
+                new BTreeBytesMapOfIntegers(2, overflowStorage);
+
+        map.put(1, "the first long value".getBytes());
+        map.put(1, "the second long value".getBytes());
+
+        assertArrayEquals("the second long value".getBytes(), map.get(1).get());
+        verify(overflowStorage, times(1)).create(any(byte[].class));
+        verify(overflowStorage, times(1)).update(any(byte[].class), anyLong());
+    }
+
+    @Test
+    public void missingKeyHasNoValue() throws Exception {
+        BTreeBytesMapOfIntegers map = new BTreeBytesMapOfIntegers(2);
+        map.put(1, new byte[]{1});
+
+        assertThat(map.get(2), is(Optional.empty()));
+        assertThat(map.remove(1), is(true));
+        assertFalse(map.containsKey(1));
+    }
+
+    @Test
+    public void manyValuesCanBeStored() throws Exception {
+        BTreeBytesMapOfIntegers map = new BTreeBytesMapOfIntegers(3);
+        for (int key = 0; key < 300; key++) {
+            map.put(key, new byte[key % 20]);
+        }
+
+        for (int key = 0; key < 300; key++) {
+            assertThat(map.get(key).get().length, is(key % 20));
+        }
+    }
+
+    @Test
+    public void closedMapDoesNotCloseGivenOverflowStorage() throws Exception {
+        FileBasedStorage<byte[]> overflowStorage =
+                spy(new FileBasedStorage<>(new ByteArrayCodec()));
+        BTreeBytesMapOfIntegers map =
+                new BTreeBytesMapOfIntegers(2, overflowStorage);
+        long handle = overflowStorage.create("kept after map".getBytes());
+        map.put(1, "does not fit into long".getBytes());
+
+        map.close();
+
+        verify(overflowStorage, never()).close();
+        assertArrayEquals("kept after map".getBytes(),
+                overflowStorage.load(handle));
+        overflowStorage.close();
+    }
+}
@@ -0,0 +1,94 @@
+package org.kata;
+
+import org.junit.Test;
+
+import java.util.OptionalLong;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BTreeMapOfIntegersTest {
+    @Test
+    public void returnsValueAssociatedWithKey() throws Exception {
+        BTreeMapOfIntegers map = new BTreeMapOfIntegers(2);
+        for (int key = 0; key < 500; key++) {
+            map.put(key, key * 1000L);
+        }
+
+        for (int key = 0; key < 500; key++) {
+            assertThat(map.get(key), is(OptionalLong.of(key * 1000L)));
+        }
+        assertThat(map.get(500), is(OptionalLong.empty()));
+        assertFalse(map.containsKey(-1));
+    }
+
+    @Test
+    public void valuesFollowKeysWhenNodesAreSplit() throws Exception {
+        Random random = new Random(42);
+        BTreeMapOfIntegers map = new BTreeMapOfIntegers(3);
+        int[] keys = random.ints(1000).toArray();
+        for (int key : keys) {
+            map.put(key, -key);
+        }
+
+        for (int key : keys) {
+            assertThat(map.get(key), is(OptionalLong.of(-key)));
+        }
+    }
+
+    @Test
+    public void putReplacesValueOfExistingKey() throws Exception {
+        BTreeMapOfIntegers map = new BTreeMapOfIntegers(3);
+        for (int key = 0; key < 10; key++) {
+            map.put(key, 1);
+        }
+
+        map.put(7, 2);
+        map.put(7, 3);
+
+        assertThat(map.get(7), is(OptionalLong.of(3)));
+        assertThat(map.remove(7), is(OptionalLong.of(3)));
+        assertFalse(map.containsKey(7));
+    }
+
+    @Test
+    public void removeReturnsRemovedValue() throws Exception {
+        BTreeMapOfIntegers map = new BTreeMapOfIntegers(2);
+        map.put(1, 10);
+        map.put(2, 20);
+
+        assertThat(map.remove(1), is(OptionalLong.of(10)));
+        assertThat(map.remove(1), is(OptionalLong.empty()));
+        assertTrue(map.containsKey(2));
+        assertThat(map.get(2), is(OptionalLong.of(20)));
+    }
+
+    @Test
+    public void removeKeepsOtherKeysAndTheirValues() throws Exception {
+        Random random = new Random(7);
+        BTreeMapOfIntegers map =
+                new BTreeMapOfIntegers(2, new BTreeNodeStorage(4));
+        int[] keys = random.ints(500).distinct().toArray();
+        for (int key : keys) {
+            map.put(key, key * 3L);
+        }
+
+        for (int i = 0; i < keys.length; i += 2) {
+            assertThat(map.remove(keys[i]), is(OptionalLong.of(keys[i] * 3L)));
+        }
+
+        for (int i = 0; i < keys.length; i++) {
+            assertThat(map.get(keys[i]), is(i % 2 == 0
+                    ? OptionalLong.empty() : OptionalLong.of(keys[i] * 3L)));
+        }
+        for (int i = 1; i < keys.length; i += 2) {
+            assertThat(map.remove(keys[i]), is(OptionalLong.of(keys[i] * 3L)));
+        }
+        assertFalse(map.containsKey(keys[1]));
+        map.put(1, 2);
+        assertThat(map.get(1), is(OptionalLong.of(2)));
+    }
+}
@@ -0,0 +1,153 @@
+package org.kata;
+
+import org.junit.Test;
+import org.kata.BTreeOfIntegers.BTreeNode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.kata.BTreeTestUtils.STORAGE;
+import static org.kata.BTreeTestUtils.children;
+import static org.kata.BTreeTestUtils.keys;
+import static org.kata.BTreeTestUtils.makeNode;
+
+public class BTreeNodeCodecTest {
+    private final BTreeNodeCodec codec = new BTreeNodeCodec(STORAGE);
+
+    @Test
+    public void decodedNodeIsEqualToEncodedOne() throws Exception {
+        BTreeNode node = makeNode(3, keys(100, 200), children(
+                makeNode(3, keys(50), children()),
+                makeNode(3, keys(150), children()),
+                makeNode(3, keys(250), children())
+        ));
+
+        BTreeNode decoded = codec.decode(
+                ByteBuffer.wrap(codec.encode(node)), node.getHandle());
+
+        assertThat(decoded, is(node));
+        assertThat(decoded.getHandle(), is(node.getHandle()));
+        assertThat(decoded.getChildHandles(), is(node.getChildHandles()));
+    }
+
+    @Test
+    public void encodedNodeHasFixedLayout() throws Exception {
+        BTreeNode node = makeNode(2, keys(7, 9), children());
+
+        byte[] encoded = codec.encode(node);
+
+        assertThat(encoded.length,
+                is(BTreeNodeCodec.HEADER_SIZE + 2 * Integer.BYTES));
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        assertThat(buffer.get(), is(BTreeNodeCodec.FORMAT));
+        assertThat(buffer.getInt(), is(2));
+        assertThat(buffer.getInt(), is(2));
+        assertThat(buffer.getInt(), is(0));
+        assertThat(codec.decode(ByteBuffer.wrap(encoded), 0L).getKeys(),
+                contains(7, 9));
+    }
+
+    @Test(expected = IOException.class)
+    public void failsToDecodeUnknownFormat() throws Exception {
+        byte[] encoded = codec.encode(new BTreeNode(STORAGE, 2));
+        encoded[0] = 42;
+
+        codec.decode(ByteBuffer.wrap(encoded), 0L);
+    }
+
+    @Test
+    public void valuesAreEncodedWithKeys() throws Exception {
+        BTreeNode node = new BTreeNode(STORAGE, 2, true);
+        node.insertNonFull(5, 500L);
+        node.insertNonFull(3, 300L);
+
+        byte[] encoded = codec.encode(node);
+        BTreeNode decoded = codec.decode(ByteBuffer.wrap(encoded), 0L);
+
+        assertThat(encoded[0], is(BTreeNodeCodec.FORMAT_WITH_VALUES));
+        assertThat(decoded.getKeys(), contains(3, 5));
+        assertThat(decoded.getValues(), contains(300L, 500L));
+    }
+
+    @Test
+    public void nextLeafIsEncodedForNodesOfBPlusTree() throws Exception {
+        BTreeNodeCodec compressing = new BTreeNodeCodec(STORAGE, true);
+        BTreeNode leaf = new BTreeNode(STORAGE, 2, false, true);
+        leaf.insertNonFull(42);
+        leaf.linkNextLeaf(new BTreeNode(STORAGE, 2, false, true));
+
+        for (BTreeNodeCodec leafCodec : new BTreeNodeCodec[]{codec, compressing}) {
+            byte[] encoded = leafCodec.encode(leaf);
+            BTreeNode decoded = codec.decode(ByteBuffer.wrap(encoded), 0L);
+
+            assertThat(decoded, is(leaf));
+            assertThat(decoded.nextLeaf(), is(leaf.nextLeaf()));
+            assertThat(decoded.linksLeaves(), is(true));
+        }
+        assertThat(codec.encode(leaf)[0], is(BTreeNodeCodec.LINKED_FORMAT));
+        assertThat(compressing.encode(leaf)[0],
+                is(BTreeNodeCodec.COMPRESSED_LINKED_FORMAT));
+    }
+
+    @Test
+    public void compressedNodeIsEqualToEncodedOne() throws Exception {
+        BTreeNodeCodec compressing = new BTreeNodeCodec(STORAGE, true);
+        BTreeNode node = makeNode(3, keys(-100, 200, 200_000), children(
+                makeNode(3, keys(-150), children()),
+                makeNode(3, keys(150), children()),
+                makeNode(3, keys(250), children()),
+                makeNode(3, keys(Integer.MAX_VALUE), children())
+        ));
+
+        byte[] encoded = compressing.encode(node);
+        BTreeNode decoded = codec.decode(ByteBuffer.wrap(encoded), 7L);
+
+        assertThat(encoded[0], is(BTreeNodeCodec.COMPRESSED_FORMAT));
+        assertThat(decoded, is(node));
+        assertThat(decoded.getChildHandles(), is(node.getChildHandles()));
+    }
+
+    @Test
+    public void compressedNodeTakesLessSpace() throws Exception {
+        BTreeNodeCodec compressing = new BTreeNodeCodec(STORAGE, true);
+        BTreeNode node = new BTreeNode(STORAGE, 32);
+        for (int key = 1_000_000; key < 1_000_000 + 63 * 3; key += 3) {
+            node.insertNonFull(key);
+        }
+
+        byte[] encoded = compressing.encode(node);
+
+        assertThat(encoded.length * 3 < codec.encode(node).length, is(true));
+        assertThat(codec.decode(ByteBuffer.wrap(encoded), 0L), is(node));
+    }
+
+    @Test
+    public void compressedValuesAreEncodedWithKeys() throws Exception {
+        BTreeNodeCodec compressing = new BTreeNodeCodec(STORAGE, true);
+        BTreeNode node = new BTreeNode(STORAGE, 2, true);
+        node.insertNonFull(Integer.MIN_VALUE, -1L);
+        node.insertNonFull(Integer.MAX_VALUE, Long.MAX_VALUE);
+
+        byte[] encoded = compressing.encode(node);
+        BTreeNode decoded = compressing.decode(ByteBuffer.wrap(encoded), 0L);
+
+        assertThat(encoded[0],
+                is(BTreeNodeCodec.COMPRESSED_FORMAT_WITH_VALUES));
+        assertThat(decoded.getKeys(),
+                contains(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertThat(decoded.getValues(), contains(-1L, Long.MAX_VALUE));
+    }
+
+    @Test(expected = IOException.class)
+    public void failsToDecodeTruncatedCompressedNode() throws Exception {
+        BTreeNodeCodec compressing = new BTreeNodeCodec(STORAGE, true);
+        byte[] encoded = compressing.encode(
+                makeNode(3, keys(1000, 2000), children()));
+
+        compressing.decode(
+                ByteBuffer.wrap(encoded, 0, encoded.length - 1), 0L);
+    }
+}
@@ -0,0 +1,193 @@
+package org.kata;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import static java.lang.Integer.MAX_VALUE;
+import static java.lang.Integer.MIN_VALUE;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BTreeNodeStorageTest {
+    @Test
+    public void treesSharingStorageKeepTheirOwnKeys() throws Exception {
+        try (BTreeNodeStorage storage = new BTreeNodeStorage()) {
+            BTreeOfIntegers evenKeys = new BTreeOfIntegers(2, storage);
+            BTreeOfIntegers oddKeys = new BTreeOfIntegers(3, storage);
+            for (int key = 0; key < 1000; key++) {
+                (key % 2 == 0 ? evenKeys : oddKeys).insert(key);
+            }
+
+            assertThat(scan(evenKeys), is(range(0, 1000, 0)));
+            assertThat(scan(oddKeys), is(range(0, 1000, 1)));
+            evenKeys.close();
+            oddKeys.close();
+        }
+    }
+
+    @Test
+    public void treeKeepsNodesInMappedFile() throws Exception {
+        try (BTreeNodeStorage storage = BTreeNodeStorage.mapped(
+                16, 1024, false, Metrics.NONE))
+        {
+            BTreeOfIntegers tree = new BTreeOfIntegers(8, storage);
+            IntStream.range(0, 5000).forEach(tree::insert);
+
+            assertThat(scan(tree),
+                    is(IntStream.range(0, 5000).boxed().collect(toList())));
+            assertTrue(tree.contains(4999));
+            assertFalse(tree.contains(5000));
+            tree.close();
+        }
+    }
+
+    @Test
+    public void closedTreeDoesNotCloseSharedStorage() throws Exception {
+        try (BTreeNodeStorage storage = new BTreeNodeStorage()) {
+            BTreeOfIntegers closed = new BTreeOfIntegers(2, storage);
+            IntStream.range(0, 100).forEach(closed::insert);
+            closed.close();
+
+            BTreeOfIntegers tree = new BTreeOfIntegers(2, storage);
+            IntStream.range(0, 100).forEach(tree::insert);
+            assertTrue(tree.contains(99));
+            tree.close();
+        }
+    }
+
+    @Test
+    public void treeWorksWithinSmallCacheBudget() throws Exception {
+        try (BTreeNodeStorage storage = new BTreeNodeStorage(4)) {
+            BTreeOfIntegers tree = new BTreeOfIntegers(2, storage);
+            IntStream.range(0, 2000).map(i -> (i * 7919) % 2000)
+                    .forEach(tree::insert);
+
+            assertThat(scan(tree),
+                    is(IntStream.range(0, 2000).boxed().collect(toList())));
+            assertFalse(tree.contains(2000));
+            tree.close();
+        }
+    }
+
+    @Test
+    public void treeCreatedWithoutStorageClosesItsOwnStorage()
+            throws Exception
+    {
+        BTreeOfIntegers tree = new BTreeOfIntegers(2);
+        IntStream.range(0, 100).forEach(tree::insert);
+
+        tree.close();
+    }
+
+    @Test
+    public void compactionShrinksDataFileAndKeepsKeys() throws Exception {
+        try (BTreeNodeStorage storage = new BTreeNodeStorage(16)) {
+            BTreeOfIntegers tree = new BTreeOfIntegers(2, storage);
+            IntStream.range(0, 5000).forEach(tree::insert);
+            tree.deleteAll(IntStream.range(0, 5000)
+                    .filter(key -> key % 2 == 1).toArray());
+            storage.flush();
+            long sizeBefore = storage.dataFileSize();
+
+            tree.compact();
+
+            assertTrue(storage.dataFileSize() < sizeBefore);
+            assertThat(scan(tree), is(range(0, 5000, 0)));
+            tree.insert(5001);
+            assertTrue(tree.contains(5001));
+            tree.close();
+        }
+    }
+
+    @Test
+    public void compressedNodesTakeLessSpace() throws Exception {
+        try (BTreeNodeStorage plain = new BTreeNodeStorage(16);
+             BTreeNodeStorage compressed = new BTreeNodeStorage(16, true)) {
+            BTreeOfIntegers plainTree = new BTreeOfIntegers(16, plain);
+            BTreeOfIntegers compressedTree =
+                    new BTreeOfIntegers(16, compressed);
+            plainTree.insertAll(IntStream.range(0, 5000).toArray());
+            compressedTree.insertAll(IntStream.range(0, 5000).toArray());
+            plain.flush();
+            compressed.flush();
+
+            assertTrue(compressed.dataFileSize() * 2 < plain.dataFileSize());
+            assertThat(scan(compressedTree), is(scan(plainTree)));
+            plainTree.close();
+            compressedTree.close();
+        }
+    }
+
+    @Test
+    public void lookupsAndInsertsCompleteAsynchronously() throws Exception {
+        try (BTreeNodeStorage storage = new BTreeNodeStorage(4)) {
+            BTreeOfIntegers tree = new BTreeOfIntegers(2, storage);
+            List<CompletableFuture<Void>> inserted = new ArrayList<>();
+            for (int key = 0; key < 1000; key += 2) {
+                inserted.add(tree.insertAsync(key));
+            }
+            inserted.get(inserted.size() - 1).get();
+
+            List<CompletableFuture<Boolean>> lookups = new ArrayList<>();
+            for (int key = 0; key < 1000; key++) {
+                lookups.add(tree.containsAsync(key));
+            }
+            for (int key = 0; key < 1000; key++) {
+                assertThat(lookups.get(key).get(), is(key % 2 == 0));
+            }
+            assertThat(scan(tree), is(range(0, 1000, 0)));
+            tree.close();
+        }
+    }
+
+    @Test
+    public void treeAndStorageReportMetrics() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        try (BTreeNodeStorage storage =
+                     new BTreeNodeStorage(4, false, metrics)) {
+            BTreeOfIntegers tree = new BTreeOfIntegers(2, storage);
+            tree.enableMetrics(metrics);
+            IntStream.range(0, 1000).forEach(tree::insert);
+            IntStream.range(0, 100).forEach(tree::contains);
+            tree.deleteAll(IntStream.range(0, 500).toArray());
+
+            Map<String, Long> snapshot = metrics.snapshot();
+            assertThat(snapshot.get("insert.count"), is(1000L));
+            assertThat(snapshot.get("contains.count"), is(100L));
+            assertTrue(snapshot.get("height") >= 5);
+            assertTrue(snapshot.get("nodes.splits") > 0);
+            assertTrue(snapshot.get("nodes.merges") > 0);
+            assertTrue(snapshot.get("cache.misses") > 0);
+            assertTrue(snapshot.get("cache.evictions") > 0);
+            assertTrue(snapshot.get("file.bytesWritten") > 0);
+            assertTrue(snapshot.get("file.bytesRead") > 0);
+            tree.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cacheSizeMustBePositive() throws Exception {
+        new BTreeNodeStorage(0);
+    }
+
+    private List<Integer> scan(BTreeOfIntegers tree) {
+        List<Integer> keys = new ArrayList<>();
+        tree.rangeScan(MIN_VALUE, MAX_VALUE)
+                .forEachRemaining((IntConsumer) keys::add);
+        return keys;
+    }
+
+    private List<Integer> range(int from, int to, int remainder) {
+        return IntStream.range(from, to).filter(key -> key % 2 == remainder)
+                .boxed().collect(toList());
+    }
+}
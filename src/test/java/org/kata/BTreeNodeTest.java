@@ -16,13 +16,13 @@ public class BTreeNodeTest {
 
     @Test(expected = IllegalArgumentException.class)
     public void minDegreeMustBeGreaterThanTwo() throws Exception {
-        new BTreeNode(1);
+        new BTreeNode(STORAGE, 1);
     }
 
     @Test
     public void canAddOneKeyToEmptyNode() throws Exception {
         int key = 1234;
-        BTreeNode node = new BTreeNode(3);
+        BTreeNode node = new BTreeNode(STORAGE, 3);
         node.insertNonFull(key);
 
         assertTrue("Node should contain just added key", node.contains(key));
@@ -33,7 +33,7 @@ public class BTreeNodeTest {
     @Test
     public void canRemoveKeyAddedPreviously() throws Exception {
         int key = 1234;
-        BTreeNode node = new BTreeNode(3);
+        BTreeNode node = new BTreeNode(STORAGE, 3);
         node.remove(key);
 
         assertFalse("Node should not contain removed key", node.contains(key));
@@ -41,7 +41,7 @@ public class BTreeNodeTest {
 
     @Test
     public void keysWithinNodeShouldBeOrderedAsc() throws Exception {
-        BTreeNode node = new BTreeNode(5);
+        BTreeNode node = new BTreeNode(STORAGE, 5);
         node.insertNonFull(56);
         node.insertNonFull(98);
         node.insertNonFull(34);
@@ -54,7 +54,7 @@ public class BTreeNodeTest {
     public void whenLeafNodeIsNotFullAndKeyIsAddedThenTheKeyIsAddedIntoTheLeaf()
             throws Exception
     {
-        BTreeNode node = new BTreeNode(2);
+        BTreeNode node = new BTreeNode(STORAGE, 2);
         int newKey = 5678;
         node.insertNonFull(newKey);
 
@@ -141,7 +141,7 @@ public class BTreeNodeTest {
 
     @Test
     public void justCreatedNodeShouldBePlacedInTheStorage() throws Exception {
-        BTreeNode originalNode = new BTreeNode(10);
+        BTreeNode originalNode = new BTreeNode(STORAGE, 10);
         assertNotNull(originalNode.getHandle());
 
         BTreeNode restoredNode = originalNode.readFromDisk(originalNode.getHandle());
@@ -151,8 +151,8 @@ public class BTreeNodeTest {
     @Test
     public void nodesAreEqualIfRepresentTheSameLogicalNodeOrTree() throws Exception {
         int minDegree = 2;
-        BTreeNode oneNode = new BTreeNode(minDegree);
-        BTreeNode otherNode = new BTreeNode(minDegree);
+        BTreeNode oneNode = new BTreeNode(STORAGE, minDegree);
+        BTreeNode otherNode = new BTreeNode(STORAGE, minDegree);
         assertThat(oneNode, is(otherNode));
 
         oneNode = makeNode(keys(100), children());
@@ -171,4 +171,25 @@ public class BTreeNodeTest {
         );
         assertThat(oneNode, is(otherNode));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void canFindKeysInWideNodeWithDuplicates() throws Exception {
+        BTreeNode node = new BTreeNode(STORAGE, 128);
+        for (int key = 0; key < 200; key += 2) {
+            node.insertNonFull(key);
+            node.insertNonFull(key);
+        }
+
+        for (int key = 0; key < 200; key++) {
+            assertThat(node.contains(key), is(key % 2 == 0));
+        }
+        assertFalse(node.contains(-1));
+        assertFalse(node.contains(MAX_VALUE));
+
+        node.remove(100);
+        assertTrue(node.contains(100));
+        node.remove(100);
+        assertFalse(node.contains(100));
+        assertThat(node.getKeys().size(), is(198));
+    }
+}
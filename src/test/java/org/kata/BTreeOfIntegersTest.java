@@ -7,11 +7,15 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.function.IntConsumer;
 import java.util.stream.IntStream;
 
 import static java.lang.Integer.MAX_VALUE;
 import static java.lang.Integer.MIN_VALUE;
 import static java.lang.String.format;
+import static java.util.stream.Collectors.toList;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -23,6 +27,45 @@ import static org.kata.BTreeTestUtils.*;
 import static org.kata.WhiteBoxTestableBTreeOfIntegers.generateRandomBTree;
 
 public class BTreeOfIntegersTest {
+    @Test
+    public void keyFilterKeepsAnswersOfContains() throws Exception {
+        BTreeOfIntegers tree = new BTreeOfIntegers(3);
+        tree.insertAll(IntStream.range(0, 1000).map(i -> i * 2).toArray());
+        tree.enableKeyFilter(0.01);
+
+        IntStream.range(0, 3000).forEach(i -> tree.insert(2001 + i * 2));
+        tree.deleteAll(IntStream.range(0, 2500).map(i -> i * 2).toArray());
+        tree.insert(4);
+
+        for (int key = 0; key < 8000; key++) {
+            boolean expected = key == 4 || key > 2000 && key % 2 == 1;
+            assertThat("Key " + key, tree.contains(key), is(expected));
+        }
+        tree.close();
+    }
+
+    @Test
+    public void keyFilterOfBulkLoadedTreeKeepsAnswersOfContains()
+            throws Exception
+    {
+        BTreeOfIntegers tree = BTreeOfIntegers.bulkLoad(
+                3, IntStream.range(0, 5000).map(i -> i * 2));
+        tree.delete(0);
+        tree.deleteAll(new int[]{2, 4, 5});
+        tree.enableKeyFilter(0.01);
+
+        for (int key = 0; key < 10000; key++) {
+            boolean expected = key > 4 && key % 2 == 0;
+            assertThat("Key " + key, tree.contains(key), is(expected));
+        }
+        tree.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keyFilterRejectsInvalidFalsePositiveRate() throws Exception {
+        new BTreeOfIntegers(2).enableKeyFilter(0);
+    }
+
     @Test
     public void canAddOneKeyToEmptyTree() throws Exception {
         int minDegree = 3;
@@ -45,6 +88,27 @@ public class BTreeOfIntegersTest {
                 tree.contains(testKey));
     }
 
+    @Test
+    public void keysDeletedOneByOneAreGoneAndOthersAreKept() throws Exception {
+        BTreeOfIntegers tree = new BTreeOfIntegers(2);
+        List<Integer> keys = IntStream.range(0, 2000).boxed()
+                .collect(toList());
+        keys.forEach(tree::insert);
+        Collections.shuffle(keys, new Random(11));
+
+        List<Integer> deleted = keys.subList(0, 1500);
+        deleted.forEach(tree::delete);
+
+        deleted.forEach(key -> assertFalse(tree.contains(key)));
+        List<Integer> left = new ArrayList<>(keys.subList(1500, 2000));
+        left.sort(null);
+        List<Integer> scanned = new ArrayList<>();
+        tree.rangeScan(MIN_VALUE, MAX_VALUE)
+                .forEachRemaining((IntConsumer) scanned::add);
+        assertThat(scanned, is(left));
+        tree.close();
+    }
+
     @Test
     public void whenRootLeafNodeIsFullAndKeyIsAdded()
             throws Exception
@@ -316,7 +380,7 @@ public class BTreeOfIntegersTest {
         int minDegree = 2;
         BTreeNode initialTree = makeNode(keys(4, 8), children(
                 makeNode(keys(1, 2, 3), children()),
-                makeNode(keys(5, 6, 7), children()),
+                makeNode(keys(6), children()),
                 makeNode(keys(9, 10, 11), children())
                 )
         );
@@ -327,7 +391,7 @@ public class BTreeOfIntegersTest {
 
         BTreeNode expectedTree = makeNode(keys(4, 9), children(
                 makeNode(keys(1, 2, 3), children()),
-                makeNode(keys(5, 6, 7), children()),
+                makeNode(keys(6), children()),
                 makeNode(keys(10, 11), children())
         ));
         assertThat(tree.getRoot(), is(expectedTree));
@@ -380,6 +444,181 @@ public class BTreeOfIntegersTest {
         assertThat(tree.getRoot(), is(expectedTree));
     }
 
+    @Test
+    public void bulkLoadedTreeContainsAllKeysAndOnlyThem() throws Exception {
+        int[] sortedKeys = IntStream.range(0, 1000).map(i -> i * 2).toArray();
+
+        BTreeOfIntegers tree = BTreeOfIntegers.bulkLoad(3, sortedKeys);
+
+        for (int key = -1; key < 2000; key++) {
+            assertThat(tree.contains(key), is(key >= 0 && key % 2 == 0));
+        }
+    }
+
+    @Test
+    public void bulkLoadedTreeIsValidBTree() throws Exception {
+        for (int minDegree = 2; minDegree < 6; minDegree++) {
+            for (int keyCount = 0; keyCount < 300; keyCount += 7) {
+                for (double fillFactor : new double[]{0.1, 0.7, 1.0}) {
+                    WhiteBoxTestableBTreeOfIntegers tree =
+                            bulkLoad(minDegree, keyCount, fillFactor);
+
+                    assertIsValidBTree(tree);
+                    assertThat(tree.getAllNodes().stream()
+                            .mapToInt(node -> node.getKeys().size()).sum(),
+                            is(keyCount));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void keysCanBeInsertedIntoBulkLoadedTree() throws Exception {
+        WhiteBoxTestableBTreeOfIntegers tree = bulkLoad(2, 100, 1.0);
+
+        IntStream.range(0, 100).map(i -> i * 10 + 5).forEach(tree::insert);
+
+        assertIsValidBTree(tree);
+        assertTrue(tree.contains(5));
+        assertTrue(tree.contains(995));
+        assertTrue(tree.contains(990));
+    }
+
+    @Test
+    public void bulkLoadKeepsDuplicateKeys() throws Exception {
+        BTreeOfIntegers tree = BTreeOfIntegers.bulkLoad(
+                2, new int[]{1, 1, 1, 1, 1, 2, 2, 2, 2, 2, 2, 3});
+
+        tree.delete(2);
+
+        assertTrue(tree.contains(1));
+        assertTrue(tree.contains(2));
+        assertTrue(tree.contains(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bulkLoadRejectsUnsortedKeys() throws Exception {
+        BTreeOfIntegers.bulkLoad(2, new int[]{1, 2, 3, 5, 4});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bulkLoadRejectsInvalidFillFactor() throws Exception {
+        BTreeOfIntegers.bulkLoad(2, IntStream.range(0, 10).iterator(), 0);
+    }
+
+    @Test
+    public void rangeScanReturnsKeysWithinRangeInAscendingOrder()
+            throws Exception
+    {
+        WhiteBoxTestableBTreeOfIntegers tree = generateRandomBTree();
+        insertKeysIntoTree(keys(-5, 0, 0, 7, 7, 7, 12), tree);
+        List<Integer> allKeys = new ArrayList<>();
+        tree.getAllNodes().forEach(node -> allKeys.addAll(node.getKeys()));
+        Collections.sort(allKeys);
+
+        assertThat(scan(tree, MIN_VALUE, MAX_VALUE), is(allKeys));
+        assertThat(scan(tree, -5, 7), is(allKeys.stream()
+                .filter(key -> key >= -5 && key <= 7).collect(toList())));
+        assertThat(scan(tree, 7, 7), is(keys(7, 7, 7)));
+    }
+
+    @Test
+    public void rangeScanOfEmptyRangeReturnsNothing() throws Exception {
+        BTreeOfIntegers tree = BTreeOfIntegers.bulkLoad(
+                2, IntStream.range(0, 100).map(i -> i * 10));
+
+        assertThat(scan(tree, 11, 19), is(keys()));
+        assertThat(scan(tree, 20, 10), is(keys()));
+        assertThat(scan(tree, 991, MAX_VALUE), is(keys()));
+        assertThat(scan(new BTreeOfIntegers(3), MIN_VALUE, MAX_VALUE),
+                is(keys()));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void rangeScanThrowsExceptionWhenThereAreNoMoreKeys()
+            throws Exception
+    {
+        BTreeOfIntegers tree = new BTreeOfIntegers(3);
+        tree.insert(1);
+        PrimitiveIterator.OfInt cursor = tree.rangeScan(0, 10);
+
+        cursor.nextInt();
+        cursor.nextInt();
+    }
+
+    @Test
+    public void insertAllKeepsTreeValid() throws Exception {
+        Random random = new Random(19);
+        for (int minDegree = 2; minDegree < 6; minDegree++) {
+            WhiteBoxTestableBTreeOfIntegers tree =
+                    new WhiteBoxTestableBTreeOfIntegers(minDegree);
+            List<Integer> expected = new ArrayList<>();
+            for (int batchSize : new int[]{1, 5, 300, 0, 2000, 17}) {
+                int[] batch = random.ints(batchSize, -500, 500).toArray();
+                tree.insertAll(batch);
+                IntStream.of(batch).forEach(expected::add);
+                Collections.sort(expected);
+
+                assertIsValidBTree(tree);
+                assertThat(scan(tree, MIN_VALUE, MAX_VALUE), is(expected));
+            }
+        }
+    }
+
+    @Test
+    public void deleteAllKeepsTreeValid() throws Exception {
+        Random random = new Random(23);
+        for (int minDegree = 2; minDegree < 6; minDegree++) {
+            WhiteBoxTestableBTreeOfIntegers tree =
+                    new WhiteBoxTestableBTreeOfIntegers(minDegree);
+            int[] keys = random.ints(3000, -1000, 1000).toArray();
+            tree.insertAll(keys);
+            List<Integer> expected = IntStream.of(keys).sorted()
+                    .boxed().collect(toList());
+            for (int batchSize : new int[]{1, 10, 200, 0, 1000, 1500}) {
+                int[] batch = random.ints(batchSize, -1100, 1100).toArray();
+                int expectedDeleted = 0;
+                for (int key : batch) {
+                    if (expected.remove((Integer) key)) {
+                        expectedDeleted++;
+                    }
+                }
+
+                assertThat(tree.deleteAll(batch), is(expectedDeleted));
+                assertIsValidBTree(tree);
+                assertThat(scan(tree, MIN_VALUE, MAX_VALUE), is(expected));
+            }
+        }
+    }
+
+    @Test
+    public void deleteAllOfAllKeysLeavesEmptyTree() throws Exception {
+        WhiteBoxTestableBTreeOfIntegers tree =
+                new WhiteBoxTestableBTreeOfIntegers(2);
+        IntStream.range(0, 500).forEach(tree::insert);
+
+        assertThat(tree.deleteAll(IntStream.range(0, 500).toArray()), is(500));
+
+        assertTrue(tree.getRoot().isLeaf());
+        assertThat(scan(tree, MIN_VALUE, MAX_VALUE), is(keys()));
+        tree.insertAll(new int[]{3, 1, 2});
+        assertThat(scan(tree, MIN_VALUE, MAX_VALUE), is(keys(1, 2, 3)));
+    }
+
+    @Test
+    public void deleteAllDeletesRangesOfKeys() throws Exception {
+        WhiteBoxTestableBTreeOfIntegers tree =
+                new WhiteBoxTestableBTreeOfIntegers(3);
+        tree.insertAll(IntStream.range(0, 2000).toArray());
+
+        tree.deleteAll(IntStream.range(100, 1900).toArray());
+
+        assertIsValidBTree(tree);
+        assertThat(scan(tree, MIN_VALUE, MAX_VALUE), is(IntStream
+                .concat(IntStream.range(0, 100), IntStream.range(1900, 2000))
+                .boxed().collect(toList())));
+    }
+
     //@Test
     public void smokeCheckOfPopulatingDecentSizeTree() throws Exception {
         BTreeOfIntegers tree = new BTreeOfIntegers(10);
@@ -388,10 +627,43 @@ public class BTreeOfIntegersTest {
         assertTrue(tree.contains(123456));
     }
 
+    private List<Integer> scan(BTreeOfIntegers tree, int from, int to) {
+        List<Integer> keys = new ArrayList<>();
+        tree.rangeScan(from, to).forEachRemaining((IntConsumer) keys::add);
+        return keys;
+    }
+
+    private WhiteBoxTestableBTreeOfIntegers bulkLoad(
+            int minDegree, int keyCount, double fillFactor)
+    {
+        WhiteBoxTestableBTreeOfIntegers tree =
+                new WhiteBoxTestableBTreeOfIntegers(minDegree, STORAGE);
+        tree.setRoot(BTreeOfIntegers.bulkLoad(minDegree,
+                IntStream.range(0, keyCount).map(i -> i * 10).iterator(),
+                fillFactor, STORAGE).root);
+        return tree;
+    }
+
+    private void assertIsValidBTree(WhiteBoxTestableBTreeOfIntegers tree) {
+        int minDegree = tree.getMinDegree();
+        assertTrue(tree.getRoot().keysAreWithinRange(MIN_VALUE, MAX_VALUE));
+        tree.getAllNodes().forEach(node -> {
+            int keyCount = node.getKeys().size();
+            assertTrue(keyCount <= 2 * minDegree - 1);
+            assertTrue(node == tree.getRoot() || keyCount >= minDegree - 1);
+            assertTrue(node.isLeaf() ||
+                    node.getChildHandles().size() == keyCount + 1);
+        });
+        int distanceFromRoot =
+                tree.getDistanceFromRootTo(tree.getAllLeaves().get(0));
+        tree.getAllLeaves().forEach(leaf -> assertThat(
+                tree.getDistanceFromRootTo(leaf), is(distanceFromRoot)));
+    }
+
     private WhiteBoxTestableBTreeOfIntegers makeTestTree(int minDegree, BTreeNode root) {
         WhiteBoxTestableBTreeOfIntegers tree =
-                new WhiteBoxTestableBTreeOfIntegers(minDegree);
+                new WhiteBoxTestableBTreeOfIntegers(minDegree, STORAGE);
         tree.setRoot(root);
         return tree;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,69 @@
+package org.kata;
+
+import org.junit.Test;
+import org.kata.BTreeOfIntegers.BTreeNode;
+
+import static org.kata.BTreeTestUtils.STORAGE;
+import static org.mockito.Mockito.*;
+
+public class BTreeReadaheadTest {
+    private static final int CHILDREN = 32;
+
+    private final BTreeNodeStorage storage = mock(BTreeNodeStorage.class);
+    private final BTreeNode parent = makeParent();
+
+    @Test
+    public void childrenVisitedInOrderArePrefetchedOnce() throws Exception {
+        when(storage.prefetchLimit()).thenReturn(8);
+        BTreeReadahead readahead = new BTreeReadahead(storage);
+
+        for (int i = 0; i < CHILDREN; i++) {
+            readahead.child(parent, i);
+        }
+
+        verify(storage, never()).prefetch(handleOf(0));
+        for (int i = 1; i < CHILDREN; i++) {
+            verify(storage).prefetch(handleOf(i));
+            verify(storage).load(handleOf(i));
+        }
+    }
+
+    @Test
+    public void windowGrowsUpToPrefetchLimit() throws Exception {
+        when(storage.prefetchLimit()).thenReturn(4);
+        BTreeReadahead readahead = new BTreeReadahead(storage);
+
+        for (int i = 0; i < 8; i++) {
+            readahead.child(parent, i);
+        }
+
+        verify(storage).prefetch(handleOf(9));
+        for (int i = 12; i < CHILDREN; i++) {
+            verify(storage, never()).prefetch(handleOf(i));
+        }
+    }
+
+    @Test
+    public void childrenVisitedOutOfOrderAreNotPrefetched() throws Exception {
+        when(storage.prefetchLimit()).thenReturn(8);
+        BTreeReadahead readahead = new BTreeReadahead(storage);
+
+        readahead.child(parent, 10);
+        readahead.child(parent, 3);
+        readahead.child(parent, 20);
+
+        verify(storage, never()).prefetch(anyLong());
+    }
+
+    private static BTreeNode makeParent() {
+        BTreeNode parent = new BTreeNode(STORAGE, CHILDREN / 2);
+        for (int i = 0; i < CHILDREN; i++) {
+            parent.addChild(i, handleOf(i));
+        }
+        return parent;
+    }
+
+    private static long handleOf(int index) {
+        return 1000L + index;
+    }
+}
@@ -0,0 +1,168 @@
+package org.kata;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.UUID;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BTreeTest {
+    private final Random random = new Random(7);
+
+    @Test
+    public void canStoreLongKeys() throws Exception {
+        BTree<Long> tree = new BTree<>(KeyCodecs.LONG, 3);
+        List<Long> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            long key = random.nextLong();
+            keys.add(key);
+            tree.insert(key);
+        }
+
+        keys.forEach(key -> assertTrue(tree.contains(key)));
+        assertFalse(tree.contains(keys.get(0) + 1));
+    }
+
+    @Test
+    public void canStoreUuidKeys() throws Exception {
+        BTree<UUID> tree = new BTree<>(KeyCodecs.UUID, 2);
+        List<UUID> keys = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            UUID key = UUID.randomUUID();
+            keys.add(key);
+            tree.insert(key);
+        }
+
+        keys.forEach(key -> assertTrue(tree.contains(key)));
+        assertFalse(tree.contains(UUID.randomUUID()));
+    }
+
+    @Test
+    public void canStoreShortStringKeys() throws Exception {
+        BTree<String> tree = new BTree<>(KeyCodecs.fixedLengthString(12), 2);
+        for (int i = 0; i < 300; i++) {
+            tree.insert("key-" + i);
+        }
+
+        for (int i = 0; i < 300; i++) {
+            assertTrue(tree.contains("key-" + i));
+        }
+        assertFalse(tree.contains("key-300"));
+        assertFalse(tree.contains(""));
+    }
+
+    @Test
+    public void allowsToInsertDuplicateKeys() throws Exception {
+        BTree<Integer> tree = new BTree<>(KeyCodecs.INT, 2);
+        for (int i = 0; i < 50; i++) {
+            tree.insert(i % 5);
+        }
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(tree.contains(i));
+        }
+        assertFalse(tree.contains(5));
+    }
+
+    @Test
+    public void deletedKeysAreNotFound() throws Exception {
+        BTree<Long> tree = new BTree<>(KeyCodecs.LONG, 2);
+        List<Long> keys = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            long key = random.nextLong();
+            keys.add(key);
+            tree.insert(key);
+        }
+
+        for (int i = 0; i < keys.size(); i += 2) {
+            tree.delete(keys.get(i));
+        }
+
+        for (int i = 0; i < keys.size(); i++) {
+            assertThat(tree.contains(keys.get(i)), is(i % 2 == 1));
+        }
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void whenNonExistingKeyRequestedToBeRemovedThrowAnException()
+            throws Exception
+    {
+        BTree<Integer> tree = new BTree<>(KeyCodecs.INT, 2);
+        for (int i = 0; i < 10; i++) {
+            tree.insert(i);
+        }
+
+        tree.delete(42);
+    }
+
+    @Test
+    public void rangeScanReturnsKeysInAscendingOrder() throws Exception {
+        BTree<Integer> tree = new BTree<>(KeyCodecs.INT, 2);
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            int key = random.nextInt(200) - 100;
+            keys.add(key);
+            tree.insert(key);
+        }
+        keys.sort(null);
+
+        assertThat(scan(tree, Integer.MIN_VALUE, Integer.MAX_VALUE), is(keys));
+        assertThat(scan(tree, -10, 10), is(keys.stream()
+                .filter(key -> key >= -10 && key <= 10).collect(toList())));
+        assertThat(scan(tree, 10, -10), is(new ArrayList<Integer>()));
+    }
+
+    @Test
+    public void numericCodecsKeepNumericOrder() throws Exception {
+        long[] sorted = {Long.MIN_VALUE, -256, -1, 0, 1, 255, 256, Long.MAX_VALUE};
+        for (int i = 0; i < sorted.length - 1; i++) {
+            assertTrue(compare(KeyCodecs.LONG, sorted[i], sorted[i + 1]) < 0);
+            assertThat(compare(KeyCodecs.LONG, sorted[i], sorted[i]), is(0));
+        }
+        assertTrue(compare(KeyCodecs.INT, -1, 0) < 0);
+        assertTrue(compare(KeyCodecs.INT, Integer.MIN_VALUE, Integer.MAX_VALUE) < 0);
+    }
+
+    @Test
+    public void codecsRestoreEncodedKeys() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        assertThat(roundTrip(KeyCodecs.UUID, uuid), is(uuid));
+        assertThat(roundTrip(KeyCodecs.LONG, -42L), is(-42L));
+        assertThat(roundTrip(KeyCodecs.INT, Integer.MIN_VALUE),
+                is(Integer.MIN_VALUE));
+        assertThat(roundTrip(KeyCodecs.fixedLengthString(8), "ключ"),
+                is("ключ"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stringCodecRejectsTooLongKeys() throws Exception {
+        KeyCodecs.fixedLengthString(4).encode("too long", new byte[4], 0);
+    }
+
+    private static <K> List<K> scan(BTree<K> tree, K from, K to) {
+        List<K> keys = new ArrayList<>();
+        tree.rangeScan(from, to).forEachRemaining(keys::add);
+        return keys;
+    }
+
+    private static <K> int compare(KeyCodec<K> codec, K left, K right) {
+        byte[] buffer = new byte[2 * codec.width()];
+        codec.encode(left, buffer, 0);
+        codec.encode(right, buffer, codec.width());
+        return codec.compare(buffer, 0, buffer, codec.width());
+    }
+
+    private static <K> K roundTrip(KeyCodec<K> codec, K key) {
+        byte[] buffer = new byte[codec.width() + 3];
+        codec.encode(key, buffer, 3);
+        return codec.decode(buffer, 3);
+    }
+}
@@ -7,11 +7,13 @@ import static org.kata.BTreeOfIntegers.*;
 import static org.kata.BTreeOfIntegers.BTreeNode.LOWEST_MIN_DEGREE;
 
 public class BTreeTestUtils {
+    // storage of nodes that are created without a tree
+    public static final BTreeNodeStorage STORAGE = BTreeNodeStorage.temporal();
 
     public static BTreeNode makeNode(
             int minDegree, List<Integer> keys, List<BTreeNode> children)
     {
-        BTreeNode expectedTree = new BTreeNode(minDegree);
+        BTreeNode expectedTree = new BTreeNode(STORAGE, minDegree);
         insertKeysIntoNode(keys, expectedTree);
         insertChildrenIntoNode(children, expectedTree);
         expectedTree.saveOnDisk();
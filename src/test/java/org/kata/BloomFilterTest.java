@@ -0,0 +1,62 @@
+package org.kata;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+    @Test
+    public void addedKeysAreAlwaysFound() throws Exception {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int key = -5000; key < 5000; key++) {
+            filter.add(key * 31);
+        }
+
+        for (int key = -5000; key < 5000; key++) {
+            assertTrue(filter.mightContain(key * 31));
+        }
+    }
+
+    @Test
+    public void missingKeysAreMostlyRejected() throws Exception {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int key = 0; key < 10_000; key++) {
+            filter.add(key);
+        }
+
+        int falsePositives = 0;
+        for (int key = 10_000; key < 110_000; key++) {
+            if (filter.mightContain(key)) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives < 2000, is(true));
+    }
+
+    @Test
+    public void filterNeedsRebuildWhenOverfilledOrStale() throws Exception {
+        BloomFilter filter = new BloomFilter(4, 0.01);
+        for (int key = 0; key < 4; key++) {
+            filter.add(key);
+        }
+        assertFalse(filter.needsRebuild());
+
+        filter.forget(3);
+        assertTrue(filter.needsRebuild());
+        assertThat(filter.liveKeys(), is(1));
+
+        BloomFilter overfilled = new BloomFilter(4, 0.01);
+        for (int key = 0; key < 5; key++) {
+            overfilled.add(key);
+        }
+        assertTrue(overfilled.needsRebuild());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void falsePositiveRateMustBeWithinUnitInterval() throws Exception {
+        new BloomFilter(100, 1.0);
+    }
+}
@@ -3,6 +3,13 @@ package org.kata;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.util.Collections.singletonList;
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.TestCase.assertTrue;
 import static org.hamcrest.CoreMatchers.is;
@@ -29,6 +36,7 @@ public class CachedStorageTest {
         String second = "second";
 
         Long firstHandle = cachedStorage.create(first);
+        cachedStorage.update(first, firstHandle);
         Long secondHandle = cachedStorage.create(second);
 
         verify(storage, atLeastOnce()).update(first, firstHandle);
@@ -84,4 +92,258 @@ public class CachedStorageTest {
         verify(storage, atLeastOnce()).load(handle);
         assertThat(restoredData, is(data));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void whenCacheIsFullOnlyLeastRecentlyUsedObjectIsEvicted()
+            throws Exception
+    {
+        Storage<String> storage = new FileBasedStorage<>();
+        CachedStorage<String> cachedStorage = new CachedStorage<>(storage, 2);
+
+        Long firstHandle = cachedStorage.create("first");
+        Long secondHandle = cachedStorage.create("second");
+        cachedStorage.load(firstHandle);
+        Long thirdHandle = cachedStorage.create("third");
+
+        assertTrue(cachedStorage.isCached(firstHandle));
+        assertFalse(cachedStorage.isCached(secondHandle));
+        assertTrue(cachedStorage.isCached(thirdHandle));
+    }
+
+    @Test
+    public void segmentedPoolKeepsItsSizeWhileReadConcurrently()
+            throws Exception
+    {
+        Storage<String> storage = new FileBasedStorage<>();
+        CachedStorage<String> cachedStorage =
+                new CachedStorage<>(storage, 256);
+        List<Long> handles = new ArrayList<>();
+        for (int i = 0; i < 1024; i++) {
+            handles.add(cachedStorage.create("data-" + i));
+        }
+
+        List<Thread> readers = new ArrayList<>();
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            int reader = r;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 4096; i++) {
+                        int index = (i * 7 + reader) % handles.size();
+                        assertThat(cachedStorage.load(handles.get(index)),
+                                is("data-" + index));
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            readers.add(thread);
+            thread.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertTrue(failures.isEmpty());
+        assertTrue(cachedStorage.size() <= 256);
+    }
+
+    @Test
+    public void objectThatCouldNotBeWrittenBackIsNotEvicted() throws Exception {
+        Storage<String> storage = Mockito.spy(new FileBasedStorage<>());
+        CachedStorage<String> cachedStorage = new CachedStorage<>(storage, 1);
+        Long handle = cachedStorage.create("data");
+        cachedStorage.update("new data", handle);
+        doThrow(new IOException("disk is full"))
+                .when(storage).update("new data", handle);
+
+        cachedStorage.create("other data");
+
+        assertTrue(cachedStorage.isCached(handle));
+        assertTrue(cachedStorage.isDirty(handle));
+        assertThat(cachedStorage.load(handle), is("new data"));
+    }
+
+    @Test(expected = IOException.class)
+    public void flushFailsIfObjectCouldNotBeWrittenBack() throws Exception {
+        Storage<String> storage = Mockito.spy(new FileBasedStorage<>());
+        CachedStorage<String> cachedStorage = new CachedStorage<>(storage);
+        Long handle = cachedStorage.create("data");
+        cachedStorage.update("new data", handle);
+        doThrow(new IOException("disk is full"))
+                .when(storage).update("new data", handle);
+
+        cachedStorage.flush();
+    }
+
+    @Test
+    public void objectLoadedFromOriginalStorageGoesToCache() throws Exception {
+        Storage<String> storage = Mockito.spy(new FileBasedStorage<>());
+        CachedStorage<String> cachedStorage = new CachedStorage<>(storage, 1);
+
+        Long handle = cachedStorage.create("data");
+        cachedStorage.create("other data");
+        cachedStorage.load(handle);
+        cachedStorage.load(handle);
+
+        verify(storage, times(1)).load(handle);
+        assertTrue(cachedStorage.isCached(handle));
+    }
+
+    @Test
+    public void pinnedObjectIsNotEvictedUntilUnpinned() throws Exception {
+        Storage<String> storage = new FileBasedStorage<>();
+        CachedStorage<String> cachedStorage = new CachedStorage<>(storage, 1);
+
+        Long pinnedHandle = cachedStorage.create("pinned");
+        cachedStorage.pin(pinnedHandle);
+        Long otherHandle = cachedStorage.create("other");
+
+        assertTrue(cachedStorage.isCached(pinnedHandle));
+        assertTrue(cachedStorage.isPinned(pinnedHandle));
+        assertFalse(cachedStorage.isCached(otherHandle));
+
+        cachedStorage.load(otherHandle);
+        cachedStorage.unpin(pinnedHandle);
+
+        // unpinned object is the most recently used one
+        assertTrue(cachedStorage.isCached(pinnedHandle));
+        assertFalse(cachedStorage.isPinned(pinnedHandle));
+        assertFalse(cachedStorage.isCached(otherHandle));
+    }
+
+    @Test
+    public void objectIsPinnedWhenAllCachedObjectsArePinned() throws Exception {
+        Storage<String> storage = new FileBasedStorage<>();
+        CachedStorage<String> cachedStorage = new CachedStorage<>(storage, 1);
+        Long otherHandle = cachedStorage.create("other");
+        Long handle = cachedStorage.create("data");
+        cachedStorage.pin(handle);
+
+        cachedStorage.pin(otherHandle);
+
+        assertTrue(cachedStorage.isPinned(otherHandle));
+        cachedStorage.unpin(otherHandle);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotUnpinObjectThatIsNotPinned() throws Exception {
+        CachedStorage<String> cachedStorage =
+                new CachedStorage<>(new FileBasedStorage<>());
+
+        cachedStorage.unpin(cachedStorage.create("data"));
+    }
+
+    @Test
+    public void cleanObjectIsNotWrittenBackOnEviction() throws Exception {
+        Storage<String> storage = Mockito.spy(new FileBasedStorage<>());
+        CachedStorage<String> cachedStorage = new CachedStorage<>(storage, 1);
+
+        Long handle = cachedStorage.create("clean");
+        cachedStorage.create("other");
+
+        assertFalse(cachedStorage.isCached(handle));
+        verify(storage, never()).update(anyString(), eq((long) handle));
+    }
+
+    @Test
+    public void flushWritesBackOnlyDirtyObjects() throws Exception {
+        Storage<String> storage = Mockito.spy(new FileBasedStorage<>());
+        CachedStorage<String> cachedStorage = new CachedStorage<>(storage);
+
+        Long cleanHandle = cachedStorage.create("clean");
+        Long dirtyHandle = cachedStorage.create("dirty");
+        cachedStorage.update("updated", dirtyHandle);
+        assertTrue(cachedStorage.isDirty(dirtyHandle));
+
+        cachedStorage.flush();
+        cachedStorage.flush();
+
+        verify(storage, never()).update(anyString(), eq((long) cleanHandle));
+        verify(storage, times(1)).update("updated", dirtyHandle);
+        assertFalse(cachedStorage.isDirty(dirtyHandle));
+        assertTrue(cachedStorage.isCached(dirtyHandle));
+    }
+
+    @Test
+    public void evictedObjectIsReported() throws Exception {
+        List<String> evicted = new ArrayList<>();
+        CachedStorage<String> cachedStorage =
+                new CachedStorage<String>(new FileBasedStorage<>(), 1) {
+                    @Override
+                    protected void evicted(long handle, String object) {
+                        evicted.add(object);
+                    }
+                };
+
+        cachedStorage.create("first");
+        cachedStorage.create("second");
+
+        assertThat(evicted, is(singletonList("first")));
+    }
+
+    @Test
+    public void asynchronouslyLoadedObjectGoesToCache() throws Exception {
+        FileBasedStorage<String> storage =
+                Mockito.spy(new FileBasedStorage<>());
+        CachedStorage<String> cachedStorage = new CachedStorage<>(storage);
+        long handle = storage.create("data");
+
+        assertThat(cachedStorage.loadAsync(handle).get(), is("data"));
+        assertThat(cachedStorage.loadAsync(handle).get(), is("data"));
+
+        verify(storage, times(1)).loadAsync(handle);
+        assertTrue(cachedStorage.isCached(handle));
+    }
+
+    @Test
+    public void readSupersededByUpdateIsNotCached() throws Exception {
+        FileBasedStorage<String> storage =
+                Mockito.spy(new FileBasedStorage<>());
+        CachedStorage<String> cachedStorage = new CachedStorage<>(storage, 1);
+        long handle = storage.create("old");
+        CompletableFuture<String> staleRead = new CompletableFuture<>();
+        doReturn(staleRead).doCallRealMethod().when(storage).loadAsync(handle);
+
+        CompletableFuture<String> load = cachedStorage.loadAsync(handle);
+        cachedStorage.update("new", handle);
+        cachedStorage.create("other");
+        staleRead.complete("old");
+
+        assertThat(load.get(), is("new"));
+        assertThat(cachedStorage.load(handle), is("new"));
+    }
+
+    @Test
+    public void blockingStorageIsLoadedInPlaceOfAsynchronousLoad()
+            throws Exception
+    {
+        Storage<String> storage = new Storage<String>() {
+            private final List<String> objects = new ArrayList<>();
+
+            @Override
+            public long create(String object) {
+                objects.add(object);
+                return objects.size() - 1;
+            }
+
+            @Override
+            public void update(String object, long handle) {
+                objects.set((int) handle, object);
+            }
+
+            @Override
+            public String load(long handle) {
+                return objects.get((int) handle);
+            }
+        };
+        long handle = storage.create("data");
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        CachedStorage<String> cachedStorage =
+                new CachedStorage<>(storage, 16, metrics);
+
+        assertThat(cachedStorage.loadAsync(handle).get(), is("data"));
+        assertTrue(cachedStorage.isCached(handle));
+        assertThat(metrics.snapshot().get("misses"), is(1L));
+    }
+}
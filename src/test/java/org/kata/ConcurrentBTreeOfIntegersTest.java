@@ -0,0 +1,270 @@
+package org.kata;
+
+import org.junit.Test;
+import org.kata.BTreeOfIntegers.BTreeNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import static java.lang.Integer.MAX_VALUE;
+import static java.lang.Integer.MIN_VALUE;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentBTreeOfIntegersTest {
+    private static final int THREADS = 8;
+
+    @Test
+    public void containsAllInsertedKeys() throws Exception {
+        ConcurrentBTreeOfIntegers tree = new ConcurrentBTreeOfIntegers(2);
+        int[] keys = new Random(7).ints(1000, -5000, 5000).toArray();
+        IntStream.of(keys).forEach(tree::insert);
+
+        IntStream.of(keys).forEach(key -> assertTrue(tree.contains(key)));
+        assertFalse(tree.contains(5000));
+        assertIsValidBTree(tree, 2);
+    }
+
+    @Test
+    public void deletesKeysInAnyOrderKeepingTreeValid() throws Exception {
+        ConcurrentBTreeOfIntegers tree = new ConcurrentBTreeOfIntegers(2);
+        List<Integer> keys = IntStream.range(0, 500).boxed().collect(toList());
+        Collections.shuffle(keys, new Random(11));
+        keys.forEach(tree::insert);
+        Collections.shuffle(keys, new Random(13));
+
+        for (int i = 0; i < keys.size(); i++) {
+            tree.delete(keys.get(i));
+            assertFalse(tree.contains(keys.get(i)));
+            if (i % 50 == 0) {
+                assertIsValidBTree(tree, 2);
+                keys.subList(i + 1, keys.size())
+                        .forEach(key -> assertTrue(tree.contains(key)));
+            }
+        }
+        assertTrue(tree.root.isLeaf());
+        assertThat(tree.root.numberOfKeys(), is(0));
+    }
+
+    @Test
+    public void deletesOneOfDuplicateKeys() throws Exception {
+        ConcurrentBTreeOfIntegers tree = new ConcurrentBTreeOfIntegers(2);
+        for (int i = 0; i < 30; i++) {
+            tree.insert(i % 3 == 0 ? 7 : i);
+        }
+
+        // 7 itself is not divisible by 3
+        for (int i = 0; i < 11; i++) {
+            assertTrue(tree.contains(7));
+            tree.delete(7);
+        }
+        assertFalse(tree.contains(7));
+        assertIsValidBTree(tree, 2);
+    }
+
+    @Test
+    public void rangeScanReturnsKeysWithinRangeIncludingDuplicates()
+            throws Exception
+    {
+        ConcurrentBTreeOfIntegers tree = new ConcurrentBTreeOfIntegers(3);
+        List<Integer> keys = new Random(17).ints(3000, -1000, 1000)
+                .boxed().collect(toList());
+        // duplicates span more than one batch of the scan
+        IntStream.range(0, 300).forEach(i -> keys.add(42));
+        keys.forEach(tree::insert);
+        keys.sort(null);
+
+        assertThat(scan(tree, MIN_VALUE, MAX_VALUE), is(keys));
+        assertThat(scan(tree, 0, 100), is(keys.stream()
+                .filter(key -> key >= 0 && key <= 100).collect(toList())));
+        assertTrue(scan(tree, 10, -10).isEmpty());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void deletionOfMissingKeyFails() throws Exception {
+        ConcurrentBTreeOfIntegers tree = new ConcurrentBTreeOfIntegers(2);
+        IntStream.range(0, 20).forEach(tree::insert);
+
+        tree.delete(100);
+    }
+
+    @Test
+    public void concurrentInsertsAreAllApplied() throws Exception {
+        ConcurrentBTreeOfIntegers tree = new ConcurrentBTreeOfIntegers(3);
+        runConcurrently(thread -> () -> {
+            IntStream.range(0, 2000)
+                    .forEach(i -> tree.insert(i * THREADS + thread));
+            return null;
+        });
+
+        IntStream.range(0, 2000 * THREADS)
+                .forEach(key -> assertTrue(tree.contains(key)));
+        assertIsValidBTree(tree, 3);
+    }
+
+    @Test
+    public void readersSeeKeysThatAreNotChangedByConcurrentWriters()
+            throws Exception
+    {
+        ConcurrentBTreeOfIntegers tree = new ConcurrentBTreeOfIntegers(2);
+        // even keys are stable, odd keys are inserted and deleted by writers
+        IntStream.range(0, 1000).forEach(i -> tree.insert(i * 2));
+
+        runConcurrently(thread -> () -> {
+            Random random = new Random(thread);
+            for (int i = 0; i < 3000; i++) {
+                if (thread % 2 == 0) {
+                    int key = random.nextInt(1000) * 2;
+                    assertTrue(tree.contains(key));
+                } else {
+                    int key = (random.nextInt(500) * THREADS + thread) * 2 + 1;
+                    tree.insert(key);
+                    tree.delete(key);
+                }
+            }
+            return null;
+        });
+
+        IntStream.range(0, 1000).forEach(i -> {
+            assertTrue(tree.contains(i * 2));
+            assertFalse(tree.contains(i * 2 + 1));
+        });
+        assertIsValidBTree(tree, 2);
+    }
+
+    @Test
+    public void readersSeeKeysWhileRootIsSplitByConcurrentWriters()
+            throws Exception
+    {
+        ConcurrentBTreeOfIntegers tree = new ConcurrentBTreeOfIntegers(2);
+        // stable keys are few, so the root is split again and again
+        IntStream.range(0, 4).forEach(i -> tree.insert(i * 2));
+
+        runConcurrently(thread -> () -> {
+            for (int i = 0; i < 5000; i++) {
+                if (thread % 2 == 0) {
+                    assertTrue(tree.contains(i % 4 * 2));
+                    assertThat(scan(tree, 0, 6).stream()
+                            .filter(key -> key % 2 == 0)
+                            .collect(toList()), is(Arrays.asList(0, 2, 4, 6)));
+                } else {
+                    tree.insert((i * THREADS + thread) * 2 + 1);
+                }
+            }
+            return null;
+        });
+        assertIsValidBTree(tree, 2);
+    }
+
+    @Test
+    public void scansSeeKeysThatAreNotChangedByConcurrentWriters()
+            throws Exception
+    {
+        ConcurrentBTreeOfIntegers tree = new ConcurrentBTreeOfIntegers(2);
+        IntStream.range(0, 1000).forEach(i -> tree.insert(i * 2));
+        List<Integer> stableKeys = IntStream.range(0, 1000)
+                .map(i -> i * 2).boxed().collect(toList());
+
+        runConcurrently(thread -> () -> {
+            Random random = new Random(thread);
+            for (int i = 0; i < 300; i++) {
+                if (thread % 2 == 0) {
+                    List<Integer> keys = scan(tree, MIN_VALUE, MAX_VALUE);
+                    assertThat(keys.stream().filter(key -> key % 2 == 0)
+                            .collect(toList()), is(stableKeys));
+                } else {
+                    int key = (random.nextInt(500) * THREADS + thread) * 2 + 1;
+                    tree.insert(key);
+                    tree.delete(key);
+                }
+            }
+            return null;
+        });
+    }
+
+    @Test
+    public void concurrentDeletesRemoveAllKeys() throws Exception {
+        ConcurrentBTreeOfIntegers tree = new ConcurrentBTreeOfIntegers(2);
+        IntStream.range(0, 1000 * THREADS).forEach(tree::insert);
+
+        runConcurrently(thread -> () -> {
+            IntStream.range(0, 1000)
+                    .forEach(i -> tree.delete(i * THREADS + thread));
+            return null;
+        });
+
+        IntStream.range(0, 1000 * THREADS)
+                .forEach(key -> assertFalse(tree.contains(key)));
+        assertThat(tree.root.numberOfKeys(), is(0));
+    }
+
+    private List<Integer> scan(ConcurrentBTreeOfIntegers tree,
+                               int from, int to)
+    {
+        List<Integer> keys = new ArrayList<>();
+        tree.rangeScan(from, to).forEachRemaining((IntConsumer) keys::add);
+        return keys;
+    }
+
+    private interface TaskFactory {
+        Callable<Void> taskFor(int thread);
+    }
+
+    private void runConcurrently(TaskFactory factory) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                results.add(executor.submit(factory.taskFor(thread)));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void assertIsValidBTree(ConcurrentBTreeOfIntegers tree,
+                                    int minDegree)
+    {
+        assertTrue(tree.root.keysAreWithinRange(MIN_VALUE, MAX_VALUE));
+        assertValidSubtree(tree.root, minDegree, true);
+    }
+
+    /**
+     * @return height of the subtree
+     */
+    private int assertValidSubtree(BTreeNode node, int minDegree,
+                                   boolean isRoot)
+    {
+        int keyCount = node.numberOfKeys();
+        assertTrue(keyCount <= 2 * minDegree - 1);
+        assertTrue(isRoot || keyCount >= minDegree - 1);
+        if (node.isLeaf()) {
+            return 0;
+        }
+        assertThat(node.numberOfChildren(), is(keyCount + 1));
+        int height = -1;
+        for (int i = 0; i < node.numberOfChildren(); i++) {
+            BTreeNode child = node.readFromDisk(node.childHandleAt(i));
+            int childHeight = assertValidSubtree(child, minDegree, false);
+            assertTrue(height < 0 || height == childHeight);
+            height = childHeight;
+        }
+        return height + 1;
+    }
+}
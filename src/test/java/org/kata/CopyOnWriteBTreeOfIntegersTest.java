@@ -0,0 +1,140 @@
+package org.kata;
+
+import org.junit.Test;
+import org.kata.CopyOnWriteBTreeOfIntegers.Snapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import static java.lang.Integer.MAX_VALUE;
+import static java.lang.Integer.MIN_VALUE;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CopyOnWriteBTreeOfIntegersTest {
+    @Test
+    public void snapshotIsNotAffectedByFurtherChanges() throws Exception {
+        CopyOnWriteBTreeOfIntegers tree = new CopyOnWriteBTreeOfIntegers(2);
+        IntStream.range(0, 100).forEach(tree::insert);
+
+        try (Snapshot snapshot = tree.snapshot()) {
+            IntStream.range(100, 200).forEach(tree::insert);
+            IntStream.range(0, 50).forEach(tree::delete);
+
+            assertThat(scan(snapshot), is(range(0, 100)));
+            assertTrue(snapshot.contains(10));
+            assertFalse(snapshot.contains(150));
+        }
+        assertFalse(tree.contains(10));
+        assertTrue(tree.contains(150));
+    }
+
+    @Test
+    public void everySnapshotKeepsItsOwnState() throws Exception {
+        CopyOnWriteBTreeOfIntegers tree = new CopyOnWriteBTreeOfIntegers(3);
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            IntStream.range(i * 50, (i + 1) * 50).forEach(tree::insert);
+            snapshots.add(tree.snapshot());
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(scan(snapshots.get(i)), is(range(0, (i + 1) * 50)));
+            snapshots.get(i).close();
+        }
+    }
+
+    @Test
+    public void nodesAreChangedInPlaceWhenThereIsNoSnapshot() throws Exception {
+        CopyOnWriteBTreeOfIntegers tree = new CopyOnWriteBTreeOfIntegers(10);
+        tree.insert(1);
+        Long rootHandle = tree.root.getHandle();
+
+        tree.insert(2);
+        assertThat(tree.root.getHandle(), is(rootHandle));
+
+        tree.snapshot().close();
+        tree.insert(3);
+        assertThat(tree.root.getHandle(), is(not(rootHandle)));
+    }
+
+    @Test
+    public void deletesAllKeysInAnyOrderWithSnapshotsTaken() throws Exception {
+        CopyOnWriteBTreeOfIntegers tree = new CopyOnWriteBTreeOfIntegers(2);
+        List<Integer> keys = range(0, 300);
+        Collections.shuffle(keys, new Random(3));
+        keys.forEach(tree::insert);
+        Snapshot full = tree.snapshot();
+        Collections.shuffle(keys, new Random(5));
+
+        for (int i = 0; i < keys.size(); i++) {
+            if (i % 25 == 0) {
+                tree.snapshot().close();
+            }
+            tree.delete(keys.get(i));
+            assertFalse(tree.contains(keys.get(i)));
+        }
+        assertThat(tree.root.numberOfKeys(), is(0));
+        assertThat(scan(full), is(range(0, 300)));
+        full.close();
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void deletionOfMissingKeyFails() throws Exception {
+        CopyOnWriteBTreeOfIntegers tree = new CopyOnWriteBTreeOfIntegers(2);
+        IntStream.range(0, 20).forEach(tree::insert);
+
+        tree.delete(100);
+    }
+
+    @Test
+    public void snapshotIsScannedWhileTreeIsChanged() throws Exception {
+        CopyOnWriteBTreeOfIntegers tree = new CopyOnWriteBTreeOfIntegers(2);
+        IntStream.range(0, 1000).forEach(tree::insert);
+        Snapshot snapshot = tree.snapshot();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            results.add(executor.submit(() ->
+                    IntStream.range(1000, 20000).forEach(tree::insert)));
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(() -> {
+                    for (int j = 0; j < 20; j++) {
+                        assertThat(scan(snapshot), is(range(0, 1000)));
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+            snapshot.close();
+        }
+        assertTrue(tree.contains(19999));
+    }
+
+    private List<Integer> scan(Snapshot snapshot) {
+        List<Integer> keys = new ArrayList<>();
+        snapshot.rangeScan(MIN_VALUE, MAX_VALUE)
+                .forEachRemaining((IntConsumer) keys::add);
+        return keys;
+    }
+
+    private List<Integer> range(int from, int to) {
+        return IntStream.range(from, to).boxed().collect(toList());
+    }
+}
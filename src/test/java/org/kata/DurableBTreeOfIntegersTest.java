@@ -0,0 +1,173 @@
+package org.kata;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import static java.lang.Integer.MAX_VALUE;
+import static java.lang.Integer.MIN_VALUE;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.spy;
+
+public class DurableBTreeOfIntegersTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reopenedTreeContainsCommittedChanges() throws Exception {
+        Path logFile = folder.getRoot().toPath().resolve("tree.log");
+        DurableBTreeOfIntegers tree = new DurableBTreeOfIntegers(2, logFile);
+        for (int key = 0; key < 100; key++) {
+            tree.insert(key);
+        }
+        for (int key = 0; key < 100; key += 2) {
+            tree.delete(key);
+        }
+        // the tree is not closed as it would be after a crash
+
+        try (DurableBTreeOfIntegers reopened =
+                     new DurableBTreeOfIntegers(2, logFile))
+        {
+            assertThat(scan(reopened), is(IntStream.range(0, 50)
+                    .map(i -> i * 2 + 1).boxed().collect(toList())));
+        }
+        tree.close();
+    }
+
+    @Test
+    public void failedDeletionIsNotLogged() throws Exception {
+        Path logFile = folder.getRoot().toPath().resolve("tree.log");
+        try (DurableBTreeOfIntegers tree =
+                     new DurableBTreeOfIntegers(2, logFile))
+        {
+            tree.insert(1);
+            try {
+                tree.delete(2);
+            } catch (NoSuchElementException e) {
+                // expected
+            }
+        }
+
+        try (DurableBTreeOfIntegers reopened =
+                     new DurableBTreeOfIntegers(2, logFile))
+        {
+            assertTrue(reopened.contains(1));
+            assertFalse(reopened.contains(2));
+        }
+    }
+
+    @Test
+    public void changeThatCouldNotBeLoggedIsNotApplied() throws Exception {
+        Path logFile = folder.getRoot().toPath().resolve("tree.log");
+        WriteAheadLog log = spy(new WriteAheadLog(logFile));
+        try (DurableBTreeOfIntegers tree = new DurableBTreeOfIntegers(2, log))
+        {
+            tree.insert(1);
+            doThrow(new IOException("disk is full")).when(log).commit(anyLong());
+            try {
+                tree.insert(2);
+            } catch (IOException e) {
+                // expected
+            }
+            try {
+                tree.delete(1);
+            } catch (IOException e) {
+                // expected
+            }
+
+            assertTrue(tree.contains(1));
+            assertFalse(tree.contains(2));
+            doCallRealMethod().when(log).commit(anyLong());
+        }
+    }
+
+    @Test
+    public void checkpointShrinksLogAndKeepsKeys() throws Exception {
+        Path logFile = folder.getRoot().toPath().resolve("tree.log");
+        try (DurableBTreeOfIntegers tree =
+                     new DurableBTreeOfIntegers(3, logFile))
+        {
+            for (int i = 0; i < 10; i++) {
+                for (int key = 0; key < 100; key++) {
+                    tree.insert(key);
+                    tree.delete(key);
+                }
+            }
+            tree.insert(7);
+            long sizeBefore = Files.size(logFile);
+
+            tree.checkpoint();
+            tree.insert(8);
+
+            assertTrue(Files.size(logFile) < sizeBefore);
+        }
+
+        try (DurableBTreeOfIntegers reopened =
+                     new DurableBTreeOfIntegers(3, logFile))
+        {
+            assertThat(scan(reopened), is(IntStream.of(7, 8)
+                    .boxed().collect(toList())));
+        }
+    }
+
+    @Test
+    public void concurrentChangesAreRecovered() throws Exception {
+        Path logFile = folder.getRoot().toPath().resolve("tree.log");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (DurableBTreeOfIntegers tree =
+                     new DurableBTreeOfIntegers(3, logFile))
+        {
+            List<Future<?>> results = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                int first = thread * 500;
+                results.add(executor.submit(() -> {
+                    for (int key = first; key < first + 500; key++) {
+                        tree.insert(key);
+                        // keys inserted and deleted by different threads
+                        tree.insert(-1);
+                        tree.delete(-1);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        try (DurableBTreeOfIntegers reopened =
+                     new DurableBTreeOfIntegers(3, logFile))
+        {
+            assertThat(scan(reopened), is(IntStream.range(0, 4000)
+                    .boxed().collect(toList())));
+        }
+    }
+
+    private List<Integer> scan(DurableBTreeOfIntegers tree) {
+        List<Integer> keys = new ArrayList<>();
+        tree.rangeScan(MIN_VALUE, MAX_VALUE)
+                .forEachRemaining((IntConsumer) keys::add);
+        return keys;
+    }
+}
@@ -1,12 +1,318 @@
 package org.kata;
 
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.kata.BTreeOfIntegers.BTreeNode;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.LongStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.kata.BTreeTestUtils.STORAGE;
+import static org.kata.BTreeTestUtils.children;
+import static org.kata.BTreeTestUtils.keys;
+import static org.kata.BTreeTestUtils.makeNode;
 
 public class FileBasedStorageTest extends StorageContractTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Override
     protected FileBasedStorage<BTreeNode> createStorage() throws IOException {
-        return new FileBasedStorage<>();
+        return new FileBasedStorage<>(new BTreeNodeCodec(STORAGE));
+    }
+
+    @Test
+    public void storedObjectsSurviveReopening() throws Exception {
+        Path dataFile = folder.newFile().toPath();
+        BTreeNode node = makeNode(3, keys(1, 2, 3), children());
+        long handle;
+        try (FileBasedStorage<BTreeNode> storage = new FileBasedStorage<>(
+                dataFile, new BTreeNodeCodec(STORAGE))) {
+            storage.create(new BTreeNode(STORAGE, 2));
+            handle = storage.create(node);
+        }
+
+        try (FileBasedStorage<BTreeNode> storage = new FileBasedStorage<>(
+                dataFile, new BTreeNodeCodec(STORAGE))) {
+            assertThat(storage.load(handle), is(node));
+            assertThat(storage.create(new BTreeNode(STORAGE, 2)), is(handle + 1));
+        }
+    }
+
+    @Test
+    public void filesOfTemporalStorageAreDeletedOnClose() throws Exception {
+        FileBasedStorage<String> storage = new FileBasedStorage<>();
+        storage.create("object");
+        Path dataFile = storage.dataFile();
+
+        storage.close();
+
+        assertThat(Files.exists(dataFile), is(false));
+        assertThat(Files.exists(FileBasedStorage.handleTableFileOf(dataFile)),
+                is(false));
+    }
+
+    @Test
+    public void spaceOfReplacedVersionsIsReused() throws Exception {
+        try (FileBasedStorage<String> storage = new FileBasedStorage<>()) {
+            long[] handles = new long[10];
+            for (int i = 0; i < handles.length; i++) {
+                handles[i] = storage.create("object " + i);
+            }
+            long initialSize = storage.dataFileSize();
+
+            for (int round = 0; round < 100; round++) {
+                for (int i = 0; i < handles.length; i++) {
+                    storage.update("object " + i + "/" + round % 10,
+                            handles[i]);
+                }
+            }
+
+            assertThat(storage.dataFileSize() < 2 * initialSize, is(true));
+            for (int i = 0; i < handles.length; i++) {
+                assertThat(storage.load(handles[i]), is("object " + i + "/9"));
+            }
+        }
+    }
+
+    @Test
+    public void spaceOfNamedFileIsReusedOnlyAfterFlush() throws Exception {
+        Path dataFile = folder.newFile().toPath();
+        try (FileBasedStorage<String> storage = new FileBasedStorage<>(
+                dataFile, new SerializationCodec<>())) {
+            long first = storage.create("the first object");
+            long second = storage.create("second");
+            storage.flush();
+
+            storage.update("first updated", first);
+            assertThat(storage.freeBytes(), is(0L));
+            long sizeBeforeFlush = storage.dataFileSize();
+            storage.flush();
+            assertThat(storage.freeBytes() > 0, is(true));
+
+            storage.update("second", second);
+            storage.flush();
+            assertThat(storage.dataFileSize() <= sizeBeforeFlush, is(true));
+            assertThat(storage.load(first), is("first updated"));
+            assertThat(storage.load(second), is("second"));
+        }
+    }
+
+    @Test
+    public void compactionDropsDeadSpace() throws Exception {
+        Path dataFile = folder.newFile().toPath();
+        long[] handles = new long[100];
+        try (FileBasedStorage<String> storage = new FileBasedStorage<>(
+                dataFile, new SerializationCodec<>())) {
+            for (int i = 0; i < handles.length; i++) {
+                handles[i] = storage.create("object " + i);
+            }
+            long liveSize = storage.dataFileSize();
+            for (int i = 0; i < handles.length; i += 2) {
+                storage.update("object " + i + " updated", handles[i]);
+                storage.update("object " + i, handles[i]);
+            }
+
+            storage.compact(LongStream.of(handles[99], handles[0]).iterator());
+
+            assertThat(storage.dataFileSize(), is(liveSize));
+            assertThat(storage.freeBytes(), is(0L));
+            assertThat(storage.load(handles[99]), is("object 99"));
+            storage.update("object 0 updated", handles[0]);
+        }
+
+        try (FileBasedStorage<String> storage = new FileBasedStorage<>(
+                dataFile, new SerializationCodec<>())) {
+            assertThat(storage.load(handles[0]), is("object 0 updated"));
+            for (int i = 1; i < handles.length; i++) {
+                assertThat(storage.load(handles[i]), is("object " + i));
+            }
+        }
+    }
+
+    @Test
+    public void compactedStorageIsReadableWithoutFlush() throws Exception {
+        Path dataFile = folder.newFile().toPath();
+        Path copy = folder.getRoot().toPath().resolve("copy");
+        try (FileBasedStorage<String> storage = new FileBasedStorage<>(
+                dataFile, new SerializationCodec<>())) {
+            for (int i = 0; i < 100; i++) {
+                storage.update("object " + i,
+                        storage.create("replaced " + i));
+            }
+            storage.compact(LongStream.empty().iterator());
+
+            // copies what a crash right after compaction would leave
+            Files.copy(dataFile, copy);
+            Files.copy(FileBasedStorage.handleTableFileOf(dataFile),
+                    FileBasedStorage.handleTableFileOf(copy));
+        }
+
+        try (FileBasedStorage<String> storage = new FileBasedStorage<>(
+                copy, new SerializationCodec<>())) {
+            for (int i = 0; i < 100; i++) {
+                assertThat(storage.load(i), is("object " + i));
+            }
+        }
+    }
+
+    @Test
+    public void switchToCompactedFileIsCompletedOnReopening() throws Exception {
+        Path dataFile = folder.newFile().toPath();
+        Path tableFile = FileBasedStorage.handleTableFileOf(dataFile);
+        Path oldTableFile = folder.getRoot().toPath().resolve("old.idx");
+        try (FileBasedStorage<String> storage = new FileBasedStorage<>(
+                dataFile, new SerializationCodec<>())) {
+            for (int i = 0; i < 100; i++) {
+                storage.update("object " + i,
+                        storage.create("replaced " + i));
+            }
+        }
+        Files.copy(tableFile, oldTableFile);
+        try (FileBasedStorage<String> storage = new FileBasedStorage<>(
+                dataFile, new SerializationCodec<>())) {
+            storage.compact(LongStream.empty().iterator());
+        }
+        // a crash after the data file is replaced, but before the table is
+        Files.move(tableFile, FileBasedStorage.handleTableFileOf(
+                FileBasedStorage.compactedFileOf(dataFile)));
+        Files.move(oldTableFile, tableFile);
+
+        try (FileBasedStorage<String> storage = new FileBasedStorage<>(
+                dataFile, new SerializationCodec<>())) {
+            for (int i = 0; i < 100; i++) {
+                assertThat(storage.load(i), is("object " + i));
+            }
+        }
+    }
+
+    @Test
+    public void unfinishedCompactionIsDroppedOnReopening() throws Exception {
+        Path dataFile = folder.newFile().toPath();
+        Path compactedFile = FileBasedStorage.compactedFileOf(dataFile);
+        try (FileBasedStorage<String> storage = new FileBasedStorage<>(
+                dataFile, new SerializationCodec<>())) {
+            storage.create("object");
+        }
+        Files.write(compactedFile, new byte[]{1, 2, 3});
+        Files.write(FileBasedStorage.handleTableFileOf(compactedFile),
+                new byte[]{1, 2, 3});
+
+        try (FileBasedStorage<String> storage = new FileBasedStorage<>(
+                dataFile, new SerializationCodec<>())) {
+            assertThat(storage.load(0), is("object"));
+        }
+        assertThat(Files.exists(compactedFile), is(false));
+        assertThat(Files.exists(
+                FileBasedStorage.handleTableFileOf(compactedFile)), is(false));
+    }
+
+    @Test
+    public void objectsChangedDuringCompactionAreKept() throws Exception {
+        try (FileBasedStorage<String> storage = new FileBasedStorage<>()) {
+            long[] handles = new long[2000];
+            for (int i = 0; i < handles.length; i++) {
+                handles[i] = storage.create("object " + i);
+            }
+
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < handles.length; i++) {
+                        storage.update("updated " + i, handles[i]);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.start();
+            storage.compact(LongStream.empty().iterator());
+            writer.join();
+
+            for (int i = 0; i < handles.length; i++) {
+                assertThat(storage.load(handles[i]), is("updated " + i));
+            }
+        }
+    }
+
+    @Test
+    public void objectsAreStoredAndLoadedAsynchronously() throws Exception {
+        try (FileBasedStorage<String> storage = new FileBasedStorage<>()) {
+            String large = String.join("", Collections.nCopies(1000, "large"));
+            List<CompletableFuture<Long>> created = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                created.add(storage.createAsync("object " + i));
+            }
+            long largeHandle = storage.createAsync(large).get();
+            List<Long> handles = new ArrayList<>();
+            for (CompletableFuture<Long> handle : created) {
+                handles.add(handle.get());
+            }
+
+            List<CompletableFuture<Void>> updated = new ArrayList<>();
+            for (int i = 0; i < 100; i += 2) {
+                updated.add(storage.updateAsync(
+                        "updated " + i, handles.get(i)));
+            }
+            CompletableFuture.allOf(updated.toArray(
+                    new CompletableFuture[0])).get();
+
+            assertThat(storage.loadAsync(largeHandle).get(), is(large));
+            for (int i = 0; i < 100; i++) {
+                assertThat(storage.loadAsync(handles.get(i)).get(),
+                        is((i % 2 == 0 ? "updated " : "object ") + i));
+                assertThat(storage.load(handles.get(i)),
+                        is((i % 2 == 0 ? "updated " : "object ") + i));
+            }
+        }
+    }
+
+    @Test
+    public void asynchronousLoadOfUnknownHandleFails() throws Exception {
+        try (FileBasedStorage<String> storage = new FileBasedStorage<>()) {
+            storage.loadAsync(42L).get();
+            fail("Unknown handle should not be loaded");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause() instanceof IllegalArgumentException,
+                    is(true));
+        }
+    }
+
+    @Test
+    public void asynchronousUpdatesDuringCompactionAreKept() throws Exception {
+        try (FileBasedStorage<String> storage = new FileBasedStorage<>()) {
+            long[] handles = new long[1000];
+            for (int i = 0; i < handles.length; i++) {
+                handles[i] = storage.create("object " + i);
+            }
+
+            List<CompletableFuture<Void>> updated = new ArrayList<>();
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < handles.length; i++) {
+                    updated.add(storage.updateAsync(
+                            "updated " + i, handles[i]));
+                }
+            });
+            writer.start();
+            storage.compact(LongStream.empty().iterator());
+            writer.join();
+            CompletableFuture.allOf(updated.toArray(
+                    new CompletableFuture[0])).get();
+
+            for (int i = 0; i < handles.length; i++) {
+                assertThat(storage.load(handles[i]), is("updated " + i));
+            }
+        }
     }
-}
\ No newline at end of file
+}
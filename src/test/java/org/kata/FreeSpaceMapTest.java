@@ -0,0 +1,76 @@
+package org.kata;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class FreeSpaceMapTest {
+    @Test
+    public void adjacentRegionsAreCoalesced() throws Exception {
+        FreeSpaceMap freeSpace = new FreeSpaceMap();
+        freeSpace.free(0, 10);
+        freeSpace.free(20, 10);
+        freeSpace.free(10, 10);
+
+        assertThat(freeSpace.regionCount(), is(1));
+        assertThat(freeSpace.freeBytes(), is(30L));
+        assertThat(freeSpace.allocate(30), is(0L));
+        assertThat(freeSpace.freeBytes(), is(0L));
+    }
+
+    @Test
+    public void smallestRegionThatFitsIsAllocated() throws Exception {
+        FreeSpaceMap freeSpace = new FreeSpaceMap();
+        freeSpace.free(0, 100);
+        freeSpace.free(200, 20);
+        freeSpace.free(300, 50);
+
+        assertThat(freeSpace.allocate(30), is(300L));
+        assertThat(freeSpace.allocate(20), is(200L));
+        assertThat(freeSpace.allocate(20), is(330L));
+        assertThat(freeSpace.allocate(101), is(-1L));
+        assertThat(freeSpace.freeBytes(), is(100L));
+    }
+
+    @Test
+    public void restOfAllocatedRegionRemainsFree() throws Exception {
+        FreeSpaceMap freeSpace = new FreeSpaceMap();
+        freeSpace.free(40, 60);
+
+        assertThat(freeSpace.allocate(25), is(40L));
+        assertThat(freeSpace.allocate(35), is(65L));
+        assertThat(freeSpace.allocate(1), is(-1L));
+    }
+
+    @Test
+    public void freeRegionAtTheEndIsTrimmed() throws Exception {
+        FreeSpaceMap freeSpace = new FreeSpaceMap();
+        freeSpace.free(0, 10);
+        freeSpace.free(50, 50);
+
+        assertThat(freeSpace.trimTail(100), is(50L));
+        assertThat(freeSpace.trimTail(50), is(50L));
+        assertThat(freeSpace.freeBytes(), is(10L));
+    }
+
+    @Test
+    public void regionsCoalescedBeyondTwoGigabytesAreKept() throws Exception {
+        FreeSpaceMap freeSpace = new FreeSpaceMap();
+        long region = Integer.MAX_VALUE;
+        freeSpace.free(0, region);
+        freeSpace.free(region, region);
+        freeSpace.free(2 * region, 10);
+
+        assertThat(freeSpace.regionCount(), is(1));
+        assertThat(freeSpace.freeBytes(), is(2 * region + 10));
+        assertThat(freeSpace.allocate(Integer.MAX_VALUE), is(0L));
+        assertThat(freeSpace.allocate(Integer.MAX_VALUE), is(region));
+        assertThat(freeSpace.trimTail(2 * region + 10), is(2 * region));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyRegionCannotBeFreed() throws Exception {
+        new FreeSpaceMap().free(10, 0);
+    }
+}
@@ -0,0 +1,57 @@
+package org.kata;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class HandleTableTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void returnsStoredOffsetsAfterPagesWereEvicted() throws Exception {
+        HandleTable table = new HandleTable(file(), 4, 2);
+        for (long handle = 0; handle < 100; handle++) {
+            table.put(handle, handle * 10);
+        }
+
+        for (long handle = 0; handle < 100; handle++) {
+            assertThat(table.get(handle), is(handle * 10));
+        }
+        assertThat(table.size(), is(100L));
+    }
+
+    @Test
+    public void unknownHandleHasNoOffset() throws Exception {
+        HandleTable table = new HandleTable(file(), 4, 2);
+        table.put(0, 0);
+
+        assertThat(table.get(1), is(-1L));
+        assertThat(table.get(-1), is(-1L));
+    }
+
+    @Test
+    public void canBeReopenedAfterClose() throws Exception {
+        Path file = file();
+        try (HandleTable table = new HandleTable(file, 4, 2)) {
+            for (long handle = 0; handle < 10; handle++) {
+                table.put(handle, handle + 1000);
+            }
+        }
+
+        try (HandleTable table = new HandleTable(file, 4, 2)) {
+            assertThat(table.size(), is(10L));
+            assertThat(table.get(0), is(1000L));
+            assertThat(table.get(9), is(1009L));
+        }
+    }
+
+    private Path file() throws Exception {
+        return folder.newFile().toPath();
+    }
+}
@@ -0,0 +1,66 @@
+package org.kata;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class InMemoryMetricsTest {
+    @Test
+    public void snapshotReportsAllMetrics() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        AtomicLong size = new AtomicLong(7);
+        metrics.counter("hits").increment();
+        metrics.scoped("cache.").counter("hits").add(2);
+        metrics.gauge("size", size::get);
+        metrics.histogram("insert").record(100);
+        size.set(8);
+
+        Map<String, Long> snapshot = metrics.snapshot();
+
+        assertThat(snapshot.get("hits"), is(1L));
+        assertThat(snapshot.get("cache.hits"), is(2L));
+        assertThat(snapshot.get("size"), is(8L));
+        assertThat(snapshot.get("insert.count"), is(1L));
+        assertThat(snapshot.get("insert.p999"), is(100L));
+    }
+
+    @Test
+    public void metricsAreReadableThroughJmx() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        ObjectName name = metrics.registerMBean(
+                "org.kata:type=Test,name=metricsAreReadableThroughJmx");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            metrics.counter("cache.misses").add(3);
+
+            assertThat(server.getAttribute(name, "cache.misses"), is(3L));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void invocationOfOperationThroughJmxIsRejected() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        ObjectName name = metrics.registerMBean("org.kata:type=Test," +
+                "name=invocationOfOperationThroughJmxIsRejected");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            fail("Metrics should have no operations");
+        } catch (ReflectionException e) {
+            assertThat(e.getCause() instanceof NoSuchMethodException, is(true));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
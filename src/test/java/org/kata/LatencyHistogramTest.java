@@ -0,0 +1,58 @@
+package org.kata;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    @Test
+    public void percentilesAreWithinRelativeErrorOfExactValues()
+            throws Exception
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        assertThat(histogram.count(), is(100_000L));
+        assertThat(histogram.max(), is(100_000_000L));
+        assertWithinError(histogram.percentile(50), 50_000_000L);
+        assertWithinError(histogram.percentile(99), 99_000_000L);
+        assertThat(histogram.percentile(100), is(100_000_000L));
+    }
+
+    @Test
+    public void everyValueFallsIntoBucketThatStartsBelowIt() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(LatencyHistogram.lowestValueOf(bucket) <= value);
+            assertTrue(bucket == LatencyHistogram.bucketOf(Long.MAX_VALUE)
+                    || LatencyHistogram.lowestValueOf(bucket + 1) > value);
+        }
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertThat(histogram.percentile(99), is(0L));
+        assertThat(histogram.max(), is(0L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void percentileMustBeWithinHundred() throws Exception {
+        new LatencyHistogram().percentile(101);
+    }
+
+    private static void assertWithinError(long actual, long expected) {
+        assertTrue(actual + " is not close to " + expected,
+                Math.abs(actual - expected) <=
+                        expected / LatencyHistogram.SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,108 @@
+package org.kata;
+
+import org.junit.Test;
+import org.kata.BTreeOfIntegers.BTreeNode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.kata.BTreeTestUtils.STORAGE;
+
+public class MappedFileStorageTest extends StorageContractTest {
+    @Override
+    protected MappedFileStorage<BTreeNode> createStorage() throws IOException {
+        return new MappedFileStorage<>(new BTreeNodeCodec(STORAGE), 512, 2);
+    }
+
+    @Test
+    public void fileGrowsBeyondFirstSegment() throws Exception {
+        long[] handles = new long[10];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = storage.create(new BTreeNode(STORAGE, i + 2));
+        }
+
+        for (int i = 0; i < handles.length; i++) {
+            assertThat(storage.load(handles[i]).getMinDegree(), is(i + 2));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void failsToStoreObjectThatDoesNotFitIntoPage() throws Exception {
+        Storage<String> storage = new MappedFileStorage<>(
+                new SerializationCodec<>(), 16, 1);
+
+        storage.create("this string is too long for a tiny page");
+    }
+
+    @Test
+    public void rejectedObjectDoesNotTakeHandle() throws Exception {
+        try (MappedFileStorage<String> storage = new MappedFileStorage<>(
+                new SerializationCodec<>(), 64, 1))
+        {
+            long first = storage.create("fits");
+            try {
+                storage.create("this string is too long for a page of " +
+                        "sixty four bytes, so it is rejected");
+                fail("Object should not fit into page");
+            } catch (IOException e) {
+                // expected
+            }
+
+            assertThat(storage.create("fits too"), is(first + 1));
+        }
+    }
+
+    @Test
+    public void fileIsDeletedOnClose() throws Exception {
+        MappedFileStorage<String> storage =
+                new MappedFileStorage<>(new SerializationCodec<>());
+        storage.create("object");
+        Path dataFile = storage.dataFile();
+
+        storage.close();
+
+        assertThat(Files.exists(dataFile), is(false));
+    }
+
+    @Test
+    public void concurrentCreatesGetTheirOwnPages() throws Exception {
+        try (MappedFileStorage<String> storage = new MappedFileStorage<>(
+                new SerializationCodec<>(), 128, 4))
+        {
+            List<Thread> writers = new ArrayList<>();
+            List<List<Long>> handles = new ArrayList<>();
+            for (int w = 0; w < 4; w++) {
+                int writer = w;
+                List<Long> written = new ArrayList<>();
+                handles.add(written);
+                writers.add(new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 500; i++) {
+                            written.add(storage.create(writer + "/" + i));
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+            writers.forEach(Thread::start);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+
+            for (int w = 0; w < 4; w++) {
+                for (int i = 0; i < 500; i++) {
+                    assertThat(storage.load(handles.get(w).get(i)),
+                            is(w + "/" + i));
+                }
+            }
+        }
+    }
+}
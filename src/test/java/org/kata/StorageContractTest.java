@@ -8,6 +8,7 @@ import java.io.IOException;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.kata.BTreeTestUtils.STORAGE;
 import static org.kata.BTreeTestUtils.children;
 import static org.kata.BTreeTestUtils.keys;
 import static org.kata.BTreeTestUtils.makeNode;
@@ -45,9 +46,9 @@ public abstract class StorageContractTest {
     @Test
     public void shouldSaveAndRestoreMultipleObjects() throws Exception {
         Storage<BTreeNode> storage = createStorage();
-        BTreeNode firstNode = new BTreeNode(10);
-        BTreeNode secondNode = new BTreeNode(20);
-        BTreeNode thirdNode = new BTreeNode(30);
+        BTreeNode firstNode = new BTreeNode(STORAGE, 10);
+        BTreeNode secondNode = new BTreeNode(STORAGE, 20);
+        BTreeNode thirdNode = new BTreeNode(STORAGE, 30);
 
         long firstHandle = storage.create(firstNode);
         long secondHandle = storage.create(secondNode);
@@ -64,15 +65,15 @@ public abstract class StorageContractTest {
 
     @Test
     public void shouldUpdateObjectDataInTheStorage() throws Exception {
-        BTreeNode node = new BTreeNode(10);
+        BTreeNode node = new BTreeNode(STORAGE, 10);
         long handle = storage.create(node);
 
-        node.addChild(0, new BTreeNode(20).getHandle());
+        node.addChild(0, new BTreeNode(STORAGE, 20).getHandle());
         storage.update(node, handle);
         BTreeNode restoredNode = storage.load(handle);
 
         assertThat(restoredNode, is(node));
     }
 
-    abstract protected FileBasedStorage<BTreeNode> createStorage() throws IOException;
+    abstract protected Storage<BTreeNode> createStorage() throws IOException;
 }
\ No newline at end of file
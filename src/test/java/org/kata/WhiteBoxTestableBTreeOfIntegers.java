@@ -45,6 +45,12 @@ public class WhiteBoxTestableBTreeOfIntegers extends BTreeOfIntegers {
         super(minDegree);
     }
 
+    public WhiteBoxTestableBTreeOfIntegers(
+            int minDegree, BTreeNodeStorage storage)
+    {
+        super(minDegree, storage);
+    }
+
     public BTreeNode getRoot() {
         return root;
     }
@@ -73,6 +79,11 @@ public class WhiteBoxTestableBTreeOfIntegers extends BTreeOfIntegers {
     }
 
     public void setRoot(BTreeNode root) {
+        this.root.unpin();
         this.root = root;
+        this.root.pin();
+        this.keyCount = 0;
+        rangeScan(Integer.MIN_VALUE, Integer.MAX_VALUE)
+                .forEachRemaining((int key) -> keyCount++);
     }
 }
\ No newline at end of file
@@ -0,0 +1,135 @@
+package org.kata;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class WriteAheadLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void committedRecordsAreRecoveredInOrder() throws Exception {
+        Path file = folder.newFile().toPath();
+        try (WriteAheadLog log = new WriteAheadLog(file)) {
+            log.recover((type, key) -> { });
+            log.append(WriteAheadLog.INSERT, 1);
+            log.append(WriteAheadLog.INSERT, -2);
+            log.commit(log.append(WriteAheadLog.DELETE, 1));
+        }
+
+        assertThat(recover(file),
+                is(asList("insert 1", "insert -2", "delete 1")));
+    }
+
+    @Test
+    public void tornRecordIsDroppedOnRecovery() throws Exception {
+        Path file = folder.newFile().toPath();
+        try (WriteAheadLog log = new WriteAheadLog(file)) {
+            log.recover((type, key) -> { });
+            log.append(WriteAheadLog.INSERT, 1);
+            log.commit(log.append(WriteAheadLog.INSERT, 2));
+        }
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            // the last record is written partially
+            raw.setLength(raw.length() - 3);
+        }
+
+        assertThat(recover(file), is(asList("insert 1")));
+        try (WriteAheadLog log = new WriteAheadLog(file)) {
+            log.recover((type, key) -> { });
+            log.commit(log.append(WriteAheadLog.INSERT, 3));
+        }
+        assertThat(recover(file), is(asList("insert 1", "insert 3")));
+    }
+
+    @Test
+    public void corruptedRecordEndsTheLog() throws Exception {
+        Path file = folder.newFile().toPath();
+        try (WriteAheadLog log = new WriteAheadLog(file)) {
+            log.recover((type, key) -> { });
+            log.append(WriteAheadLog.INSERT, 1);
+            log.append(WriteAheadLog.INSERT, 2);
+            log.commit(log.append(WriteAheadLog.INSERT, 3));
+        }
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.seek(12);
+            raw.write(0x7f);
+        }
+
+        assertThat(recover(file), is(asList("insert 1")));
+    }
+
+    @Test
+    public void concurrentCommitsAreDurable() throws Exception {
+        Path file = folder.newFile().toPath();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (WriteAheadLog log = new WriteAheadLog(file)) {
+            log.recover((type, key) -> { });
+            List<Future<?>> results = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                int first = thread * 1000;
+                results.add(executor.submit(() -> {
+                    for (int key = first; key < first + 1000; key++) {
+                        long lsn = log.append(WriteAheadLog.INSERT, key);
+                        log.commit(lsn);
+                        assertTrue(log.durableLsn() >= lsn);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        List<String> recovered = recover(file);
+        recovered.sort(null);
+        List<String> expected = IntStream.range(0, 8000)
+                .mapToObj(key -> "insert " + key).sorted().collect(toList());
+        assertThat(recovered, is(expected));
+    }
+
+    @Test
+    public void rewrittenLogKeepsOnlyGivenKeys() throws Exception {
+        Path file = folder.newFile().toPath();
+        try (WriteAheadLog log = new WriteAheadLog(file)) {
+            log.recover((type, key) -> { });
+            log.append(WriteAheadLog.INSERT, 1);
+            log.append(WriteAheadLog.DELETE, 1);
+            log.rewrite(IntStream.of(5, 7).iterator());
+            log.commit(log.append(WriteAheadLog.DELETE, 5));
+        }
+
+        assertThat(recover(file),
+                is(asList("insert 5", "insert 7", "delete 5")));
+        assertThat(Files.size(file), is(27L));
+    }
+
+    private List<String> recover(Path file) throws Exception {
+        List<String> records = new ArrayList<>();
+        try (WriteAheadLog log = new WriteAheadLog(file)) {
+            log.recover((type, key) -> records.add(
+                    (type == WriteAheadLog.INSERT ? "insert " : "delete ") + key));
+        }
+        return records;
+    }
+}